@@ -0,0 +1,265 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import com.codahale.metrics.MetricRegistry;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Run;
+import io.jenkins.plugins.kubernetes.ephemeral.EphemeralContainerKubernetesCloudTrait.AdmissionTenant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+import jenkins.metrics.api.Metrics;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.StopWatch;
+import org.csanchez.jenkins.plugins.kubernetes.KubernetesCloud;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Cloud level admission queue for ephemeral container creation. When a creation rate is configured on the
+ * cloud {@link EphemeralContainerKubernetesCloudTrait}, steps are admitted at no more than that rate and the
+ * available rate is shared fairly between tenants (folders or jobs) instead of first come, first served.
+ * A single pipeline with a wide {@code parallel} block can then no longer starve every other job on the
+ * cloud.
+ * <p>
+ * Admission order uses start-time fair queuing. Each request is tagged with a virtual start time, the max of
+ * the queue virtual time and the finish tag of the previous request of the same tenant. The finish tag
+ * advances by {@code 1 / weight} per request, so a tenant with weight {@code 2} is admitted twice as often
+ * as a tenant with weight {@code 1} while both have requests queued. Requests are admitted in start tag
+ * order, and idle tenants do not accumulate credit.
+ */
+@Restricted(NoExternalUse.class)
+class EphemeralContainerAdmissionScheduler {
+
+    private static final Logger LOGGER = Logger.getLogger(EphemeralContainerAdmissionScheduler.class.getName());
+
+    /**
+     * Max number of tenants with a dedicated queue latency metric, others are reported as
+     * {@value EphemeralContainerMetrics#OTHER}.
+     */
+    private static final int MAX_TENANT_METRICS =
+            Integer.getInteger(EphemeralContainerAdmissionScheduler.class.getName() + ".maxTenantMetrics", 100);
+
+    static final String ROOT_TENANT = "root";
+
+    private static final EphemeralContainerAdmissionScheduler INSTANCE = new EphemeralContainerAdmissionScheduler();
+
+    private final ConcurrentMap<String, CloudQueue> clouds = new ConcurrentHashMap<>();
+    private final Set<String> tenantMetrics = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Get the scheduler instance.
+     * @return scheduler, never {@code null}
+     */
+    @NonNull
+    static EphemeralContainerAdmissionScheduler get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Wait until the step is admitted to create an ephemeral container on the cloud. Returns immediately if
+     * the cloud does not have an admission rate configured.
+     * @param cloud kubernetes cloud
+     * @param run step build
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void admit(@NonNull KubernetesCloud cloud, @CheckForNull Run<?, ?> run) throws InterruptedException {
+        EphemeralContainerKubernetesCloudTrait trait =
+                cloud.getTrait(EphemeralContainerKubernetesCloudTrait.class).orElse(null);
+        if (trait == null || trait.getAdmissionRatePerMinute() <= 0) {
+            return;
+        }
+
+        String tenant = tenant(run, trait.getAdmissionTenant());
+        double weight = parseWeights(trait.getAdmissionWeights()).getOrDefault(tenant, 1.0);
+        CloudQueue queue = clouds.computeIfAbsent(cloud.name, CloudQueue::new);
+
+        StopWatch wait = new StopWatch();
+        wait.start();
+        try {
+            queue.admit(tenant, weight, trait.getAdmissionRatePerMinute());
+        } finally {
+            long waitTime = wait.getTime();
+            LOGGER.finest(() -> "Admitted ephemeral container for " + tenant + " on " + cloud.name + " after "
+                    + waitTime + "ms");
+            MetricRegistry metrics = Metrics.metricRegistry();
+            metrics.histogram(MetricNames.EPHEMERAL_CONTAINERS_ADMISSION_WAIT_DURATION)
+                    .update(waitTime);
+            metrics.histogram(MetricNames.admissionTenantWaitDuration(tenantMetric(tenant)))
+                    .update(waitTime);
+        }
+    }
+
+    @NonNull
+    String tenantMetric(@NonNull String tenant) {
+        tenant = MetricNames.sanitize(tenant);
+        if (tenantMetrics.contains(tenant)) {
+            return tenant;
+        }
+
+        // best effort cap on metric cardinality
+        if (tenantMetrics.size() < MAX_TENANT_METRICS) {
+            tenantMetrics.add(tenant);
+            return tenant;
+        }
+
+        return EphemeralContainerMetrics.OTHER;
+    }
+
+    /**
+     * Get the admission tenant of a build.
+     * @param run build
+     * @param mode how builds are grouped into tenants
+     * @return full name of the build job or parent folder, {@code root} for jobs not in a folder
+     */
+    @NonNull
+    static String tenant(@CheckForNull Run<?, ?> run, @NonNull AdmissionTenant mode) {
+        if (run == null) {
+            return ROOT_TENANT;
+        }
+
+        if (mode == AdmissionTenant.JOB) {
+            return run.getParent().getFullName();
+        }
+
+        ItemGroup<?> parent = run.getParent().getParent();
+        if (parent instanceof Item item) {
+            return item.getFullName();
+        }
+
+        return ROOT_TENANT;
+    }
+
+    /**
+     * Parse tenant weights, one {@code tenant=weight} entry per line. Blank lines, lines starting with
+     * {@code #} and entries with an invalid or non-positive weight are ignored.
+     * @param weights weights text
+     * @return weight by tenant name
+     */
+    @NonNull
+    static Map<String, Double> parseWeights(@CheckForNull String weights) {
+        if (StringUtils.isBlank(weights)) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, Double> map = new HashMap<>();
+        for (String line : weights.split("\\R")) {
+            line = line.trim();
+            int idx = line.lastIndexOf('=');
+            if (line.startsWith("#") || idx <= 0) {
+                continue;
+            }
+
+            try {
+                double weight = Double.parseDouble(line.substring(idx + 1).trim());
+                if (weight > 0 && Double.isFinite(weight)) {
+                    map.put(line.substring(0, idx).trim(), weight);
+                }
+            } catch (NumberFormatException ignore) {
+                // skip invalid entry
+            }
+        }
+
+        return map;
+    }
+
+    /**
+     * Admission queue of a single cloud.
+     */
+    static class CloudQueue {
+        private final String name;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final PriorityQueue<Ticket> queue = new PriorityQueue<>();
+        private final Map<String, Double> finishTags = new HashMap<>();
+
+        /** Virtual time, the start tag of the last admitted request. */
+        private double virtualTime;
+        /** Time the next request may be admitted. */
+        private long nextAdmission = System.nanoTime();
+
+        private long sequence;
+
+        CloudQueue(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Wait until admitted.
+         * @param tenant request tenant
+         * @param weight tenant weight
+         * @param ratePerMinute max admissions per minute
+         * @throws InterruptedException if interrupted while waiting
+         */
+        void admit(String tenant, double weight, int ratePerMinute) throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                double start = Math.max(virtualTime, finishTags.getOrDefault(tenant, 0.0));
+                finishTags.put(tenant, start + 1 / weight);
+                Ticket ticket = new Ticket(start, sequence++);
+                queue.add(ticket);
+                try {
+                    while (true) {
+                        if (queue.peek() == ticket) {
+                            long interval = TimeUnit.MINUTES.toNanos(1) / ratePerMinute;
+                            // allow up to a second worth of admissions to burst after the queue was idle
+                            long burst = Math.max(1, ratePerMinute / 60) * interval;
+                            long now = System.nanoTime();
+                            long next = Math.max(nextAdmission, now - burst);
+                            if (next - now <= 0) {
+                                queue.poll();
+                                virtualTime = ticket.start;
+                                nextAdmission = next + interval;
+                                // idle tenants have no credit, forget tags that are behind the virtual time
+                                finishTags.values().removeIf(tag -> tag <= virtualTime);
+                                break;
+                            }
+
+                            changed.awaitNanos(next - now);
+                        } else {
+                            changed.await();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    queue.remove(ticket);
+                    LOGGER.finest(() -> "Interrupted waiting for admission on " + name);
+                    throw e;
+                } finally {
+                    // wake up the next request
+                    changed.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Queued request ordered by start tag, then arrival.
+     */
+    private static class Ticket implements Comparable<Ticket> {
+        private final double start;
+        private final long sequence;
+
+        Ticket(double start, long sequence) {
+            this.start = start;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Ticket o) {
+            int c = Double.compare(start, o.start);
+            return c != 0 ? c : Long.compare(sequence, o.sequence);
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
+import io.fabric8.kubernetes.api.model.Pod;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import jenkins.metrics.api.Metrics;
+import org.csanchez.jenkins.plugins.kubernetes.KubernetesCloud;
+import org.csanchez.jenkins.plugins.kubernetes.KubernetesSlave;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Circuit breakers on ephemeral container start failures per Kubernetes node and per cloud. A node with
+ * an overloaded or broken kubelet or container runtime keeps failing starts with {@code StartError}
+ * terminations or start timeouts, and every step sent there waits out the full start timeout.
+ * <p>
+ * A breaker opens when the failure rate of the most recent starts reaches the threshold configured on the
+ * cloud {@link EphemeralContainerKubernetesCloudTrait}. While open, new starts are rejected immediately.
+ * After the open duration the breaker is half-open and a single trial start is let through, the breaker
+ * closes if the trial succeeds and opens again if it fails. Outcomes of starts allowed before the breaker last
+ * changed state are ignored, so a late failure of a start allowed while closed can not decide the trial.
+ */
+@Restricted(NoExternalUse.class)
+class EphemeralContainerCircuitBreaker {
+
+    private static final Logger LOGGER = Logger.getLogger(EphemeralContainerCircuitBreaker.class.getName());
+
+    /** Number of most recent starts used to calculate the failure rate. */
+    private static final int WINDOW_SIZE =
+            Integer.getInteger(EphemeralContainerCircuitBreaker.class.getName() + ".windowSize", 20);
+    /** Min number of starts in the window before the failure rate is evaluated. */
+    private static final int MIN_CALLS =
+            Integer.getInteger(EphemeralContainerCircuitBreaker.class.getName() + ".minCalls", 5);
+    /** Time in seconds a breaker stays open before allowing a trial start. */
+    private static final long OPEN_DURATION_SECS =
+            Long.getLong(EphemeralContainerCircuitBreaker.class.getName() + ".openDurationSecs", 60);
+
+    private static final EphemeralContainerCircuitBreaker INSTANCE =
+            new EphemeralContainerCircuitBreaker(Metrics::metricRegistry);
+
+    private static final Permit NOOP = new Permit(List.of());
+
+    private final Supplier<MetricRegistry> metrics;
+    private final ConcurrentMap<String, Breaker> breakers = new ConcurrentHashMap<>();
+    private final AtomicBoolean gaugesRegistered = new AtomicBoolean();
+
+    EphemeralContainerCircuitBreaker(@NonNull Supplier<MetricRegistry> metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Get the circuit breaker instance.
+     * @return circuit breaker, never {@code null}
+     */
+    @NonNull
+    static EphemeralContainerCircuitBreaker get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Check the cloud and agent node breakers before starting an ephemeral container.
+     * @param slave kubernetes agent
+     * @param pod agent Pod
+     * @return start permit used to record the start outcome
+     * @throws AbortException if a breaker is open
+     */
+    @NonNull
+    Permit acquire(@NonNull KubernetesSlave slave, @NonNull Pod pod) throws AbortException {
+        KubernetesCloud cloud = slave.getKubernetesCloud();
+        int threshold = cloud.getTrait(EphemeralContainerKubernetesCloudTrait.class)
+                .map(EphemeralContainerKubernetesCloudTrait::getCircuitBreakerFailureRate)
+                .orElse(0);
+        String nodeName = pod.getSpec() == null ? null : pod.getSpec().getNodeName();
+        if (threshold <= 0) {
+            return NOOP;
+        }
+
+        registerGauges();
+
+        List<Ticket> acquired = new ArrayList<>();
+        try {
+            acquire(acquired, cloudKey(cloud.name), "cloud " + cloud.name, threshold);
+            if (nodeName != null) {
+                acquire(acquired, nodeKey(cloud.name, nodeName), "node " + nodeName, threshold);
+            }
+        } catch (AbortException e) {
+            // release any trial taken by a breaker checked before the rejecting one
+            new Permit(acquired).close();
+            throw e;
+        }
+
+        return new Permit(acquired);
+    }
+
+    private void acquire(List<Ticket> acquired, String key, String displayName, int threshold)
+            throws AbortException {
+        Breaker breaker = breaker(key, displayName);
+        breaker.setThreshold(threshold);
+        Ticket ticket = breaker.tryAcquire();
+        if (ticket == null) {
+            metrics.get().counter(MetricNames.EPHEMERAL_CONTAINERS_CIRCUIT_REJECTED).inc();
+            throw new AbortException("Ephemeral container starts on " + displayName
+                    + " are suspended after repeated start failures, try again in " + breaker.getRetryAfter()
+                    + " seconds.");
+        }
+
+        acquired.add(ticket);
+    }
+
+    @NonNull
+    Breaker breaker(@NonNull String key, @NonNull String displayName) {
+        return breakers.computeIfAbsent(key, k -> new Breaker(k, displayName));
+    }
+
+    private void registerGauges() {
+        if (gaugesRegistered.compareAndSet(false, true)) {
+            MetricRegistry registry = metrics.get();
+            Gauge<Long> open = () -> count(State.OPEN);
+            Gauge<Long> halfOpen = () -> count(State.HALF_OPEN);
+            registry.gauge(MetricNames.EPHEMERAL_CONTAINERS_CIRCUIT_OPEN, () -> open);
+            registry.gauge(MetricNames.EPHEMERAL_CONTAINERS_CIRCUIT_HALF_OPEN, () -> halfOpen);
+        }
+    }
+
+    /**
+     * Remove the breakers of clouds and Kubernetes nodes without agents, i.e. nodes removed by the cluster
+     * autoscaler. Breakers still suspending starts are kept until their open duration elapsed.
+     * @param slaves current agents
+     */
+    void retain(@NonNull Collection<KubernetesSlave> slaves) {
+        Set<String> keys = new HashSet<>();
+        for (KubernetesSlave slave : slaves) {
+            String cloudName = slave.getCloudName();
+            keys.add(cloudKey(cloudName));
+            String nodeName = EphemeralContainerMetrics.getKubernetesNodeName(slave);
+            if (nodeName != null) {
+                keys.add(nodeKey(cloudName, nodeName));
+            }
+        }
+
+        retainKeys(keys);
+    }
+
+    void retainKeys(@NonNull Set<String> keys) {
+        breakers.entrySet().removeIf(e -> !keys.contains(e.getKey()) && !e.getValue().isSuspending());
+    }
+
+    @NonNull
+    Set<String> getKeys() {
+        return Set.copyOf(breakers.keySet());
+    }
+
+    /**
+     * Get the breaker state of the agent cloud.
+     * @param cloudName cloud name
+     * @return breaker state
+     */
+    @NonNull
+    State getCloudState(@NonNull String cloudName) {
+        Breaker breaker = breakers.get(cloudKey(cloudName));
+        return breaker == null ? State.CLOSED : breaker.getState();
+    }
+
+    /**
+     * Get the breaker state of a Kubernetes node.
+     * @param cloudName cloud name
+     * @param nodeName kubernetes node name
+     * @return breaker state
+     */
+    @NonNull
+    State getNodeState(@NonNull String cloudName, @CheckForNull String nodeName) {
+        Breaker breaker = nodeName == null ? null : breakers.get(nodeKey(cloudName, nodeName));
+        return breaker == null ? State.CLOSED : breaker.getState();
+    }
+
+    private long count(State state) {
+        return breakers.values().stream().filter(b -> b.getState() == state).count();
+    }
+
+    private static String cloudKey(String cloudName) {
+        return "cloud:" + cloudName;
+    }
+
+    private static String nodeKey(String cloudName, String nodeName) {
+        return "node:" + cloudName + "/" + nodeName;
+    }
+
+    /**
+     * Circuit breaker state.
+     */
+    enum State {
+        /** Starts are allowed. */
+        CLOSED,
+        /** Starts are rejected. */
+        OPEN,
+        /** A single trial start is allowed. */
+        HALF_OPEN
+    }
+
+    /**
+     * Permission to start an ephemeral container. The start outcome must be recorded, closing the permit
+     * without an outcome (i.e. the step was interrupted) does not count as success or failure.
+     */
+    static class Permit implements AutoCloseable {
+        private final List<Ticket> tickets;
+        private boolean done;
+
+        Permit(List<Ticket> tickets) {
+            this.tickets = tickets;
+        }
+
+        /**
+         * Record a successful start.
+         */
+        synchronized void success() {
+            record(Boolean.TRUE);
+        }
+
+        /**
+         * Record a failed start.
+         */
+        synchronized void failure() {
+            record(Boolean.FALSE);
+        }
+
+        @Override
+        public synchronized void close() {
+            record(null);
+        }
+
+        private void record(Boolean success) {
+            if (!done) {
+                done = true;
+                for (Ticket ticket : tickets) {
+                    ticket.breaker.record(ticket, success);
+                }
+            }
+        }
+    }
+
+    /**
+     * Start allowed by a breaker. Outcomes are only recorded for tickets of the current breaker generation,
+     * a start allowed before the breaker last changed state does not count toward the new state.
+     */
+    static final class Ticket {
+        private final Breaker breaker;
+        private final long generation;
+        private final boolean trial;
+
+        Ticket(Breaker breaker, long generation, boolean trial) {
+            this.breaker = breaker;
+            this.generation = generation;
+            this.trial = trial;
+        }
+    }
+
+    /**
+     * Breaker with a count based sliding window of start outcomes.
+     */
+    static class Breaker {
+        private final String key;
+        private final String displayName;
+        private final long openDurationNanos;
+        private final Deque<Boolean> window = new ArrayDeque<>();
+
+        /** Failure rate percentage that opens the breaker. */
+        private volatile int threshold;
+
+        private State state = State.CLOSED;
+        private long openedAt;
+        private boolean trialInFlight;
+
+        /** Incremented on each state change. */
+        private long generation;
+
+        Breaker(String key, String displayName) {
+            this(key, displayName, TimeUnit.SECONDS.toNanos(OPEN_DURATION_SECS));
+        }
+
+        Breaker(String key, String displayName, long openDurationNanos) {
+            this.key = key;
+            this.displayName = displayName;
+            this.openDurationNanos = openDurationNanos;
+        }
+
+        void setThreshold(int threshold) {
+            this.threshold = threshold;
+        }
+
+        synchronized State getState() {
+            return state;
+        }
+
+        /**
+         * Check if the breaker rejects starts or waits for the outcome of a trial start.
+         * @return {@code true} if open within the open duration or half-open with a trial in flight
+         */
+        synchronized boolean isSuspending() {
+            return state == State.OPEN
+                    ? System.nanoTime() - openedAt < openDurationNanos
+                    : state == State.HALF_OPEN && trialInFlight;
+        }
+
+        /**
+         * Try to acquire permission to start.
+         * @return ticket to record the start outcome, {@code null} if the start is rejected
+         */
+        @CheckForNull
+        synchronized Ticket tryAcquire() {
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openedAt < openDurationNanos) {
+                    return null;
+                }
+
+                LOGGER.info(() -> "Ephemeral container circuit breaker for " + displayName + " is half-open");
+                transition(State.HALF_OPEN);
+            }
+
+            if (state == State.HALF_OPEN) {
+                if (trialInFlight) {
+                    return null;
+                }
+
+                trialInFlight = true;
+                return new Ticket(this, generation, true);
+            }
+
+            return new Ticket(this, generation, false);
+        }
+
+        /**
+         * Get the time until a start may be allowed.
+         * @return seconds until a trial start is allowed, at least {@code 1}
+         */
+        synchronized long getRetryAfter() {
+            long remaining = state == State.OPEN ? openDurationNanos - (System.nanoTime() - openedAt) : 0;
+            return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remaining));
+        }
+
+        /**
+         * Record the outcome of a start.
+         * @param ticket ticket of the start
+         * @param success {@code true} if the start succeeded, {@code false} if it failed, {@code null} if it did
+         *     not complete
+         */
+        synchronized void record(@NonNull Ticket ticket, @CheckForNull Boolean success) {
+            if (ticket.generation != generation) {
+                // allowed before the last state change
+                return;
+            }
+
+            if (state == State.HALF_OPEN) {
+                if (!ticket.trial) {
+                    return;
+                }
+
+                trialInFlight = false;
+                if (success == null) {
+                    // trial did not complete, let the next start try
+                    return;
+                }
+
+                window.clear();
+                if (success) {
+                    LOGGER.info(() -> "Ephemeral container circuit breaker for " + displayName + " is closed");
+                    transition(State.CLOSED);
+                } else {
+                    open();
+                }
+
+                return;
+            }
+
+            if (success == null || state == State.OPEN) {
+                return;
+            }
+
+            window.addLast(success);
+            while (window.size() > WINDOW_SIZE) {
+                window.removeFirst();
+            }
+
+            if (window.size() >= MIN_CALLS) {
+                long failures = window.stream().filter(s -> !s).count();
+                if (failures * 100 >= (long) threshold * window.size()) {
+                    LOGGER.warning(() -> "Ephemeral container circuit breaker for " + displayName + " is open after "
+                            + failures + " of " + window.size() + " starts failed");
+                    window.clear();
+                    open();
+                }
+            }
+        }
+
+        private void open() {
+            transition(State.OPEN);
+            openedAt = System.nanoTime();
+        }
+
+        private void transition(State state) {
+            this.state = state;
+            generation++;
+        }
+
+        @Override
+        public String toString() {
+            return key;
+        }
+    }
+}
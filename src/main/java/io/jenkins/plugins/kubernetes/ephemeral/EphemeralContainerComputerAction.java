@@ -0,0 +1,132 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Computer;
+import hudson.model.TransientComputerActionFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.csanchez.jenkins.plugins.kubernetes.KubernetesSlave;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Shows the ephemeral container state of an agent on the agent computer page.
+ */
+@Restricted(NoExternalUse.class)
+public class EphemeralContainerComputerAction implements Action {
+
+    private final EphemeralContainerKubernetesComputer computer;
+
+    EphemeralContainerComputerAction(@NonNull EphemeralContainerKubernetesComputer computer) {
+        this.computer = computer;
+    }
+
+    @CheckForNull
+    public String getCloudName() {
+        KubernetesSlave slave = computer.getNode();
+        return slave == null ? null : slave.getCloudName();
+    }
+
+    @CheckForNull
+    public String getKubernetesNodeName() {
+        return computer.getKubernetesNodeName();
+    }
+
+    /**
+     * Circuit breaker state of the agent cloud.
+     * @return breaker state name
+     */
+    @NonNull
+    public String getCloudCircuitState() {
+        String cloudName = getCloudName();
+        if (cloudName == null) {
+            return EphemeralContainerCircuitBreaker.State.CLOSED.name();
+        }
+
+        return EphemeralContainerCircuitBreaker.get().getCloudState(cloudName).name();
+    }
+
+    /**
+     * Circuit breaker state of the Kubernetes node the agent Pod runs on.
+     * @return breaker state name
+     */
+    @NonNull
+    public String getNodeCircuitState() {
+        String cloudName = getCloudName();
+        if (cloudName == null) {
+            return EphemeralContainerCircuitBreaker.State.CLOSED.name();
+        }
+
+        return EphemeralContainerCircuitBreaker.get()
+                .getNodeState(cloudName, getKubernetesNodeName())
+                .name();
+    }
+
+    /**
+     * If any circuit breaker affecting the agent is not closed.
+     * @return {@code true} if ephemeral container starts are suspended or on trial
+     */
+    public boolean isCircuitTripped() {
+        String closed = EphemeralContainerCircuitBreaker.State.CLOSED.name();
+        return !closed.equals(getCloudCircuitState()) || !closed.equals(getNodeCircuitState());
+    }
+
+    /**
+     * Number of ephemeral containers of the agent Pod in each lifecycle state.
+     * @return container count by state name
+     */
+    @NonNull
+    public Map<String, Integer> getContainerCounts() {
+        KubernetesSlave slave = computer.getNode();
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        if (slave != null) {
+            EphemeralContainerLifecycleRegistry.get()
+                    .getCounts(slave)
+                    .forEach((state, count) -> counts.put(state.name(), count));
+        }
+
+        return counts;
+    }
+
+    /**
+     * Number of ephemeral containers added to the agent Pod spec.
+     * @return number of containers added
+     */
+    public int getAddedContainers() {
+        KubernetesSlave slave = computer.getNode();
+        return slave == null ? 0 : EphemeralContainerLifecycleRegistry.get().getAdded(slave);
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Ephemeral Containers";
+    }
+
+    @Override
+    public String getUrlName() {
+        return null;
+    }
+
+    @Extension
+    public static class Factory extends TransientComputerActionFactory {
+        @Override
+        public Collection<? extends Action> createFor(Computer target) {
+            if (target instanceof EphemeralContainerKubernetesComputer computer) {
+                return List.of(new EphemeralContainerComputerAction(computer));
+            }
+
+            return Collections.emptyList();
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package io.jenkins.plugins.kubernetes.ephemeral;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Launcher;
 import hudson.model.Node;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import java.io.IOException;
 import java.io.Serial;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.csanchez.jenkins.plugins.kubernetes.KubernetesSlave;
 import org.csanchez.jenkins.plugins.kubernetes.pipeline.ContainerExecDecorator;
 
@@ -15,12 +21,32 @@ import org.csanchez.jenkins.plugins.kubernetes.pipeline.ContainerExecDecorator;
  * sure the history behind it, but because it's not treated as a container env the maven bin is not correctly
  * determined because it uses the main Pod container env rather than introspecting the current Pod container
  * context.
+ * <p>
+ * The build environment variables are not persisted with the Pipeline program, they are computed again for the
+ * build the first time a command is launched after the Pipeline resumed.
  */
 public class EphemeralContainerExecDecorator extends ContainerExecDecorator {
 
     @Serial
     private static final long serialVersionUID = -168729465605848851L;
 
+    private static final Logger LOGGER = Logger.getLogger(EphemeralContainerExecDecorator.class.getName());
+
+    /** Build the environment variables are computed for. */
+    @CheckForNull
+    private String runId;
+
+    /** Environment variables were not persisted and must be computed again. */
+    private boolean restoreEnvironment;
+
+    /**
+     * Set the build the run context environment variables are computed for.
+     * @param runId build externalizable id
+     */
+    void setRunId(@CheckForNull String runId) {
+        this.runId = runId;
+    }
+
     @Override
     @NonNull
     public Launcher decorate(@NonNull final Launcher launcher, @NonNull final Node node) {
@@ -30,9 +56,50 @@ public class EphemeralContainerExecDecorator extends ContainerExecDecorator {
             return launcher;
         }
 
+        restoreEnvironment(launcher.getListener());
         return new EphemeralContainerDecoratedLauncher(super.decorate(launcher, node));
     }
 
+    private synchronized void restoreEnvironment(TaskListener listener) {
+        if (!restoreEnvironment) {
+            return;
+        }
+
+        restoreEnvironment = false;
+        setGlobalVars(EphemeralContainerRunEnvironmentCache.getGlobalVars());
+        Run<?, ?> run = runId == null ? null : Run.fromExternalizableId(runId);
+        if (run != null) {
+            try {
+                setRunContextEnvVars(EphemeralContainerRunEnvironmentCache.get().getEnvironment(run, listener));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to compute environment of " + runId, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Replace the decorator with a copy without the environment variables when persisted.
+     * @return lean copy of this decorator
+     */
+    @Serial
+    protected synchronized Object writeReplace() {
+        if (runId == null || restoreEnvironment) {
+            // environment can not be restored or was not restored yet
+            return this;
+        }
+
+        EphemeralContainerExecDecorator lean = new EphemeralContainerExecDecorator();
+        lean.setNodeContext(getNodeContext());
+        lean.setContainerName(getContainerName());
+        lean.setEnvironmentExpander(getEnvironmentExpander());
+        lean.setShell(getShell());
+        lean.runId = runId;
+        lean.restoreEnvironment = true;
+        return lean;
+    }
+
     /**
      * DecoratedLauncher that ensure withMaven executor think we are within a container.
      * <a href="https://github.com/jenkinsci/pipeline-maven-plugin/blob/f299f892b632d5a9fe7e3ccdc06a41c86e0b3d7e/jenkins-plugin/src/main/java/org/jenkinsci/plugins/pipeline/maven/WithMavenStepExecution2.java#L252-L254">...</a>
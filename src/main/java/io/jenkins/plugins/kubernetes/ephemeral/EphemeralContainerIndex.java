@@ -0,0 +1,142 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import io.fabric8.kubernetes.api.model.ContainerStatus;
+import io.fabric8.kubernetes.api.model.EphemeralContainer;
+import io.fabric8.kubernetes.api.model.ObjectMeta;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodSpec;
+import io.fabric8.kubernetes.api.model.PodStatus;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Index of the ephemeral container specs and statuses of a Pod snapshot by container name. Ephemeral
+ * containers can never be removed from a Pod, so long-lived agents may accumulate hundreds of them. The
+ * index is built once per Pod resource version and shared by every lookup and wait condition evaluated
+ * against the same snapshot, making each lookup constant time instead of a scan of all containers.
+ */
+@Restricted(NoExternalUse.class)
+final class EphemeralContainerIndex {
+
+    private static final int CACHE_SIZE =
+            Integer.getInteger(EphemeralContainerIndex.class.getName() + ".cacheSize", 64);
+
+    private static final Map<String, EphemeralContainerIndex> CACHE = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, EphemeralContainerIndex> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final Map<String, EphemeralContainer> containers;
+    private final Map<String, ContainerStatus> statuses;
+
+    private EphemeralContainerIndex(
+            Map<String, EphemeralContainer> containers, Map<String, ContainerStatus> statuses) {
+        this.containers = containers;
+        this.statuses = statuses;
+    }
+
+    /**
+     * Get the index for a Pod snapshot. Snapshots with the same uid and resource version share the same index.
+     * @param pod pod snapshot
+     * @return pod ephemeral container index
+     */
+    @NonNull
+    static EphemeralContainerIndex of(@NonNull Pod pod) {
+        String key = cacheKey(pod);
+        if (key == null) {
+            return build(pod);
+        }
+
+        synchronized (CACHE) {
+            EphemeralContainerIndex index = CACHE.get(key);
+            if (index != null) {
+                return index;
+            }
+        }
+
+        EphemeralContainerIndex index = build(pod);
+        synchronized (CACHE) {
+            CACHE.putIfAbsent(key, index);
+        }
+
+        return index;
+    }
+
+    /**
+     * Lookup ephemeral container spec.
+     * @param containerName container name
+     * @return container spec or empty if not found
+     */
+    @NonNull
+    Optional<EphemeralContainer> getContainer(@CheckForNull String containerName) {
+        return Optional.ofNullable(containers.get(containerName));
+    }
+
+    /**
+     * Lookup ephemeral container status.
+     * @param containerName container name
+     * @return container status or empty if not found
+     */
+    @NonNull
+    Optional<ContainerStatus> getStatus(@CheckForNull String containerName) {
+        return Optional.ofNullable(statuses.get(containerName));
+    }
+
+    /**
+     * Get all ephemeral container statuses by name.
+     * @return unmodifiable map of container statuses
+     */
+    @NonNull
+    Map<String, ContainerStatus> getStatuses() {
+        return statuses;
+    }
+
+    @CheckForNull
+    private static String cacheKey(Pod pod) {
+        ObjectMeta metadata = pod.getMetadata();
+        if (metadata == null || metadata.getResourceVersion() == null) {
+            return null;
+        }
+
+        String id = metadata.getUid();
+        if (id == null) {
+            id = metadata.getNamespace() + "/" + metadata.getName();
+        }
+
+        return id + "@" + metadata.getResourceVersion();
+    }
+
+    private static EphemeralContainerIndex build(Pod pod) {
+        Map<String, EphemeralContainer> containers = new HashMap<>();
+        PodSpec spec = pod.getSpec();
+        if (spec != null && spec.getEphemeralContainers() != null) {
+            for (EphemeralContainer container : spec.getEphemeralContainers()) {
+                containers.putIfAbsent(container.getName(), container);
+            }
+        }
+
+        Map<String, ContainerStatus> statuses = new HashMap<>();
+        PodStatus status = pod.getStatus();
+        if (status != null) {
+            List<ContainerStatus> list = status.getEphemeralContainerStatuses();
+            if (list != null) {
+                for (ContainerStatus cs : list) {
+                    statuses.putIfAbsent(cs.getName(), cs);
+                }
+            }
+        }
+
+        return new EphemeralContainerIndex(
+                Collections.unmodifiableMap(containers), Collections.unmodifiableMap(statuses));
+    }
+}
@@ -1,17 +1,23 @@
 package io.jenkins.plugins.kubernetes.ephemeral;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
+import hudson.Util;
+import hudson.util.FormValidation;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 import org.csanchez.jenkins.plugins.kubernetes.KubernetesCloudTrait;
 import org.csanchez.jenkins.plugins.kubernetes.KubernetesCloudTraitDescriptor;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
 
 /**
  * Ephemeral container Kubernetes Cloud configuration trait. If the cloud has
@@ -20,9 +26,36 @@ import org.kohsuke.stapler.DataBoundSetter;
  */
 public class EphemeralContainerKubernetesCloudTrait extends KubernetesCloudTrait {
 
+    private static final int DEFAULT_REUSE_MAX_IDLE_PER_POD = 1;
+
     @NonNull
     private List<EphemeralContainerStepRule> containerStepRules = new ArrayList<>();
 
+    @CheckForNull
+    private PatchMode patchMode = PatchMode.UPDATE;
+
+    private boolean podInformerCache;
+
+    private int maxConcurrentStartsPerNode;
+
+    private int admissionRatePerMinute;
+
+    @CheckForNull
+    private AdmissionTenant admissionTenant = AdmissionTenant.FOLDER;
+
+    @CheckForNull
+    private String admissionWeights;
+
+    private int retryBudgetPercent;
+
+    private int circuitBreakerFailureRate;
+
+    private int reuseIdleTimeoutSeconds;
+
+    /** {@code null} in configurations saved before the option existed. */
+    @CheckForNull
+    private Integer reuseMaxIdlePerPod = DEFAULT_REUSE_MAX_IDLE_PER_POD;
+
     @DataBoundConstructor
     public EphemeralContainerKubernetesCloudTrait() {}
 
@@ -37,13 +70,218 @@ public class EphemeralContainerKubernetesCloudTrait extends KubernetesCloudTrait
                 containerStepRules != null ? new ArrayList<>(containerStepRules) : Collections.emptyList();
     }
 
+    /**
+     * Method used to add ephemeral containers to the agent Pod.
+     * @return patch mode, defaults to {@link PatchMode#UPDATE}
+     */
+    @NonNull
+    public PatchMode getPatchMode() {
+        return patchMode == null ? PatchMode.UPDATE : patchMode;
+    }
+
+    @DataBoundSetter
+    public void setPatchMode(@CheckForNull PatchMode patchMode) {
+        this.patchMode = patchMode;
+    }
+
+    /**
+     * If ephemeral container status lookups should be served from a cloud wide Pod informer cache.
+     * @return {@code true} if the agent Pod cache is enabled
+     * @see EphemeralContainerPodCache
+     */
+    public boolean isPodInformerCache() {
+        return podInformerCache;
+    }
+
+    @DataBoundSetter
+    public void setPodInformerCache(boolean podInformerCache) {
+        this.podInformerCache = podInformerCache;
+    }
+
+    /**
+     * Max number of ephemeral containers starting at the same time on a single Kubernetes node.
+     * @return max concurrent starts per node, {@code 0} if unlimited
+     * @see EphemeralContainerStartLimiter
+     */
+    public int getMaxConcurrentStartsPerNode() {
+        return maxConcurrentStartsPerNode;
+    }
+
+    @DataBoundSetter
+    public void setMaxConcurrentStartsPerNode(int maxConcurrentStartsPerNode) {
+        this.maxConcurrentStartsPerNode = Math.max(0, maxConcurrentStartsPerNode);
+    }
+
+    /**
+     * Max number of ephemeral containers created per minute on the cloud. The rate is shared between
+     * tenants by weight.
+     * @return admission rate, {@code 0} if unlimited
+     * @see EphemeralContainerAdmissionScheduler
+     */
+    public int getAdmissionRatePerMinute() {
+        return admissionRatePerMinute;
+    }
+
+    @DataBoundSetter
+    public void setAdmissionRatePerMinute(int admissionRatePerMinute) {
+        this.admissionRatePerMinute = Math.max(0, admissionRatePerMinute);
+    }
+
+    /**
+     * How builds are grouped when sharing the admission rate.
+     * @return admission tenant, defaults to {@link AdmissionTenant#FOLDER}
+     */
+    @NonNull
+    public AdmissionTenant getAdmissionTenant() {
+        return admissionTenant == null ? AdmissionTenant.FOLDER : admissionTenant;
+    }
+
+    @DataBoundSetter
+    public void setAdmissionTenant(@CheckForNull AdmissionTenant admissionTenant) {
+        this.admissionTenant = admissionTenant;
+    }
+
+    /**
+     * Admission weights, one {@code tenant=weight} entry per line. Tenants without an entry have weight {@code 1}.
+     * @return admission weights or {@code null}
+     */
+    @CheckForNull
+    public String getAdmissionWeights() {
+        return admissionWeights;
+    }
+
+    @DataBoundSetter
+    public void setAdmissionWeights(@CheckForNull String admissionWeights) {
+        this.admissionWeights = Util.fixEmptyAndTrim(admissionWeights);
+    }
+
+    /**
+     * Max start and patch retries as a percentage of ephemeral container steps on the cloud.
+     * @return retry budget percentage, {@code 0} if retries are not budgeted
+     * @see EphemeralContainerRetryBudget
+     */
+    public int getRetryBudgetPercent() {
+        return retryBudgetPercent;
+    }
+
+    @DataBoundSetter
+    public void setRetryBudgetPercent(int retryBudgetPercent) {
+        this.retryBudgetPercent = Math.max(0, retryBudgetPercent);
+    }
+
+    /**
+     * Start failure rate percentage that suspends ephemeral container starts on a node or the whole cloud.
+     * @return failure rate threshold, {@code 0} if circuit breakers are disabled
+     * @see EphemeralContainerCircuitBreaker
+     */
+    public int getCircuitBreakerFailureRate() {
+        return circuitBreakerFailureRate;
+    }
+
+    @DataBoundSetter
+    public void setCircuitBreakerFailureRate(int circuitBreakerFailureRate) {
+        this.circuitBreakerFailureRate = Math.min(100, Math.max(0, circuitBreakerFailureRate));
+    }
+
+    /**
+     * Time an ephemeral container is kept running after the step body completes for reuse by a later
+     * step on the same agent Pod.
+     * @return idle timeout in seconds, {@code 0} if container reuse is disabled
+     * @see EphemeralContainerReusePool
+     */
+    public int getReuseIdleTimeoutSeconds() {
+        return reuseIdleTimeoutSeconds;
+    }
+
+    @DataBoundSetter
+    public void setReuseIdleTimeoutSeconds(int reuseIdleTimeoutSeconds) {
+        this.reuseIdleTimeoutSeconds = Math.max(0, reuseIdleTimeoutSeconds);
+    }
+
+    /**
+     * Max number of idle ephemeral containers kept for reuse per agent Pod.
+     * @return max idle containers per Pod, defaults to {@code 1}
+     */
+    public int getReuseMaxIdlePerPod() {
+        return reuseMaxIdlePerPod == null ? DEFAULT_REUSE_MAX_IDLE_PER_POD : reuseMaxIdlePerPod;
+    }
+
+    @DataBoundSetter
+    public void setReuseMaxIdlePerPod(int reuseMaxIdlePerPod) {
+        this.reuseMaxIdlePerPod = Math.max(0, reuseMaxIdlePerPod);
+    }
+
     @Override
     public String toString() {
         return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
                 .append("containerStepRules", containerStepRules)
+                .append("patchMode", getPatchMode())
+                .append("podInformerCache", podInformerCache)
+                .append("maxConcurrentStartsPerNode", maxConcurrentStartsPerNode)
+                .append("admissionRatePerMinute", admissionRatePerMinute)
+                .append("admissionTenant", getAdmissionTenant())
+                .append("admissionWeights", admissionWeights)
+                .append("retryBudgetPercent", retryBudgetPercent)
+                .append("circuitBreakerFailureRate", circuitBreakerFailureRate)
+                .append("reuseIdleTimeoutSeconds", reuseIdleTimeoutSeconds)
+                .append("reuseMaxIdlePerPod", getReuseMaxIdlePerPod())
                 .toString();
     }
 
+    /**
+     * Method used to add ephemeral containers to the agent Pod spec.
+     */
+    public enum PatchMode {
+        /**
+         * Read the Pod and update the ephemeral containers subresource with the full Pod. The update is
+         * rejected with a conflict if the Pod resource version changed since it was read.
+         */
+        UPDATE("Read-modify-write update"),
+        /**
+         * Send a JSON patch that only appends to {@code /spec/ephemeralContainers}. The patch does not
+         * carry a resource version and so does not fail due to concurrent Pod updates.
+         */
+        JSON_PATCH("Append-only JSON patch");
+
+        private final String description;
+
+        PatchMode(String description) {
+            this.description = description;
+        }
+
+        /**
+         * Get readable description of the patch mode.
+         * @return patch mode description
+         */
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    /**
+     * How builds are grouped into tenants of the admission queue.
+     */
+    public enum AdmissionTenant {
+        /** Builds of jobs in the same folder share the folder weight. */
+        FOLDER("Folder"),
+        /** Builds of the same job share the job weight. */
+        JOB("Job");
+
+        private final String description;
+
+        AdmissionTenant(String description) {
+            this.description = description;
+        }
+
+        /**
+         * Get readable description of the admission tenant.
+         * @return admission tenant description
+         */
+        public String getDescription() {
+            return description;
+        }
+    }
+
     @Extension
     public static class DescriptorImpl extends KubernetesCloudTraitDescriptor {
 
@@ -57,5 +295,24 @@ public class EphemeralContainerKubernetesCloudTrait extends KubernetesCloudTrait
         public Optional<KubernetesCloudTrait> getDefaultTrait() {
             return Optional.of(new EphemeralContainerKubernetesCloudTrait());
         }
+
+        @SuppressWarnings({"unused", "lgtm[jenkins/csrf]", "lgtm[jenkins/no-permission-check]"
+        }) // Used by jelly, no side effects
+        public FormValidation doCheckAdmissionWeights(@QueryParameter String value) {
+            if (StringUtils.isBlank(value)) {
+                return FormValidation.ok();
+            }
+
+            Map<String, Double> weights = EphemeralContainerAdmissionScheduler.parseWeights(value);
+            long entries = value.lines()
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                    .count();
+            if (weights.size() < entries) {
+                return FormValidation.warning("Invalid entries are ignored, expected tenant=weight with weight > 0");
+            }
+
+            return FormValidation.ok();
+        }
     }
 }
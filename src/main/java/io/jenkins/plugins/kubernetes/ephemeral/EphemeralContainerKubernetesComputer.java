@@ -1,9 +1,12 @@
 package io.jenkins.plugins.kubernetes.ephemeral;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.EnvVars;
 import hudson.model.TaskListener;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.csanchez.jenkins.plugins.kubernetes.KubernetesCloud;
 import org.csanchez.jenkins.plugins.kubernetes.KubernetesComputer;
 import org.csanchez.jenkins.plugins.kubernetes.KubernetesSlave;
@@ -13,10 +16,43 @@ import org.csanchez.jenkins.plugins.kubernetes.KubernetesSlave;
  */
 public class EphemeralContainerKubernetesComputer extends KubernetesComputer {
 
+    @CheckForNull
+    private transient volatile String kubernetesNodeName;
+
+    /** User and group ids by agent container, detected once and reused by every later step. */
+    private final transient Map<String, RunAsIdentity> runAsIdentities = new ConcurrentHashMap<>();
+
     public EphemeralContainerKubernetesComputer(KubernetesSlave slave) {
         super(slave);
     }
 
+    /**
+     * Name of the Kubernetes node the agent Pod was scheduled on, as last seen by an ephemeral container step.
+     * @return kubernetes node name or {@code null} if not known
+     */
+    @CheckForNull
+    public String getKubernetesNodeName() {
+        return kubernetesNodeName;
+    }
+
+    void setKubernetesNodeName(@CheckForNull String kubernetesNodeName) {
+        this.kubernetesNodeName = kubernetesNodeName;
+    }
+
+    /**
+     * User and group ids detected in an agent container.
+     * @param containerName container name or {@code null} for the default agent container
+     * @return identity or {@code null} if not detected yet
+     */
+    @CheckForNull
+    RunAsIdentity getRunAsIdentity(@CheckForNull String containerName) {
+        return runAsIdentities.get(containerName == null ? "" : containerName);
+    }
+
+    void setRunAsIdentity(@CheckForNull String containerName, @NonNull RunAsIdentity identity) {
+        runAsIdentities.put(containerName == null ? "" : containerName, identity);
+    }
+
     @NonNull
     @Override
     public EnvVars buildEnvironment(@NonNull TaskListener listener) throws IOException, InterruptedException {
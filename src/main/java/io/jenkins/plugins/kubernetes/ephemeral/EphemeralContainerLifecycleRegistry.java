@@ -0,0 +1,401 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import io.fabric8.kubernetes.api.model.ContainerStatus;
+import io.fabric8.kubernetes.api.model.Pod;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import jenkins.metrics.api.Metrics;
+import org.csanchez.jenkins.plugins.kubernetes.KubernetesSlave;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * In-memory registry of the lifecycle state of the ephemeral containers of each agent Pod. Exposes the number of
+ * containers in each {@link State} as gauges, globally and by cloud and Kubernetes node, and the number of
+ * containers added to each Pod. Ephemeral containers can not be removed from a Pod spec, the number of containers
+ * added to each Pod and the largest number added to a single Pod are exposed to watch spec growth. Pods past the
+ * metrics dimension cap share a single gauge.
+ * <p>
+ * Containers leave the registry once confirmed terminated. Entries of Pods whose agent is gone are pruned by
+ * {@link EphemeralContainerReconciler}, along with the gauges of the Pods and of the nodes left without Pods.
+ */
+@Restricted(NoExternalUse.class)
+class EphemeralContainerLifecycleRegistry {
+
+    private static final EphemeralContainerLifecycleRegistry INSTANCE =
+            new EphemeralContainerLifecycleRegistry(Metrics::metricRegistry);
+
+    private final Supplier<MetricRegistry> metrics;
+    private final ConcurrentMap<String, PodEntry> pods = new ConcurrentHashMap<>();
+
+    /** Dimension gauges registered, by metric name. */
+    private final Set<String> gauges = ConcurrentHashMap.newKeySet();
+
+    EphemeralContainerLifecycleRegistry(@NonNull Supplier<MetricRegistry> metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Get the registry instance.
+     * @return registry, never {@code null}
+     */
+    @NonNull
+    static EphemeralContainerLifecycleRegistry get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Container is being added to the agent Pod.
+     * @param slave kubernetes agent
+     * @param containerName container name
+     */
+    void starting(@NonNull KubernetesSlave slave, @NonNull String containerName) {
+        transition(entry(slave), containerName, State.STARTING);
+    }
+
+    /**
+     * Container was added to the agent Pod spec.
+     * @param slave kubernetes agent
+     * @param pod agent Pod snapshot the container was added to
+     */
+    void added(@NonNull KubernetesSlave slave, @NonNull Pod pod) {
+        added(entry(slave), pod);
+    }
+
+    /**
+     * Container is running a step body.
+     * @param slave kubernetes agent
+     * @param containerName container name
+     */
+    void active(@NonNull KubernetesSlave slave, @NonNull String containerName) {
+        transition(entry(slave), containerName, State.ACTIVE);
+    }
+
+    /**
+     * Container is idle in the reuse pool.
+     * @param slave kubernetes agent
+     * @param containerName container name
+     */
+    void idle(@NonNull KubernetesSlave slave, @NonNull String containerName) {
+        transition(entry(slave), containerName, State.IDLE);
+    }
+
+    /**
+     * Container was requested to terminate.
+     * @param slave kubernetes agent
+     * @param containerName container name
+     */
+    void terminating(@NonNull KubernetesSlave slave, @NonNull String containerName) {
+        transition(entry(slave), containerName, State.TERMINATING);
+    }
+
+    /**
+     * Container terminated or never started.
+     * @param slave kubernetes agent
+     * @param containerName container name
+     */
+    void removed(@NonNull KubernetesSlave slave, @NonNull String containerName) {
+        removed(podKey(slave), containerName);
+    }
+
+    void removed(@NonNull String podKey, @NonNull String containerName) {
+        PodEntry entry = pods.get(podKey);
+        if (entry != null) {
+            entry.containers.remove(containerName);
+        }
+    }
+
+    /**
+     * Remove the entries of containers that are not starting and are terminated or missing in the Pod.
+     * @param slave kubernetes agent
+     * @param pod agent Pod or {@code null} if the Pod is gone
+     */
+    void sync(@NonNull KubernetesSlave slave, @CheckForNull Pod pod) {
+        sync(podKey(slave), pod);
+    }
+
+    void sync(@NonNull String podKey, @CheckForNull Pod pod) {
+        if (pod == null) {
+            PodEntry removed = pods.remove(podKey);
+            if (removed != null) {
+                release(List.of(removed));
+            }
+            return;
+        }
+
+        PodEntry entry = pods.get(podKey);
+        if (entry == null) {
+            return;
+        }
+
+        EphemeralContainerIndex index = EphemeralContainerIndex.of(pod);
+        entry.containers.entrySet().removeIf(e -> e.getValue() != State.STARTING
+                && index.getStatus(e.getKey())
+                        .map(ContainerStatus::getState)
+                        .map(state -> state.getTerminated() != null)
+                        .orElse(true));
+    }
+
+    /**
+     * Remove the entries of Pods of agents that no longer exist.
+     * @param slaves current agents
+     */
+    void retain(@NonNull Collection<KubernetesSlave> slaves) {
+        Set<String> keys = new HashSet<>();
+        slaves.forEach(s -> keys.add(podKey(s)));
+        retainKeys(keys);
+    }
+
+    void retainKeys(@NonNull Set<String> podKeys) {
+        List<PodEntry> removed = new ArrayList<>();
+        pods.entrySet().removeIf(e -> {
+            if (podKeys.contains(e.getKey())) {
+                return false;
+            }
+
+            removed.add(e.getValue());
+            return true;
+        });
+        release(removed);
+    }
+
+    /**
+     * Unregister the gauges of removed Pods, and of their nodes once no Pod is left on them, and release their
+     * metric dimension values so the values of new Pods and nodes are not counted as
+     * {@value EphemeralContainerMetrics#OTHER}.
+     * @param removed removed Pod entries
+     */
+    private void release(List<PodEntry> removed) {
+        if (removed.isEmpty()) {
+            return;
+        }
+
+        MetricRegistry registry = metrics.get();
+        EphemeralContainerMetrics dimensions = EphemeralContainerMetrics.get();
+        Set<String> nodes = new HashSet<>();
+        for (PodEntry entry : removed) {
+            if (!EphemeralContainerMetrics.OTHER.equals(entry.pod)) {
+                unregister(
+                        registry,
+                        MetricNames.dimension(
+                                MetricNames.EPHEMERAL_CONTAINERS_POD_ADDED, EphemeralContainerMetrics.POD, entry.pod));
+                dimensions.release(EphemeralContainerMetrics.POD, entry.pod);
+            }
+
+            String node = entry.node;
+            if (node != null && !EphemeralContainerMetrics.OTHER.equals(node)) {
+                nodes.add(node);
+            }
+        }
+
+        for (String node : nodes) {
+            if (pods.values().stream().noneMatch(e -> node.equals(e.node))) {
+                for (State state : State.values()) {
+                    unregister(
+                            registry,
+                            MetricNames.dimension(state.getMetricName(), EphemeralContainerMetrics.NODE, node));
+                }
+
+                dimensions.release(EphemeralContainerMetrics.NODE, node);
+            }
+        }
+    }
+
+    /**
+     * Get the number of containers of an agent Pod in each state.
+     * @param slave kubernetes agent
+     * @return container count by state
+     */
+    @NonNull
+    Map<State, Integer> getCounts(@NonNull KubernetesSlave slave) {
+        return getCounts(podKey(slave));
+    }
+
+    @NonNull
+    Map<State, Integer> getCounts(@NonNull String podKey) {
+        Map<State, Integer> counts = new EnumMap<>(State.class);
+        for (State state : State.values()) {
+            counts.put(state, 0);
+        }
+
+        PodEntry entry = pods.get(podKey);
+        if (entry != null) {
+            entry.containers.values().forEach(state -> counts.merge(state, 1, Integer::sum));
+        }
+
+        return counts;
+    }
+
+    /**
+     * Get the number of containers added to an agent Pod.
+     * @param slave kubernetes agent
+     * @return number of containers added
+     */
+    int getAdded(@NonNull KubernetesSlave slave) {
+        return getAdded(podKey(slave));
+    }
+
+    int getAdded(@NonNull String podKey) {
+        return Optional.ofNullable(pods.get(podKey)).map(e -> e.added.get()).orElse(0);
+    }
+
+    /**
+     * Count the containers in a state.
+     * @param state container state
+     * @param pod Pod filter
+     * @return number of containers
+     */
+    long count(@NonNull State state, @NonNull Predicate<PodEntry> pod) {
+        return pods.values().stream()
+                .filter(pod)
+                .flatMap(e -> e.containers.values().stream())
+                .filter(s -> s == state)
+                .count();
+    }
+
+    private PodEntry entry(KubernetesSlave slave) {
+        return entry(podKey(slave), slave.getCloudName(), EphemeralContainerMetrics.getKubernetesNodeName(slave));
+    }
+
+    /**
+     * Get the entry of an agent Pod, adding it if needed.
+     * @param podKey agent Pod key
+     * @param cloudName agent cloud name
+     * @param nodeName kubernetes node name or {@code null} if not known
+     * @return Pod entry
+     */
+    @NonNull
+    PodEntry entry(@NonNull String podKey, @NonNull String cloudName, @CheckForNull String nodeName) {
+        PodEntry entry = pods.computeIfAbsent(podKey, k -> new PodEntry(k, cloudName));
+        if (entry.node == null && nodeName != null) {
+            entry.node = EphemeralContainerMetrics.get().dimensionValue(EphemeralContainerMetrics.NODE, nodeName);
+        }
+
+        return entry;
+    }
+
+    void added(@NonNull PodEntry entry, @NonNull Pod pod) {
+        int existing = pod.getSpec() == null || pod.getSpec().getEphemeralContainers() == null
+                ? 0
+                : pod.getSpec().getEphemeralContainers().size();
+        entry.added.accumulateAndGet(existing + 1, (added, min) -> Math.max(added + 1, min));
+        registerGauges(entry);
+    }
+
+    void transition(@NonNull PodEntry entry, @NonNull String containerName, @NonNull State state) {
+        entry.containers.put(containerName, state);
+        registerGauges(entry);
+    }
+
+    private void registerGauges(PodEntry entry) {
+        MetricRegistry registry = metrics.get();
+        for (State state : State.values()) {
+            String metric = state.getMetricName();
+            register(registry, metric, () -> count(state, e -> true));
+            register(
+                    registry,
+                    MetricNames.dimension(metric, EphemeralContainerMetrics.CLOUD, entry.cloud),
+                    () -> count(state, e -> entry.cloud.equals(e.cloud)));
+            String node = entry.node;
+            if (node != null) {
+                register(
+                        registry,
+                        MetricNames.dimension(metric, EphemeralContainerMetrics.NODE, node),
+                        () -> count(state, e -> node.equals(e.node)));
+            }
+        }
+
+        register(registry, MetricNames.EPHEMERAL_CONTAINERS_POD_ADDED_MAX, () -> added(e -> true));
+        String podAdded = MetricNames.dimension(
+                MetricNames.EPHEMERAL_CONTAINERS_POD_ADDED, EphemeralContainerMetrics.POD, entry.pod);
+        register(registry, podAdded, () -> added(e -> entry.pod.equals(e.pod)));
+    }
+
+    /**
+     * Get the largest number of containers added to a single Pod.
+     * @param pod Pod filter
+     * @return number of containers added
+     */
+    private long added(Predicate<PodEntry> pod) {
+        return pods.values().stream()
+                .filter(pod)
+                .mapToLong(e -> e.added.get())
+                .max()
+                .orElse(0);
+    }
+
+    private void register(MetricRegistry registry, String name, Gauge<Long> gauge) {
+        if (gauges.add(name)) {
+            registry.gauge(name, () -> gauge);
+        }
+    }
+
+    private void unregister(MetricRegistry registry, String name) {
+        if (gauges.remove(name)) {
+            registry.remove(name);
+        }
+    }
+
+    private static String podKey(KubernetesSlave slave) {
+        return slave.getCloudName() + "/" + slave.getNamespace() + "/" + slave.getPodName();
+    }
+
+    /**
+     * Ephemeral container lifecycle state.
+     */
+    enum State {
+        /** Being added to the Pod or waiting to run. */
+        STARTING,
+        /** Running a step body. */
+        ACTIVE,
+        /** Running, idle in the reuse pool. */
+        IDLE,
+        /** Requested to terminate, not confirmed terminated yet. */
+        TERMINATING;
+
+        @NonNull
+        String getMetricName() {
+            return MetricNames.EPHEMERAL_CONTAINERS_STATE + "." + name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * Containers of an agent Pod.
+     */
+    static class PodEntry {
+        /** Cloud metric name segment. */
+        private final String cloud;
+
+        /** Pod metric name segment. */
+        private final String pod;
+
+        /** Kubernetes node metric name segment, once known. */
+        @CheckForNull
+        private volatile String node;
+
+        private final ConcurrentMap<String, State> containers = new ConcurrentHashMap<>();
+        private final AtomicInteger added = new AtomicInteger();
+
+        PodEntry(String podKey, String cloudName) {
+            this.cloud =
+                    EphemeralContainerMetrics.get().dimensionValue(EphemeralContainerMetrics.CLOUD, cloudName);
+            this.pod = EphemeralContainerMetrics.get().dimensionValue(EphemeralContainerMetrics.POD, podKey);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import com.codahale.metrics.MetricRegistry;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Computer;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import jenkins.metrics.api.Metrics;
+import org.csanchez.jenkins.plugins.kubernetes.KubernetesSlave;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Ephemeral container creation counters. Besides the global counter, each event is counted by cloud, Kubernetes
+ * node, image name and failure reason, as metric name segments since metrics do not support labels (i.e.
+ * {@code kubernetes.cloud.containers.ephemeral.creation.failed.image.docker_io_library_maven}).
+ * <p>
+ * The number of distinct values of each dimension is capped to keep the number of metrics bounded, values past
+ * the cap are counted as {@value #OTHER}. Values of agent Pods and nodes that are gone are released.
+ */
+@Restricted(NoExternalUse.class)
+class EphemeralContainerMetrics {
+
+    /** Max number of distinct values per dimension. */
+    private static final int MAX_DIMENSION_VALUES =
+            Integer.getInteger(EphemeralContainerMetrics.class.getName() + ".maxDimensionValues", 100);
+
+    /** Never produced by {@link MetricNames#sanitize(String)}, so it can not be mistaken for a real value. */
+    static final String OTHER = "~other";
+
+    static final String CLOUD = "cloud";
+    static final String NODE = "node";
+    static final String IMAGE = "image";
+    static final String REASON = "reason";
+    static final String POD = "pod";
+
+    private static final EphemeralContainerMetrics INSTANCE = new EphemeralContainerMetrics();
+
+    /** Values seen by dimension. */
+    private final ConcurrentMap<String, Set<String>> dimensionValues = new ConcurrentHashMap<>();
+
+    /**
+     * Get the metrics instance.
+     * @return metrics, never {@code null}
+     */
+    @NonNull
+    static EphemeralContainerMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Count a container that started.
+     * @param slave kubernetes agent
+     * @param image container image
+     */
+    void created(@NonNull KubernetesSlave slave, @CheckForNull String image) {
+        inc(MetricNames.EPHEMERAL_CONTAINERS_CREATED, slave, image, null);
+    }
+
+    /**
+     * Count a container that failed to start.
+     * @param slave kubernetes agent
+     * @param image container image
+     * @param reason failure classification
+     */
+    void creationFailed(@NonNull KubernetesSlave slave, @CheckForNull String image, @NonNull Failure reason) {
+        inc(MetricNames.EPHEMERAL_CONTAINERS_CREATION_FAILED, slave, image, reason);
+    }
+
+    /**
+     * Count a container start retry.
+     * @param slave kubernetes agent
+     * @param image container image
+     * @param reason failure classification of the start being retried
+     */
+    void creationRetried(@NonNull KubernetesSlave slave, @CheckForNull String image, @NonNull Failure reason) {
+        inc(MetricNames.EPHEMERAL_CONTAINERS_CREATION_RETRIED, slave, image, reason);
+    }
+
+    private void inc(String metric, KubernetesSlave slave, @CheckForNull String image, @CheckForNull Failure reason) {
+        MetricRegistry metrics = Metrics.metricRegistry();
+        metrics.counter(metric).inc();
+        metrics.counter(MetricNames.dimension(metric, CLOUD, dimensionValue(CLOUD, slave.getCloudName())))
+                .inc();
+        String nodeName = getKubernetesNodeName(slave);
+        if (nodeName != null) {
+            metrics.counter(MetricNames.dimension(metric, NODE, dimensionValue(NODE, nodeName)))
+                    .inc();
+        }
+
+        if (image != null) {
+            metrics.counter(MetricNames.dimension(metric, IMAGE, dimensionValue(IMAGE, imageName(image))))
+                    .inc();
+        }
+
+        if (reason != null) {
+            metrics.counter(MetricNames.dimension(metric, REASON, reason.getMetricName()))
+                    .inc();
+        }
+    }
+
+    /**
+     * Get the metric name segment of a dimension value, {@value #OTHER} once the dimension has reached the max
+     * number of distinct values.
+     * @param dimension dimension name
+     * @param value dimension value
+     * @return metric name segment
+     */
+    @NonNull
+    String dimensionValue(@NonNull String dimension, @NonNull String value) {
+        String sanitized = MetricNames.sanitize(value);
+        Set<String> values = dimensionValues.computeIfAbsent(dimension, d -> ConcurrentHashMap.newKeySet());
+        if (values.contains(sanitized)) {
+            return sanitized;
+        }
+
+        // best effort cap on metric cardinality
+        if (values.size() < MAX_DIMENSION_VALUES) {
+            values.add(sanitized);
+            return sanitized;
+        }
+
+        return OTHER;
+    }
+
+    /**
+     * Release a dimension value that is no longer in use, i.e. of a Pod or node that is gone, so it does not
+     * count towards the max number of distinct values anymore.
+     * @param dimension dimension name
+     * @param value metric name segment returned by {@link #dimensionValue(String, String)}
+     */
+    void release(@NonNull String dimension, @NonNull String value) {
+        if (!OTHER.equals(value)) {
+            dimensionValues.computeIfPresent(dimension, (d, values) -> {
+                values.remove(value);
+                return values;
+            });
+        }
+    }
+
+    /**
+     * Get the normalized image name, without tag or digest.
+     * @param image image reference
+     * @return image name
+     */
+    @NonNull
+    static String imageName(@NonNull String image) {
+        return ImageReference.parse(image).map(ImageReference::getName).orElse(image);
+    }
+
+    /**
+     * Get the Kubernetes node of the agent Pod, as last seen starting a container.
+     * @param slave kubernetes agent
+     * @return node name or {@code null} if not known
+     */
+    @CheckForNull
+    static String getKubernetesNodeName(@NonNull KubernetesSlave slave) {
+        Computer computer = slave.toComputer();
+        return computer instanceof EphemeralContainerKubernetesComputer ec ? ec.getKubernetesNodeName() : null;
+    }
+
+    /**
+     * Container start failure classification.
+     */
+    enum Failure {
+        /** Node failed to start the container, i.e. {@code StartError}. */
+        START_ERROR,
+        /** Image could not be pulled. */
+        IMAGE_PULL,
+        /** Container terminated while starting, i.e. the image command failed. */
+        TERMINATED,
+        /** Container did not start before the agent connect timeout. */
+        TIMEOUT,
+        /** Agent Pod could not be updated with the container. */
+        PATCH,
+        /** Start was interrupted. */
+        INTERRUPTED,
+        /** Other Kubernetes API failure. */
+        API;
+
+        @NonNull
+        String getMetricName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+}
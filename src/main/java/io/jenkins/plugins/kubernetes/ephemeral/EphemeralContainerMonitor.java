@@ -1,12 +1,41 @@
 package io.jenkins.plugins.kubernetes.ephemeral;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.remoting.VirtualChannel;
+import io.fabric8.kubernetes.api.model.EphemeralContainer;
+import io.fabric8.kubernetes.api.model.VolumeMount;
+import java.io.IOException;
+import java.io.Serial;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import jenkins.security.MasterToSlaveCallable;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 /**
  * Factory for container monitoring commands.
+ * <p>
+ * The container blocks reading a named pipe (FIFO) next to the monitor file and exits as soon as the stop
+ * command writes to it. When the image can not create a FIFO, it waits on file creation events with
+ * {@code inotifywait} if available. Polling for the monitor file is only used when neither is available or
+ * event-driven monitoring is disabled, and as a safety net after a wake-up.
+ * <p>
+ * When the container working directory is on a volume shared with the agent container, the monitor files
+ * are placed there and the agent signals the container directly over its remoting channel with
+ * {@link #signalStop(VirtualChannel, String, Collection)}. Otherwise the monitor files are in the container
+ * {@code /tmp} directory and the stop command must be executed in the container.
  */
 @Restricted(NoExternalUse.class)
 class EphemeralContainerMonitor {
@@ -14,33 +43,202 @@ class EphemeralContainerMonitor {
     private static final int FILE_MONITOR_POLL_SECS =
             Integer.getInteger(EphemeralContainerMonitor.class.getName() + ".fileMonitorPollSecs", 1);
 
+    /** Only poll for the monitor file, do not use FIFO or inotify based monitoring. */
+    private static final boolean FILE_MONITOR_POLL_ONLY =
+            Boolean.getBoolean(EphemeralContainerMonitor.class.getName() + ".fileMonitorPollOnly");
+
+    /** Max time in seconds to wait for a file event before checking the monitor file again. */
+    private static final int INOTIFY_TIMEOUT_SECS = 10;
+
+    private static final String FILE_MONITOR_DIR = "/tmp";
+
+    private static final String FILE_MONITOR_SUFFIX = "-jenkins-step-is-done-monitor";
+
     /**
      * Container command used to keep the container running until execution block
      * is finished.
      * @see io.fabric8.kubernetes.api.model.EphemeralContainer#setCommand(List)
      * @param containerName container name
+     * @param monitorDir directory shared with the agent, {@code null} to use the container {@code /tmp}
      * @return container wait command
      */
-    static String[] containerWaitCommand(String containerName) {
-        return new String[] {"sh", "-c", fileMonitorScript(containerName)};
+    static String[] containerWaitCommand(String containerName, @CheckForNull String monitorDir) {
+        return new String[] {"sh", "-c", fileMonitorScript(containerName, monitorDir, FILE_MONITOR_POLL_ONLY)};
     }
 
     /**
-     * Command to execute in the container to trigger the wait command to exit.
+     * Command to execute in the container to trigger the wait command to exit. The FIFO is opened for
+     * read and write so the command never blocks, even if nothing is reading from it anymore.
      * @param containerName container name
+     * @param monitorDir directory shared with the agent, {@code null} to use the container {@code /tmp}
      * @return container stop command
      */
-    static String[] containerStopCommand(String containerName) {
-        return new String[] {"touch", fileMonitorPath(containerName)};
+    static String[] containerStopCommand(String containerName, @CheckForNull String monitorDir) {
+        String fileMonPath = fileMonitorPath(containerName, monitorDir);
+        String fifo = fifoPath(containerName, monitorDir);
+        return new String[] {
+            "sh", "-c", "touch '" + fileMonPath + "'; test ! -p '" + fifo + "' || echo 1<>'" + fifo + "'"
+        };
     }
 
-    private static String fileMonitorScript(@NonNull String containerName) {
+    static String fileMonitorScript(@NonNull String containerName, @CheckForNull String monitorDir, boolean pollOnly) {
         int pollSecs = Math.max(1, FILE_MONITOR_POLL_SECS);
-        String fileMonPath = fileMonitorPath(containerName);
-        return "set -e; { while ! test -f '" + fileMonPath + "' ; do sleep " + pollSecs + "; done }";
+        String fileMonPath = fileMonitorPath(containerName, monitorDir);
+        String poll = "while ! test -f '" + fileMonPath + "' ; do sleep " + pollSecs + "; done";
+        String fifo = fifoPath(containerName, monitorDir);
+        String script;
+        if (pollOnly) {
+            script = "set -e; { " + poll;
+        } else {
+            String dir = monitorDir == null ? FILE_MONITOR_DIR : monitorDir;
+            // FIFO is opened for read and write, so the open does not block waiting for a writer, and the read
+            // does not return early with EOF
+            script = "set -e; { if mkfifo '" + fifo + "' 2>/dev/null; then read -r l 0<>'" + fifo
+                    + "' || true; elif command -v inotifywait >/dev/null 2>&1; then while ! test -f '" + fileMonPath
+                    + "' ; do inotifywait -qq -t " + INOTIFY_TIMEOUT_SECS + " -e create -e moved_to '" + dir
+                    + "' || true; done; fi; " + poll;
+        }
+
+        if (monitorDir != null) {
+            // do not leave monitor files behind in the agent working directory
+            script += "; rm -f '" + fifo + "' '" + fileMonPath + "' || true;";
+        }
+
+        return script + " }";
     }
 
-    private static String fileMonitorPath(String containerName) {
-        return "/tmp/" + containerName + "-jenkins-step-is-done-monitor";
+    /**
+     * Get the monitor directory of a running container from its wait command. The directory is not computed
+     * again from the container spec, containers created by previous versions always wait in the container
+     * {@code /tmp} directory. The wait command is in the container args when the default or a custom
+     * entrypoint is used, so both the command and args are searched.
+     * @param ec ephemeral container
+     * @return shared monitor directory or {@code null} if the container waits in its {@code /tmp} directory
+     */
+    @CheckForNull
+    static String getMonitorDir(@NonNull EphemeralContainer ec) {
+        if (ec.getName() == null) {
+            return null;
+        }
+
+        List<String> commandLine = new ArrayList<>();
+        if (ec.getCommand() != null) {
+            commandLine.addAll(ec.getCommand());
+        }
+        if (ec.getArgs() != null) {
+            commandLine.addAll(ec.getArgs());
+        }
+
+        String script = String.join(" ", commandLine);
+        int end = script.indexOf("/" + ec.getName() + FILE_MONITOR_SUFFIX + "'");
+        int start = end < 0 ? -1 : script.lastIndexOf('\'', end);
+        if (start < 0) {
+            return null;
+        }
+
+        String dir = script.substring(start + 1, end);
+        return dir.isEmpty() || dir.equals(FILE_MONITOR_DIR) ? null : dir;
+    }
+
+    /**
+     * Get the monitor directory shared with the agent container.
+     * @param workingDir container working directory
+     * @param volumeMounts container volume mounts
+     * @return shared monitor directory or {@code null} if the working directory is not on a writable volume
+     */
+    @CheckForNull
+    static String getMonitorDir(@CheckForNull String workingDir, @CheckForNull List<VolumeMount> volumeMounts) {
+        if (workingDir == null || workingDir.isEmpty() || !workingDir.startsWith("/") || volumeMounts == null) {
+            return null;
+        }
+
+        // directory names are quoted in the monitor script
+        if (workingDir.contains("'")) {
+            return null;
+        }
+
+        Path dir = Paths.get(workingDir).normalize();
+        for (VolumeMount mount : volumeMounts) {
+            if (mount.getMountPath() != null
+                    && !Boolean.TRUE.equals(mount.getReadOnly())
+                    && mount.getSubPath() == null
+                    && dir.startsWith(Paths.get(mount.getMountPath()).normalize())) {
+                return dir.toString();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Signal container monitors to exit by writing the monitor files in the shared monitor directory from
+     * the agent. This does not require an exec in the containers, and all containers are signaled with a
+     * single agent call.
+     * @param channel agent channel
+     * @param monitorDir shared monitor directory
+     * @param containerNames container names
+     * @throws IOException if the monitor files could not be written
+     * @throws InterruptedException if interrupted
+     */
+    static void signalStop(
+            @NonNull VirtualChannel channel, @NonNull String monitorDir, @NonNull Collection<String> containerNames)
+            throws IOException, InterruptedException {
+        List<String> paths = new ArrayList<>();
+        for (String containerName : containerNames) {
+            paths.add(fileMonitorPath(containerName, monitorDir));
+        }
+
+        channel.call(new StopSignal(paths));
+    }
+
+    private static String fileMonitorPath(String containerName, @CheckForNull String monitorDir) {
+        String dir = monitorDir == null ? FILE_MONITOR_DIR : monitorDir;
+        return (dir.endsWith("/") ? dir : dir + "/") + containerName + FILE_MONITOR_SUFFIX;
+    }
+
+    private static String fifoPath(String containerName, @CheckForNull String monitorDir) {
+        return fileMonitorPath(containerName, monitorDir) + ".fifo";
+    }
+
+    /**
+     * Creates the monitor files and wakes up monitors blocked on their FIFO. Runs on the agent.
+     */
+    private static class StopSignal extends MasterToSlaveCallable<Void, IOException> {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> fileMonPaths;
+
+        StopSignal(List<String> fileMonPaths) {
+            this.fileMonPaths = fileMonPaths;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            for (String fileMonPath : fileMonPaths) {
+                Files.write(Paths.get(fileMonPath), new byte[0]);
+            }
+
+            for (String fileMonPath : fileMonPaths) {
+                Path fifo = Paths.get(fileMonPath + ".fifo");
+                try {
+                    BasicFileAttributes attrs =
+                            Files.readAttributes(fifo, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attrs.isOther()) {
+                        // open for read and write so the open does not block if the monitor already exited,
+                        // never create the file if the monitor removed it in the meantime
+                        try (FileChannel ch =
+                                FileChannel.open(fifo, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                            ch.write(ByteBuffer.wrap("\n".getBytes(StandardCharsets.UTF_8)));
+                        }
+                    }
+                } catch (NoSuchFileException e) {
+                    // monitor is not using a FIFO or already exited
+                }
+            }
+
+            return null;
+        }
     }
 }
@@ -0,0 +1,161 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import org.csanchez.jenkins.plugins.kubernetes.KubernetesSlave;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Feedback driven backoff for Pod update conflicts. Every Pod and every cloud has a backoff window
+ * ceiling that widens additively with each observed conflict and halves with each successful update
+ * (AIMD). Retry wait times use decorrelated jitter, each wait is random between the base wait and three
+ * times the previous wait of the same update, capped by the larger of the Pod and cloud ceilings.
+ * <p>
+ * With no recent conflicts the ceiling stays at the base wait and retries are near-instant. Under heavy
+ * contention the ceiling approaches the max wait and retries spread out instead of colliding again.
+ */
+@Restricted(NoExternalUse.class)
+class EphemeralContainerPatchBackoff {
+
+    /** Min wait time in milliseconds between Pod update retries. */
+    private static final long BASE_WAIT_MILLIS =
+            Long.getLong(EphemeralContainerPatchBackoff.class.getName() + ".baseWaitMillis", 50);
+
+    private static final EphemeralContainerPatchBackoff INSTANCE = new EphemeralContainerPatchBackoff(BASE_WAIT_MILLIS);
+
+    private final long baseWait;
+    private final ConcurrentMap<String, Window> clouds = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Window> pods = new ConcurrentHashMap<>();
+
+    EphemeralContainerPatchBackoff(long baseWait) {
+        this.baseWait = Math.max(0, baseWait);
+    }
+
+    /**
+     * Get the backoff instance.
+     * @return backoff, never {@code null}
+     */
+    @NonNull
+    static EphemeralContainerPatchBackoff get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Record a conflict and get the time to wait before the next attempt.
+     * @param cloudName agent cloud name
+     * @param podKey agent Pod key
+     * @param previousWait previous wait time in milliseconds of the same update, {@code 0} on first retry
+     * @param maxWait max wait time in milliseconds
+     * @return wait time in milliseconds
+     */
+    long onConflict(@NonNull String cloudName, @NonNull String podKey, long previousWait, long maxWait) {
+        if (maxWait <= 0) {
+            return 0;
+        }
+
+        long base = Math.min(baseWait, maxWait);
+        long increase = Math.max(1, maxWait / 8);
+        long cloudCeiling = clouds.computeIfAbsent(cloudName, k -> new Window(base))
+                .increase(increase, maxWait);
+        long podCeiling = pods.compute(podKey, (k, w) -> {
+                    Window window = w == null ? new Window(base) : w;
+                    window.increase(increase, maxWait);
+                    return window;
+                })
+                .ceiling();
+        long ceiling = Math.max(cloudCeiling, podCeiling);
+
+        // decorrelated jitter
+        long upper = Math.min(ceiling, Math.max(base, previousWait) * 3);
+        if (upper <= base) {
+            return base;
+        }
+
+        return ThreadLocalRandom.current().nextLong(base, upper + 1);
+    }
+
+    /**
+     * Record a successful update.
+     * @param cloudName agent cloud name
+     * @param podKey agent Pod key
+     */
+    void onSuccess(@NonNull String cloudName, @NonNull String podKey) {
+        Window cloud = clouds.get(cloudName);
+        if (cloud != null) {
+            cloud.decrease(baseWait);
+        }
+
+        // forget pods that are back to the base window
+        pods.computeIfPresent(podKey, (k, w) -> w.decrease(baseWait) <= baseWait ? null : w);
+    }
+
+    /**
+     * Record an update that gave up. The Pod window is dropped, it would otherwise be kept until the next
+     * successful update of the Pod, which may never come. The cloud window still reflects the contention.
+     * @param podKey agent Pod key
+     */
+    void onFailure(@NonNull String podKey) {
+        pods.remove(podKey);
+    }
+
+    /**
+     * Remove the windows of Pods of agents that no longer exist.
+     * @param slaves current agents
+     */
+    void retain(@NonNull Collection<KubernetesSlave> slaves) {
+        Set<String> keys = new HashSet<>();
+        slaves.forEach(s -> keys.add(podKey(s)));
+        retainKeys(keys);
+    }
+
+    void retainKeys(@NonNull Set<String> podKeys) {
+        pods.keySet().retainAll(podKeys);
+    }
+
+    /**
+     * Current backoff window ceiling.
+     * @param cloudName agent cloud name
+     * @param podKey agent Pod key
+     * @return ceiling in milliseconds
+     */
+    long ceiling(@NonNull String cloudName, @NonNull String podKey) {
+        Window cloud = clouds.get(cloudName);
+        Window pod = pods.get(podKey);
+        return Math.max(cloud == null ? baseWait : cloud.ceiling(), pod == null ? baseWait : pod.ceiling());
+    }
+
+    private static String podKey(KubernetesSlave slave) {
+        return slave.getCloudName() + "/" + slave.getNamespace() + "/" + slave.getPodName();
+    }
+
+    /**
+     * Backoff window ceiling.
+     */
+    private static class Window {
+        private long ceiling;
+
+        Window(long ceiling) {
+            this.ceiling = ceiling;
+        }
+
+        synchronized long ceiling() {
+            return ceiling;
+        }
+
+        synchronized long increase(long amount, long max) {
+            ceiling = Math.min(max, ceiling + amount);
+            return ceiling;
+        }
+
+        synchronized long decrease(long min) {
+            ceiling = Math.max(min, ceiling / 2);
+            return ceiling;
+        }
+    }
+}
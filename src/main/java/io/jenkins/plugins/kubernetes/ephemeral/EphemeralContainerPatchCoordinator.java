@@ -0,0 +1,577 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.AbortException;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import io.fabric8.kubernetes.api.model.EphemeralContainer;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.api.model.Status;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.dsl.PodResource;
+import io.fabric8.kubernetes.client.dsl.base.PatchContext;
+import io.fabric8.kubernetes.client.dsl.base.PatchType;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import io.jenkins.plugins.kubernetes.ephemeral.EphemeralContainerKubernetesCloudTrait.PatchMode;
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import jenkins.metrics.api.Metrics;
+import jenkins.util.Timer;
+import org.apache.commons.lang3.Strings;
+import org.csanchez.jenkins.plugins.kubernetes.KubernetesSlave;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Coordinates adding ephemeral containers to agent Pods. Ephemeral containers can only be added by updating
+ * the Pod {@code ephemeralcontainers} subresource, and the update fails with a conflict if the Pod changed
+ * since it was read. Without coordination, every step in a wide {@code parallel} block races the others
+ * for the same Pod resource version.
+ * <p>
+ * Containers requested for the same Pod within a short window are collected into a batch and added with a
+ * single update, applied in the background once the batch window has passed. Only one update per Pod is in
+ * flight at a time, steps arriving while an update is in flight accumulate in the next batch. A step
+ * interrupted while waiting does not affect the update of the others. If the batch update is rejected as
+ * invalid, its containers are added one at a time so a single invalid container does not fail the whole
+ * batch. Any other failure (conflicts, exhausted retry budget, missing Pod, server errors) fails the whole
+ * batch, updating once per container would only add load to a Pod or cluster that is already failing.
+ * <p>
+ * The update is either a full read-modify-write of the Pod or an append-only JSON patch depending on
+ * the cloud {@link PatchMode}.
+ */
+@Restricted(NoExternalUse.class)
+class EphemeralContainerPatchCoordinator {
+
+    private static final Logger LOGGER = Logger.getLogger(EphemeralContainerPatchCoordinator.class.getName());
+
+    /** Max retry attempts if Pod update fails. */
+    private static final int PATCH_MAX_RETRY =
+            Integer.getInteger(EphemeralContainerStepExecution.class.getName() + ".patchMaxRetry", 10);
+    /** Max wait time in seconds between Pod update retries. */
+    private static final int PATCH_RETRY_MAX_WAIT =
+            Integer.getInteger(EphemeralContainerStepExecution.class.getName() + ".patchRetryMaxWaitSecs", 2);
+    /** Time in milliseconds to collect container requests for the same Pod before updating it. */
+    private static final long BATCH_WINDOW_MILLIS =
+            Long.getLong(EphemeralContainerPatchCoordinator.class.getName() + ".batchWindowMillis", 50);
+
+    private static final String KUBE_REASON_CONFLICT = "Conflict";
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_UNPROCESSABLE_ENTITY = 422;
+
+    private static final EphemeralContainerPatchCoordinator INSTANCE = new EphemeralContainerPatchCoordinator(
+            Executors.newCachedThreadPool(new NamingThreadFactory(
+                    new DaemonThreadFactory(), EphemeralContainerPatchCoordinator.class.getSimpleName())),
+            BATCH_WINDOW_MILLIS);
+
+    private final Executor executor;
+    private final long batchWindowMillis;
+    private final ConcurrentMap<String, PodPatchState> pods = new ConcurrentHashMap<>();
+
+    EphemeralContainerPatchCoordinator(@NonNull Executor executor, long batchWindowMillis) {
+        this.executor = executor;
+        this.batchWindowMillis = batchWindowMillis;
+    }
+
+    /**
+     * Get the coordinator instance.
+     * @return coordinator, never {@code null}
+     */
+    @NonNull
+    static EphemeralContainerPatchCoordinator get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Add an ephemeral container to the agent Pod. The container may be added along with containers
+     * requested by other steps on the same Pod. This call blocks until the update that includes the
+     * container has been applied or failed.
+     * @param slave kubernetes agent
+     * @param podResource agent Pod resource
+     * @param pod agent Pod snapshot the container was created from
+     * @param container ephemeral container to add
+     * @throws AbortException if the container could not be added
+     * @throws InterruptedException if interrupted while waiting for the update
+     */
+    void addEphemeralContainer(
+            @NonNull KubernetesSlave slave,
+            @NonNull PodResource podResource,
+            @NonNull Pod pod,
+            @NonNull EphemeralContainer container)
+            throws AbortException, InterruptedException {
+        try {
+            add(podKey(slave), container, containers -> patch(slave, podResource, pod, containers));
+        } catch (AbortException e) {
+            EphemeralContainerMetrics.get()
+                    .creationFailed(slave, container.getImage(), EphemeralContainerMetrics.Failure.PATCH);
+            throw e;
+        }
+    }
+
+    /**
+     * Add an ephemeral container to a Pod, joining the pending batch of the Pod or starting a new one.
+     * The update of the first container of a batch is applied for the whole batch.
+     * @param key Pod key
+     * @param container ephemeral container to add
+     * @param update Pod update
+     * @throws AbortException if the container could not be added
+     * @throws InterruptedException if interrupted while waiting for the update, the update is still applied
+     */
+    void add(@NonNull String key, @NonNull EphemeralContainer container, @NonNull PodUpdate update)
+            throws AbortException, InterruptedException {
+        Member member = new Member(container);
+        Batch[] started = new Batch[1];
+        PodPatchState state = pods.compute(key, (k, s) -> {
+            PodPatchState ps = s == null ? new PodPatchState() : s;
+            started[0] = ps.join(member, update);
+            return ps;
+        });
+
+        Batch batch = started[0];
+        if (batch != null) {
+            // The batch is applied in the background, a step interrupted while waiting does not fail the
+            // other steps of the batch.
+            if (batchWindowMillis > 0) {
+                Timer.get().schedule(() -> submit(key, state, batch), batchWindowMillis, TimeUnit.MILLISECONDS);
+            } else {
+                submit(key, state, batch);
+            }
+        }
+
+        await(member);
+    }
+
+    private void submit(String key, PodPatchState state, Batch batch) {
+        try {
+            executor.execute(() -> flush(key, state, batch));
+        } catch (RejectedExecutionException e) {
+            pods.computeIfPresent(key, (k, s) -> {
+                s.close(batch);
+                return s.isIdle() ? null : s;
+            });
+            batch.fail(new AbortException("Ephemeral container could not be added, Pod update was rejected."));
+        }
+    }
+
+    /**
+     * Apply the batch update once no other update of the Pod is in flight and complete the member results.
+     * If the batch update is rejected as invalid, the members are retried one at a time so that a single
+     * invalid container can not fail the others.
+     */
+    private void flush(String key, PodPatchState state, Batch batch) {
+        state.lock.lock();
+        try {
+            pods.computeIfPresent(key, (k, s) -> {
+                s.close(batch);
+                return s;
+            });
+            List<EphemeralContainer> containers =
+                    batch.members.stream().map(m -> m.container).toList();
+            try {
+                batch.update.apply(containers);
+                batch.members.forEach(m -> m.result.complete(null));
+            } catch (AbortException | RuntimeException e) {
+                if (batch.members.size() == 1 || !(e instanceof InvalidContainersException)) {
+                    batch.fail(e);
+                } else {
+                    LOGGER.log(
+                            Level.FINE,
+                            "Batch update of pod " + key + " failed, adding containers " + containerNames(containers)
+                                    + " one at a time",
+                            e);
+                    for (Member m : batch.members) {
+                        try {
+                            batch.update.apply(List.of(m.container));
+                            m.result.complete(null);
+                        } catch (AbortException | RuntimeException me) {
+                            m.result.completeExceptionally(me);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            batch.fail(ie);
+        } finally {
+            // no-op for completed members
+            batch.fail(new AbortException("Ephemeral container could not be added, Pod update failed."));
+            state.lock.unlock();
+            pods.computeIfPresent(key, (k, s) -> s.isIdle() ? null : s);
+        }
+    }
+
+    /**
+     * Wait for the member result.
+     */
+    private static void await(Member member) throws AbortException, InterruptedException {
+        try {
+            member.result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof AbortException) {
+                throw new AbortException(cause.getMessage());
+            }
+
+            if (cause instanceof InterruptedException) {
+                throw new AbortException("Ephemeral container could not be added, Pod update was interrupted.");
+            }
+
+            throw new AbortException("Ephemeral container could not be added. " + cause.getMessage());
+        }
+    }
+
+    /**
+     * Add the containers to the Pod spec. This function handles retry attempts if the update
+     * encounters conflicts.
+     */
+    private void patch(
+            KubernetesSlave slave, PodResource podResource, Pod pod, List<EphemeralContainer> containers)
+            throws AbortException, InterruptedException {
+        PatchMode mode = slave.getKubernetesCloud()
+                .getTrait(EphemeralContainerKubernetesCloudTrait.class)
+                .map(EphemeralContainerKubernetesCloudTrait::getPatchMode)
+                .orElse(PatchMode.UPDATE);
+        // A JSON patch can only append to an existing list. Ephemeral containers can never be removed
+        // so once the Pod has any, appending is always valid.
+        boolean append = !isEmpty(pod.getSpec().getEphemeralContainers());
+        // Current implementation of ephemeral containers only allows ephemeral containers to be added
+        // so patching may fail if different threads attempt to add using the same resource version
+        // which would effectively act as a "delete" when the second patch was processed. If this
+        // situation is detected the patch will be retried.
+        int retries = 0;
+        long previousWait = 0;
+        boolean budgetExhausted = false;
+        String key = podKey(slave);
+        EphemeralContainerPatchBackoff backoff = EphemeralContainerPatchBackoff.get();
+        List<EphemeralContainer> pending = new ArrayList<>(containers);
+        boolean updated = false;
+        try {
+            do {
+                try {
+                    if (mode == PatchMode.JSON_PATCH) {
+                        podResource
+                                .ephemeralContainers()
+                                .patch(PatchContext.of(PatchType.JSON), jsonPatch(pending, append));
+                    } else {
+                        podResource.ephemeralContainers().edit(p -> new PodBuilder(p)
+                                .editSpec()
+                                .addAllToEphemeralContainers(pending)
+                                .endSpec()
+                                .build());
+                    }
+
+                    backoff.onSuccess(slave.getCloudName(), key);
+                    updated = true;
+                    break; // Success
+                } catch (KubernetesClientException kce) {
+                    Status status = kce.getStatus();
+                    boolean conflict = status != null && Strings.CS.equals(status.getReason(), KUBE_REASON_CONFLICT);
+                    if (!conflict) {
+                        // A conflict is a definite rejection, any other failure may have been applied with the
+                        // response lost (i.e. timeout or connection reset), or a client retry of an applied
+                        // update was rejected as a duplicate. Containers found in the Pod spec were added.
+                        List<EphemeralContainer> missing = missingContainers(podResource, pending);
+                        if (missing.size() < pending.size()) {
+                            int applied = pending.size() - missing.size();
+                            LOGGER.info(() -> "Ephemeral container update of pod " + slave.getPodName()
+                                    + " failed but " + applied + " of " + pending.size()
+                                    + " containers were added: " + kce.getMessage());
+                            Metrics.metricRegistry()
+                                    .counter(MetricNames.EPHEMERAL_CONTAINERS_PATCH_LOST_RESPONSE)
+                                    .inc(applied);
+                            pending.retainAll(missing);
+                            if (pending.isEmpty()) {
+                                backoff.onSuccess(slave.getCloudName(), key);
+                                updated = true;
+                                break; // Success
+                            }
+
+                            // the list exists now, remaining containers can only be appended
+                            append = true;
+                        }
+                    }
+
+                    if (mode == PatchMode.JSON_PATCH && !append && kce.getCode() == HTTP_UNPROCESSABLE_ENTITY) {
+                        // Pod snapshot was stale, another update already created the ephemeral containers
+                        // list. Replacing the list is rejected because containers can't be removed.
+                        LOGGER.fine(() -> "Ephemeral containers list already exists on pod " + slave.getPodName()
+                                + ", switching to append patch: " + kce.getMessage());
+                        append = true;
+                    } else if (retries < PATCH_MAX_RETRY && (conflict || isTransient(kce))) {
+                        if (!EphemeralContainerRetryBudget.get().tryRetry(slave.getKubernetesCloud())) {
+                            budgetExhausted = true;
+                            throw kce;
+                        }
+
+                        retries++;
+
+                        // With large parallel operations the max retry may still get hit trying to provision
+                        // ephemeral container patch updates. The wait adapts to the observed contention on the
+                        // Pod and cloud to distribute the patch updates and reduce the chances of a conflict.
+                        long waitTime = backoff.onConflict(
+                                slave.getCloudName(),
+                                key,
+                                previousWait,
+                                TimeUnit.SECONDS.toMillis(PATCH_RETRY_MAX_WAIT));
+                        if (status != null
+                                && status.getDetails() != null
+                                && status.getDetails().getRetryAfterSeconds() != null) {
+                            waitTime = TimeUnit.SECONDS.toMillis(
+                                    status.getDetails().getRetryAfterSeconds());
+                        }
+
+                        previousWait = waitTime;
+                        String reason = conflict ? " due to optimistic locking" : "";
+                        if (waitTime > 0) {
+                            LOGGER.info("Ephemeral container patch failed" + reason + ", trying again in "
+                                    + waitTime + "ms (" + retries + " of " + PATCH_MAX_RETRY + "): "
+                                    + kce.getMessage());
+                            Thread.sleep(waitTime);
+                        } else {
+                            LOGGER.info("Ephemeral container patch failed" + reason + ", trying again ("
+                                    + retries + " of " + PATCH_MAX_RETRY + "): " + kce.getMessage());
+                        }
+                    } else {
+                        throw kce;
+                    }
+                }
+            } while (true);
+        } catch (KubernetesClientException kce) {
+            LOGGER.log(
+                    Level.WARNING,
+                    "Failed to add ephemeral containers " + containerNames(containers) + " to pod "
+                            + slave.getPodName() + " on cloud " + slave.getCloudName() + " after " + retries
+                            + " retries.",
+                    kce);
+            String message = "Ephemeral container could not be added.";
+            Status status = kce.getStatus();
+            if (status != null) {
+                if (status.getMessage() != null) {
+                    message += " " + status.getMessage();
+                }
+
+                message += " (" + status.getReason() + ")";
+            }
+
+            if (retries == PATCH_MAX_RETRY) {
+                message += ". Reached max retry limit.";
+            } else if (budgetExhausted) {
+                message += ". Retry budget of cloud " + slave.getCloudName() + " exhausted.";
+            }
+
+            throw isInvalid(kce) ? new InvalidContainersException(message) : new AbortException(message);
+        } finally {
+            if (!updated) {
+                // gave up or interrupted
+                backoff.onFailure(key);
+            }
+        }
+
+        if (containers.size() > 1) {
+            LOGGER.fine(() -> "Added " + containers.size() + " ephemeral containers to pod " + slave.getPodName()
+                    + " in a single update: " + containerNames(containers));
+        }
+    }
+
+    /**
+     * Get the containers that are not in the current Pod spec. The Pod is read from the API server, not the
+     * informer cache, which may not have seen the update yet.
+     * @param podResource agent Pod resource
+     * @param containers containers to check
+     * @return containers not in the Pod spec, all containers if the Pod could not be read
+     */
+    static List<EphemeralContainer> missingContainers(
+            @NonNull PodResource podResource, @NonNull List<EphemeralContainer> containers) {
+        Pod current;
+        try {
+            current = podResource.get();
+        } catch (KubernetesClientException e) {
+            LOGGER.log(Level.FINE, "Failed to read pod to check ephemeral containers were added", e);
+            return containers;
+        }
+
+        return missingContainers(current, containers);
+    }
+
+    /**
+     * Get the containers that are not in the Pod spec.
+     * @param current current Pod or {@code null} if not found
+     * @param containers containers to check
+     * @return containers not in the Pod spec, all containers if the Pod was not found
+     */
+    static List<EphemeralContainer> missingContainers(
+            @CheckForNull Pod current, @NonNull List<EphemeralContainer> containers) {
+        if (current == null || current.getSpec() == null || current.getSpec().getEphemeralContainers() == null) {
+            return containers;
+        }
+
+        Set<String> names = current.getSpec().getEphemeralContainers().stream()
+                .map(EphemeralContainer::getName)
+                .collect(Collectors.toSet());
+        return containers.stream().filter(c -> !names.contains(c.getName())).toList();
+    }
+
+    /**
+     * Check if the update failed without a response from the API server, or with a server error.
+     */
+    private static boolean isTransient(KubernetesClientException kce) {
+        return kce.getCode() <= 0 || kce.getCode() >= 500;
+    }
+
+    /**
+     * Create JSON patch document adding the containers to the Pod spec.
+     * @param containers containers to add
+     * @param append {@code true} to append to the existing list, {@code false} to create the list
+     * @return JSON patch document
+     */
+    static String jsonPatch(@NonNull List<EphemeralContainer> containers, boolean append) {
+        List<Map<String, Object>> ops = new ArrayList<>();
+        if (append) {
+            for (EphemeralContainer container : containers) {
+                ops.add(addOperation("/spec/ephemeralContainers/-", container));
+            }
+        } else {
+            ops.add(addOperation("/spec/ephemeralContainers", containers));
+        }
+
+        return Serialization.asJson(ops);
+    }
+
+    private static Map<String, Object> addOperation(String path, Object value) {
+        Map<String, Object> op = new LinkedHashMap<>();
+        op.put("op", "add");
+        op.put("path", path);
+        op.put("value", value);
+        return op;
+    }
+
+    private static boolean isEmpty(List<?> list) {
+        return list == null || list.isEmpty();
+    }
+
+    private static String containerNames(List<EphemeralContainer> containers) {
+        return containers.stream().map(EphemeralContainer::getName).collect(Collectors.joining(", ", "[", "]"));
+    }
+
+    /**
+     * Check if the update was rejected because of the containers, i.e. a validation failure.
+     */
+    private static boolean isInvalid(KubernetesClientException kce) {
+        return kce.getCode() == HTTP_BAD_REQUEST || kce.getCode() == HTTP_UNPROCESSABLE_ENTITY;
+    }
+
+    private static String podKey(KubernetesSlave slave) {
+        return slave.getCloudName() + "/" + slave.getNamespace() + "/" + slave.getPodName();
+    }
+
+    /**
+     * Update of a Pod adding ephemeral containers.
+     */
+    @FunctionalInterface
+    interface PodUpdate {
+        /**
+         * Add the containers to the Pod.
+         * @param containers containers to add
+         * @throws AbortException if the containers could not be added
+         * @throws InterruptedException if interrupted
+         */
+        void apply(@NonNull List<EphemeralContainer> containers) throws AbortException, InterruptedException;
+    }
+
+    /**
+     * Pod update rejected because of the containers added, the containers of a batch are added one at a time
+     * to find the invalid ones.
+     */
+    static class InvalidContainersException extends AbortException {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        InvalidContainersException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Patch state of a single Pod. All mutations of the pending batch are done while holding the
+     * {@link #pods} map entry so that joining and closing a batch are atomic.
+     */
+    private static class PodPatchState {
+        /** Held while a batch update for the Pod is in flight. */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /** Batch accepting new containers, {@code null} if no batch is open. */
+        private Batch pending;
+
+        /**
+         * Join the pending batch or start a new one.
+         * @return the new batch, {@code null} if the pending batch was joined
+         */
+        @CheckForNull
+        Batch join(Member member, PodUpdate update) {
+            Batch started = null;
+            if (pending == null) {
+                pending = new Batch(update);
+                started = pending;
+            }
+
+            pending.members.add(member);
+            return started;
+        }
+
+        void close(Batch batch) {
+            if (pending == batch) {
+                pending = null;
+            }
+        }
+
+        boolean isIdle() {
+            return pending == null && !lock.isLocked();
+        }
+    }
+
+    /**
+     * Containers to be added to a Pod in a single update.
+     */
+    private static class Batch {
+        private final PodUpdate update;
+        private final List<Member> members = new ArrayList<>();
+
+        Batch(PodUpdate update) {
+            this.update = update;
+        }
+
+        void fail(Throwable t) {
+            members.forEach(m -> m.result.completeExceptionally(t));
+        }
+    }
+
+    /**
+     * Container of a step in a batch.
+     */
+    private static final class Member {
+        private final EphemeralContainer container;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        Member(EphemeralContainer container) {
+            this.container = container;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Phases of an ephemeral container step, from the step start until the step body starts.
+ * @see EphemeralContainerStepTimings
+ */
+@Restricted(NoExternalUse.class)
+public enum EphemeralContainerPhase {
+    /** Evaluating the container step rules. */
+    RULES("Rule evaluation"),
+    /** Detecting the user and group to run the container as. */
+    IDENTITY("User detection"),
+    /** Waiting for the circuit breakers, admission scheduler and node start limiter. */
+    QUEUE("Start queue"),
+    /** Adding the container to the agent Pod, including conflict retries. */
+    PATCH("Pod update"),
+    /** Waiting for the image, while the container status is waiting on an image pull or creation reason. */
+    IMAGE_PULL("Image pull"),
+    /** Waiting for the container to run, excluding the image pull. */
+    START("Container start"),
+    /** Waiting for the step body environment. */
+    ENVIRONMENT("Environment");
+
+    private final String displayName;
+
+    EphemeralContainerPhase(String displayName) {
+        this.displayName = displayName;
+    }
+
+    @NonNull
+    public String getDisplayName() {
+        return displayName;
+    }
+}
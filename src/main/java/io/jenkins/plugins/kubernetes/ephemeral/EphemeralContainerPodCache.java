@@ -0,0 +1,316 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
+import io.fabric8.kubernetes.client.informers.SharedIndexInformer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.csanchez.jenkins.plugins.kubernetes.KubernetesCloud;
+import org.csanchez.jenkins.plugins.kubernetes.KubernetesSlave;
+import org.csanchez.jenkins.plugins.kubernetes.PodLabel;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Local cache of agent Pods backed by a namespace scoped {@link SharedIndexInformer} per Kubernetes Cloud.
+ * The cache is only used if enabled on the cloud {@link EphemeralContainerKubernetesCloudTrait}. When
+ * enabled, ephemeral container status lookups and waits are served from the cache instead of making
+ * requests to the API server for each step. The informer only caches the Pods matching the cloud Pod labels,
+ * the cache is not used if the cloud has none. Informers of clouds that are removed or no longer enable the
+ * cache are closed when the configuration is saved.
+ * @see EphemeralContainerStatusWatcher
+ */
+@Restricted(NoExternalUse.class)
+class EphemeralContainerPodCache {
+
+    private static final Logger LOGGER = Logger.getLogger(EphemeralContainerPodCache.class.getName());
+
+    private static final EphemeralContainerPodCache INSTANCE = new EphemeralContainerPodCache();
+
+    private final ConcurrentMap<String, PodInformer> informers = new ConcurrentHashMap<>();
+
+    /** Cloud namespaces warned about missing Pod labels. */
+    private final Set<String> warned = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Get the cache instance.
+     * @return cache, never {@code null}
+     */
+    @NonNull
+    static EphemeralContainerPodCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the Pod informer for the agent cloud and namespace. The informer is started on first use.
+     * @param slave kubernetes agent
+     * @return informer or empty if the cache is not enabled for the agent cloud or failed to start
+     */
+    @NonNull
+    Optional<PodInformer> informer(@NonNull KubernetesSlave slave) {
+        KubernetesCloud cloud;
+        try {
+            cloud = slave.getKubernetesCloud();
+        } catch (IllegalStateException e) {
+            return Optional.empty();
+        }
+
+        String key = cloud.name + "/" + slave.getNamespace();
+        if (!isEnabled(cloud)) {
+            remove(key);
+            return Optional.empty();
+        }
+
+        Map<String, String> labels = labelSelector(cloud.getPodLabels());
+        if (labels.isEmpty()) {
+            // an informer without a label selector would cache every Pod of the namespace
+            if (remove(key) || warned.add(key)) {
+                LOGGER.warning(() -> "Agent pod cache of cloud " + cloud.name + " requires pod labels, "
+                        + "ephemeral container status lookups will query the API server");
+            }
+
+            return Optional.empty();
+        }
+
+        PodInformer informer = informer(key, cloud, slave.getNamespace(), labels);
+        return informer != null && informer.start() ? Optional.of(informer) : Optional.empty();
+    }
+
+    /**
+     * Get the Pod informer of a cloud namespace, replacing the current informer if the cloud configuration
+     * was saved since it was created. The informer is not started.
+     * @param key cloud namespace key
+     * @param cloud kubernetes cloud
+     * @param namespace agent Pod namespace
+     * @param labels agent Pod label selector
+     * @return informer or {@code null} if it was closed concurrently
+     */
+    @CheckForNull
+    PodInformer informer(
+            @NonNull String key,
+            @CheckForNull KubernetesCloud cloud,
+            @NonNull String namespace,
+            @NonNull Map<String, String> labels) {
+        PodInformer informer = informers.computeIfAbsent(key, k -> new PodInformer(k, cloud, namespace, labels));
+        if (informer.cloud != cloud) {
+            // cloud configuration was saved, replace informer in case the connection settings or labels changed
+            PodInformer replacement = new PodInformer(key, cloud, namespace, labels);
+            if (informers.replace(key, informer, replacement)) {
+                informer.close();
+            }
+
+            informer = informers.get(key);
+        }
+
+        return informer;
+    }
+
+    /**
+     * Close and remove the informers of clouds that are not retained.
+     * @param retain check if the informer of a cloud is kept
+     */
+    void retain(@NonNull Predicate<KubernetesCloud> retain) {
+        informers.values().removeIf(informer -> {
+            if (retain.test(informer.cloud)) {
+                return false;
+            }
+
+            informer.close();
+            return true;
+        });
+    }
+
+    private boolean remove(String key) {
+        PodInformer stale = informers.remove(key);
+        if (stale != null) {
+            stale.close();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the label selector of the cloud agent Pods.
+     * @param podLabels cloud Pod labels
+     * @return label selector, empty if the cloud has no Pod labels
+     */
+    @NonNull
+    static Map<String, String> labelSelector(@CheckForNull List<PodLabel> podLabels) {
+        Map<String, String> labels = new HashMap<>();
+        if (podLabels != null) {
+            for (PodLabel label : podLabels) {
+                labels.put(label.getKey(), label.getValue());
+            }
+        }
+
+        return labels;
+    }
+
+    private static boolean isEnabled(KubernetesCloud cloud) {
+        return cloud.getTrait(EphemeralContainerKubernetesCloudTrait.class)
+                .map(EphemeralContainerKubernetesCloudTrait::isPodInformerCache)
+                .orElse(false);
+    }
+
+    /**
+     * Close the informers of clouds that were removed or no longer enable the cache when the Jenkins
+     * configuration, which includes the clouds, is saved.
+     */
+    @Extension
+    @Restricted(NoExternalUse.class)
+    public static class CloudListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Jenkins jenkins) {
+                get().retain(cloud -> cloud != null
+                        && jenkins.clouds.stream().anyMatch(c -> c == cloud)
+                        && isEnabled(cloud));
+            }
+        }
+    }
+
+    /**
+     * Informer on all agent Pods of a cloud namespace. Pod events are dispatched to listeners registered
+     * by Pod name.
+     */
+    static class PodInformer implements ResourceEventHandler<Pod> {
+        private final String key;
+
+        @CheckForNull
+        private final KubernetesCloud cloud;
+
+        private final String namespace;
+        private final Map<String, String> labels;
+        private final ConcurrentMap<String, Set<ResourceEventHandler<Pod>>> listeners = new ConcurrentHashMap<>();
+
+        private SharedIndexInformer<Pod> informer;
+        private boolean closed;
+
+        PodInformer(
+                String key, @CheckForNull KubernetesCloud cloud, String namespace, Map<String, String> labels) {
+            this.key = key;
+            this.cloud = cloud;
+            this.namespace = namespace;
+            this.labels = Map.copyOf(labels);
+        }
+
+        /**
+         * Start the informer if not already started.
+         * @return {@code true} if the informer is running
+         */
+        synchronized boolean start() {
+            if (closed || cloud == null) {
+                return false;
+            }
+
+            if (informer == null) {
+                LOGGER.fine(() -> "Starting agent pod informer " + key + " with labels " + labels);
+                try {
+                    KubernetesClient client = cloud.connect();
+                    // blocks until the initial list is complete
+                    informer = client.pods()
+                            .inNamespace(namespace)
+                            .withLabels(labels)
+                            .inform(this, 0);
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to start agent pod informer " + key, e);
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+
+        synchronized void close() {
+            closed = true;
+            if (informer != null) {
+                LOGGER.fine(() -> "Stopping agent pod informer " + key);
+                try {
+                    informer.stop();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.FINE, "Failed to stop agent pod informer " + key, e);
+                }
+            }
+        }
+
+        /**
+         * Lookup cached Pod by name.
+         * @param podName pod name
+         * @return cached Pod or {@code null} if not found
+         */
+        @CheckForNull
+        Pod getPod(@NonNull String podName) {
+            SharedIndexInformer<Pod> i;
+            synchronized (this) {
+                i = informer;
+            }
+
+            return i == null ? null : i.getStore().getByKey(namespace + "/" + podName);
+        }
+
+        /**
+         * Add listener for events of a single Pod.
+         * @param podName pod name
+         * @param listener event listener
+         */
+        void addListener(@NonNull String podName, @NonNull ResourceEventHandler<Pod> listener) {
+            listeners.computeIfAbsent(podName, k -> ConcurrentHashMap.newKeySet()).add(listener);
+        }
+
+        /**
+         * Remove Pod event listener.
+         * @param podName pod name
+         * @param listener event listener
+         */
+        void removeListener(@NonNull String podName, @NonNull ResourceEventHandler<Pod> listener) {
+            listeners.computeIfPresent(podName, (k, l) -> {
+                l.remove(listener);
+                return l.isEmpty() ? null : l;
+            });
+        }
+
+        private Set<ResourceEventHandler<Pod>> listeners(Pod pod) {
+            if (pod == null || pod.getMetadata() == null) {
+                return Set.of();
+            }
+
+            return listeners.getOrDefault(pod.getMetadata().getName(), Set.of());
+        }
+
+        @Override
+        public void onAdd(Pod pod) {
+            listeners(pod).forEach(l -> l.onAdd(pod));
+        }
+
+        @Override
+        public void onUpdate(Pod oldPod, Pod newPod) {
+            listeners(newPod).forEach(l -> l.onUpdate(oldPod, newPod));
+        }
+
+        @Override
+        public void onDelete(Pod pod, boolean deletedFinalStateUnknown) {
+            listeners(pod).forEach(l -> l.onDelete(pod, deletedFinalStateUnknown));
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import io.fabric8.kubernetes.api.model.ContainerStateRunning;
+import io.fabric8.kubernetes.api.model.ContainerStatus;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.client.dsl.PodResource;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.metrics.api.Metrics;
+import jenkins.model.Jenkins;
+import org.csanchez.jenkins.plugins.kubernetes.KubernetesCloud;
+import org.csanchez.jenkins.plugins.kubernetes.KubernetesSlave;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Periodically terminates running ephemeral containers that no step owns anymore. Containers can be left
+ * behind after a controller restart, a crash during a step, or a start timeout after the container was
+ * already added to the Pod, and would otherwise keep consuming node resources for the life of the agent Pod.
+ * <p>
+ * A step container is owned while an {@link EphemeralContainerStepExecution} runs in it or it is leased or
+ * idle in the {@link EphemeralContainerReusePool}. Containers that only recently started are left alone to not
+ * race steps that are still starting.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class EphemeralContainerReconciler extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(EphemeralContainerReconciler.class.getName());
+
+    /** Time in minutes between reconciliations, {@code 0} to disable. */
+    private static final long RECURRENCE_PERIOD_MINS =
+            Long.getLong(EphemeralContainerReconciler.class.getName() + ".recurrencePeriodMins", 5);
+    /** Min time in minutes an unowned container must have been running before it is terminated. */
+    private static final long GRACE_PERIOD_MINS =
+            Long.getLong(EphemeralContainerReconciler.class.getName() + ".gracePeriodMins", 10);
+    /** Max time in seconds to wait for running step executions to be listed. */
+    private static final long LIST_TIMEOUT_SECS = 60;
+
+    public EphemeralContainerReconciler() {
+        super("Ephemeral container reconciler");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD_MINS > 0
+                ? TimeUnit.MINUTES.toMillis(RECURRENCE_PERIOD_MINS)
+                : TimeUnit.DAYS.toMillis(1);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws InterruptedException {
+        if (RECURRENCE_PERIOD_MINS <= 0) {
+            return;
+        }
+
+        Set<String> owned = ConcurrentHashMap.newKeySet();
+        try {
+            StepExecution.applyAll(EphemeralContainerStepExecution.class, execution -> {
+                        String containerName = execution.getContainerName();
+                        if (containerName != null) {
+                            owned.add(containerName);
+                        }
+
+                        return null;
+                    })
+                    .get(LIST_TIMEOUT_SECS, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            // without the full list of owned containers nothing can be safely reclaimed
+            LOGGER.log(Level.FINE, "Failed to list ephemeral container step executions, skipping", e);
+            return;
+        }
+
+        Instant startedBefore = Instant.now().minus(Duration.ofMinutes(Math.max(0, GRACE_PERIOD_MINS)));
+        int reclaimed = 0;
+        List<KubernetesSlave> slaves = new ArrayList<>();
+        for (Node node : Jenkins.get().getNodes()) {
+            if (node instanceof KubernetesSlave slave) {
+                slaves.add(slave);
+                reclaimed += reconcile(slave, owned, startedBefore);
+            }
+        }
+
+        // drop the lifecycle state, pooled containers, backoff windows and circuit breakers of agents that are gone
+        EphemeralContainerLifecycleRegistry.get().retain(slaves);
+        EphemeralContainerReusePool.get().retain(slaves);
+        EphemeralContainerPatchBackoff.get().retain(slaves);
+        EphemeralContainerCircuitBreaker.get().retain(slaves);
+
+        if (reclaimed > 0) {
+            LOGGER.info("Terminated " + reclaimed + " orphaned ephemeral containers");
+            Metrics.metricRegistry()
+                    .counter(MetricNames.EPHEMERAL_CONTAINERS_ORPHANS_RECLAIMED)
+                    .inc(reclaimed);
+        }
+    }
+
+    /**
+     * Terminate the running step containers of the agent Pod that are not owned.
+     * @return number of containers terminated
+     */
+    private static int reconcile(KubernetesSlave slave, Set<String> owned, Instant startedBefore) {
+        KubernetesCloud cloud;
+        PodResource resource;
+        Pod pod;
+        try {
+            cloud = slave.getKubernetesCloud();
+            if (cloud.getTrait(EphemeralContainerKubernetesCloudTrait.class).isEmpty()) {
+                return 0;
+            }
+
+            resource = cloud.connect().pods().inNamespace(slave.getNamespace()).withName(slave.getPodName());
+            pod = EphemeralContainerStepExecution.getPod(slave, resource).orElse(null);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Failed to get pod of agent " + slave.getNodeName(), e);
+            return 0;
+        }
+
+        // catch up on containers that terminated after their termination was last checked
+        EphemeralContainerLifecycleRegistry.get().sync(slave, pod);
+        if (pod == null || pod.getStatus() == null || pod.getStatus().getEphemeralContainerStatuses() == null) {
+            return 0;
+        }
+
+        int reclaimed = 0;
+        EphemeralContainerReusePool pool = EphemeralContainerReusePool.get();
+        for (ContainerStatus status : pod.getStatus().getEphemeralContainerStatuses()) {
+            if (!isOrphan(status, owned, name -> pool.isPooled(slave, name), startedBefore)) {
+                continue;
+            }
+
+            String containerName = status.getName();
+            LOGGER.fine(() -> "Terminating orphaned ephemeral container " + containerName + " on pod "
+                    + slave.getPodName());
+            EphemeralContainerTerminator.get().terminate(slave, resource, containerName);
+            reclaimed++;
+        }
+
+        return reclaimed;
+    }
+
+    /**
+     * Check if a container is a running step container that is not owned. The owned step containers are a
+     * snapshot taken before the Pod was read, the reuse pool is checked last and live: an idle container
+     * acquired by a step after the snapshot is leased atomically, and a container that is neither idle nor
+     * leased can not be acquired anymore.
+     * @param status container status
+     * @param owned containers of running step executions
+     * @param pooled check if a container is idle or leased in the reuse pool
+     * @param startedBefore instant the container must have started before
+     * @return {@code true} if the container can be terminated
+     */
+    static boolean isOrphan(
+            @NonNull ContainerStatus status,
+            @NonNull Set<String> owned,
+            @NonNull Predicate<String> pooled,
+            @NonNull Instant startedBefore) {
+        String containerName = status.getName();
+        ContainerStateRunning running = status.getState() == null ? null : status.getState().getRunning();
+        return running != null
+                && containerName != null
+                && containerName.startsWith(EphemeralContainerStepExecution.CONTAINER_NAME_PREFIX)
+                && !owned.contains(containerName)
+                && isStartedBefore(running.getStartedAt(), startedBefore)
+                && !pooled.test(containerName);
+    }
+
+    private static boolean isStartedBefore(@CheckForNull String startedAt, Instant instant) {
+        if (startedAt == null) {
+            return false;
+        }
+
+        try {
+            return Instant.parse(startedAt).isBefore(instant);
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import jenkins.metrics.api.Metrics;
+import org.csanchez.jenkins.plugins.kubernetes.KubernetesCloud;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Cloud wide budget for ephemeral container start and patch retries. Without a budget every step retries
+ * on its own, so when a node or the API server degrades the retries multiply the load exactly when the
+ * cluster is weakest.
+ * <p>
+ * The budget is a token bucket per cloud. Each ephemeral container step deposits a configured percentage
+ * of a token, and each retry withdraws a whole token. Retries are refused once the bucket is empty and
+ * the step fails fast. A small reserve allows retries on a cloud that has not seen many steps yet. The
+ * budget percentage is configured on the cloud {@link EphemeralContainerKubernetesCloudTrait}.
+ */
+@Restricted(NoExternalUse.class)
+class EphemeralContainerRetryBudget {
+
+    /** Number of retries available before any steps have deposited to the budget. */
+    private static final int MIN_RESERVE =
+            Integer.getInteger(EphemeralContainerRetryBudget.class.getName() + ".minReserve", 10);
+    /** Max number of retries that can be saved up in the budget. */
+    private static final int MAX_BALANCE =
+            Integer.getInteger(EphemeralContainerRetryBudget.class.getName() + ".maxBalance", 100);
+
+    private static final EphemeralContainerRetryBudget INSTANCE = new EphemeralContainerRetryBudget();
+
+    private final ConcurrentMap<String, Bucket> clouds = new ConcurrentHashMap<>();
+
+    /**
+     * Get the retry budget instance.
+     * @return retry budget, never {@code null}
+     */
+    @NonNull
+    static EphemeralContainerRetryBudget get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Record the first start attempt of an ephemeral container step.
+     * @param cloud agent cloud
+     */
+    void recordAttempt(@NonNull KubernetesCloud cloud) {
+        int percent = getRetryBudgetPercent(cloud);
+        if (percent > 0) {
+            bucket(cloud).deposit(percent / 100.0);
+        }
+    }
+
+    /**
+     * Withdraw a retry from the cloud budget.
+     * @param cloud agent cloud
+     * @return {@code true} if the retry may proceed, {@code false} if the budget is exhausted
+     */
+    boolean tryRetry(@NonNull KubernetesCloud cloud) {
+        if (getRetryBudgetPercent(cloud) <= 0) {
+            return true;
+        }
+
+        MetricRegistry metrics = Metrics.metricRegistry();
+        if (bucket(cloud).withdraw()) {
+            metrics.counter(MetricNames.EPHEMERAL_CONTAINERS_RETRY_BUDGET_CONSUMED).inc();
+            return true;
+        }
+
+        metrics.counter(MetricNames.EPHEMERAL_CONTAINERS_RETRY_BUDGET_EXHAUSTED).inc();
+        return false;
+    }
+
+    private Bucket bucket(KubernetesCloud cloud) {
+        return clouds.computeIfAbsent(cloud.name, k -> {
+            Bucket bucket = new Bucket(MIN_RESERVE, Math.max(MIN_RESERVE, MAX_BALANCE));
+            Gauge<Double> available = bucket::balance;
+            Metrics.metricRegistry().gauge(MetricNames.retryBudgetAvailable(k), () -> available);
+            return bucket;
+        });
+    }
+
+    private static int getRetryBudgetPercent(KubernetesCloud cloud) {
+        return cloud.getTrait(EphemeralContainerKubernetesCloudTrait.class)
+                .map(EphemeralContainerKubernetesCloudTrait::getRetryBudgetPercent)
+                .orElse(0);
+    }
+
+    /**
+     * Retry token bucket.
+     */
+    static class Bucket {
+        private final double max;
+        private double balance;
+
+        Bucket(double initial, double max) {
+            this.balance = initial;
+            this.max = max;
+        }
+
+        synchronized double balance() {
+            return balance;
+        }
+
+        synchronized void deposit(double amount) {
+            balance = Math.min(max, balance + amount);
+        }
+
+        synchronized boolean withdraw() {
+            if (balance < 1) {
+                return false;
+            }
+
+            balance -= 1;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Node;
+import io.fabric8.kubernetes.api.model.ContainerStatus;
+import io.fabric8.kubernetes.api.model.EnvVar;
+import io.fabric8.kubernetes.api.model.EphemeralContainer;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.SecurityContext;
+import io.fabric8.kubernetes.client.dsl.PodResource;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.metrics.api.Metrics;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.csanchez.jenkins.plugins.kubernetes.KubernetesSlave;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Pool of idle ephemeral containers kept running for reuse by later steps on the same agent Pod. Reuse is
+ * opt-in on the cloud {@link EphemeralContainerKubernetesCloudTrait}. When enabled, a container is returned
+ * to the pool at the end of a successful step body instead of being terminated, and the next step on the Pod
+ * with a matching image, user and group, environment, target container and entrypoint runs in it instead of
+ * adding a new container to the Pod.
+ * <p>
+ * Containers are leased to the step running in them. Only leased containers can be returned to the pool, a
+ * container requested to terminate (i.e. its step was aborted) loses its lease and is never reused.
+ * <p>
+ * Idle containers are terminated after the idle timeout, or immediately when the Pod already has the max
+ * number of idle containers.
+ */
+@Restricted(NoExternalUse.class)
+class EphemeralContainerReusePool {
+
+    private static final Logger LOGGER = Logger.getLogger(EphemeralContainerReusePool.class.getName());
+
+    private static final EphemeralContainerReusePool INSTANCE =
+            new EphemeralContainerReusePool(EphemeralContainerReusePool::terminateExpired);
+
+    /** Pooled containers by agent Pod, only accessed while holding the map entry. */
+    private final ConcurrentMap<String, PodPool> pods = new ConcurrentHashMap<>();
+
+    /** Called with the agent node name and container name of idle containers that expired. */
+    private final BiConsumer<String, String> onExpired;
+
+    EphemeralContainerReusePool(@NonNull BiConsumer<String, String> onExpired) {
+        this.onExpired = onExpired;
+    }
+
+    /**
+     * Get the pool instance.
+     * @return pool, never {@code null}
+     */
+    @NonNull
+    static EphemeralContainerReusePool get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Check if container reuse is enabled for the agent cloud.
+     * @param slave kubernetes agent
+     * @return {@code true} if enabled
+     */
+    boolean isEnabled(@NonNull KubernetesSlave slave) {
+        return getTrait(slave).map(t -> t.getReuseIdleTimeoutSeconds() > 0).orElse(false);
+    }
+
+    /**
+     * Create the pool key of a container. Containers with the same key are interchangeable. Environment variables
+     * are compared with their value source.
+     * @param ec ephemeral container
+     * @param command step entrypoint command or {@code null}
+     * @return pool key
+     */
+    @NonNull
+    static String reuseKey(@NonNull EphemeralContainer ec, @CheckForNull List<String> command) {
+        StringBuilder key = new StringBuilder()
+                .append(ec.getImage())
+                .append('|')
+                .append(ec.getImagePullPolicy())
+                .append('|')
+                .append(ec.getTargetContainerName());
+        SecurityContext sc = ec.getSecurityContext();
+        key.append('|');
+        if (sc != null) {
+            key.append(sc.getRunAsUser()).append(':').append(sc.getRunAsGroup());
+        }
+
+        key.append('|');
+        if (ec.getEnv() != null) {
+            for (EnvVar env : ec.getEnv()) {
+                // value sources (i.e. secret or config map references) are part of the key, containers
+                // holding the value of another secret must never be reused
+                key.append(env.getName()).append('=').append(env.getValue());
+                if (env.getValueFrom() != null) {
+                    key.append('<').append(env.getValueFrom()).append('>');
+                }
+                key.append(';');
+            }
+        }
+
+        key.append('|').append(command);
+        return key.toString();
+    }
+
+    /**
+     * Take a running idle container matching the key from the agent Pod pool. The container is leased to the
+     * caller.
+     * @param slave kubernetes agent
+     * @param pod current agent Pod snapshot
+     * @param key container pool key
+     * @return container name or empty if no idle container matched
+     */
+    @NonNull
+    Optional<String> acquire(@NonNull KubernetesSlave slave, @NonNull Pod pod, @NonNull String key) {
+        Optional<String> containerName = acquire(podKey(slave), pod, key);
+        containerName.ifPresent(name -> {
+            LOGGER.fine(() -> "Reusing idle ephemeral container " + name + " on pod " + slave.getPodName());
+            EphemeralContainerLifecycleRegistry.get().active(slave, name);
+            Metrics.metricRegistry().counter(MetricNames.EPHEMERAL_CONTAINERS_REUSED).inc();
+        });
+        return containerName;
+    }
+
+    @NonNull
+    Optional<String> acquire(@NonNull String podKey, @NonNull Pod pod, @NonNull String key) {
+        String[] match = new String[1];
+        pods.computeIfPresent(podKey, (k, pool) -> {
+            Iterator<IdleContainer> it = pool.idle.iterator();
+            while (it.hasNext() && match[0] == null) {
+                IdleContainer c = it.next();
+                if (c.key.equals(key)) {
+                    it.remove();
+                    c.cancelExpiry();
+                    if (isRunning(pod, c.containerName)) {
+                        match[0] = c.containerName;
+                        pool.leased.add(c.containerName);
+                    } else {
+                        LOGGER.fine(() -> "Discarding idle ephemeral container " + c.containerName
+                                + " that is no longer running on pod " + podKey);
+                    }
+                }
+            }
+
+            return pool.isEmpty() ? null : pool;
+        });
+        return Optional.ofNullable(match[0]);
+    }
+
+    /**
+     * Lease a new container to the step running in it, making it eligible to return to the pool.
+     * @param slave kubernetes agent
+     * @param containerName container name
+     */
+    void lease(@NonNull KubernetesSlave slave, @NonNull String containerName) {
+        lease(podKey(slave), containerName);
+    }
+
+    void lease(@NonNull String podKey, @NonNull String containerName) {
+        pods.compute(podKey, (k, pool) -> {
+            PodPool p = pool == null ? new PodPool() : pool;
+            p.leased.add(containerName);
+            return p;
+        });
+    }
+
+    /**
+     * Return a leased container to the agent Pod pool.
+     * @param slave kubernetes agent
+     * @param containerName container name
+     * @param key container pool key
+     * @return {@code true} if the container was added to the pool, {@code false} if it should be terminated
+     */
+    boolean release(@NonNull KubernetesSlave slave, @NonNull String containerName, @NonNull String key) {
+        Optional<EphemeralContainerKubernetesCloudTrait> trait = getTrait(slave);
+        int ttl = trait.map(EphemeralContainerKubernetesCloudTrait::getReuseIdleTimeoutSeconds)
+                .orElse(0);
+        int max = trait.map(EphemeralContainerKubernetesCloudTrait::getReuseMaxIdlePerPod)
+                .orElse(0);
+        boolean added = release(podKey(slave), slave.getNodeName(), containerName, key, ttl, max);
+        if (added) {
+            EphemeralContainerLifecycleRegistry.get().idle(slave, containerName);
+            LOGGER.fine(() -> "Ephemeral container " + containerName + " on pod " + slave.getPodName()
+                    + " is idle, keeping it for reuse for " + ttl + " seconds");
+        }
+
+        return added;
+    }
+
+    boolean release(
+            @NonNull String podKey,
+            @NonNull String nodeName,
+            @NonNull String containerName,
+            @NonNull String key,
+            int ttl,
+            int max) {
+        IdleContainer c = new IdleContainer(nodeName, containerName, key);
+        boolean[] added = new boolean[1];
+        pods.computeIfPresent(podKey, (k, pool) -> {
+            // containers requested to terminate while leased are not returned
+            if (pool.leased.remove(containerName) && ttl > 0 && pool.idle.size() < max) {
+                pool.idle.add(c);
+                c.expiry = Timer.get().schedule(() -> expire(podKey, c), ttl, TimeUnit.SECONDS);
+                added[0] = true;
+            }
+
+            return pool.isEmpty() ? null : pool;
+        });
+        return added[0];
+    }
+
+    /**
+     * Remove a container requested to terminate from the agent Pod pool.
+     * @param slave kubernetes agent
+     * @param containerName container name
+     */
+    void discard(@NonNull KubernetesSlave slave, @NonNull String containerName) {
+        discard(podKey(slave), containerName);
+    }
+
+    void discard(@NonNull String podKey, @NonNull String containerName) {
+        pods.computeIfPresent(podKey, (k, pool) -> {
+            pool.leased.remove(containerName);
+            pool.idle.removeIf(c -> {
+                if (c.containerName.equals(containerName)) {
+                    c.cancelExpiry();
+                    return true;
+                }
+
+                return false;
+            });
+            return pool.isEmpty() ? null : pool;
+        });
+    }
+
+    /**
+     * Check if a container is idle or leased from the agent Pod pool.
+     * @param slave kubernetes agent
+     * @param containerName container name
+     * @return {@code true} if pooled
+     */
+    boolean isPooled(@NonNull KubernetesSlave slave, @NonNull String containerName) {
+        return isPooled(podKey(slave), containerName);
+    }
+
+    boolean isPooled(@NonNull String podKey, @NonNull String containerName) {
+        boolean[] pooled = new boolean[1];
+        pods.computeIfPresent(podKey, (k, pool) -> {
+            pooled[0] = pool.leased.contains(containerName)
+                    || pool.idle.stream().anyMatch(c -> c.containerName.equals(containerName));
+            return pool;
+        });
+        return pooled[0];
+    }
+
+    /**
+     * Remove the pools of agents that no longer exist.
+     * @param slaves current agents
+     */
+    void retain(@NonNull Collection<KubernetesSlave> slaves) {
+        Set<String> keys = new HashSet<>();
+        slaves.forEach(s -> keys.add(podKey(s)));
+        for (String key : pods.keySet()) {
+            if (!keys.contains(key)) {
+                pods.computeIfPresent(key, (k, pool) -> {
+                    pool.idle.forEach(IdleContainer::cancelExpiry);
+                    return null;
+                });
+            }
+        }
+    }
+
+    private void expire(String podKey, IdleContainer c) {
+        boolean[] removed = new boolean[1];
+        pods.computeIfPresent(podKey, (k, pool) -> {
+            removed[0] = pool.idle.remove(c);
+            return pool.isEmpty() ? null : pool;
+        });
+
+        // not removed if already reused
+        if (removed[0]) {
+            onExpired.accept(c.nodeName, c.containerName);
+        }
+    }
+
+    private static void terminateExpired(String nodeName, String containerName) {
+        Node node = Jenkins.get().getNode(nodeName);
+        if (!(node instanceof KubernetesSlave slave)) {
+            // agent is gone and its Pod with it
+            return;
+        }
+
+        LOGGER.fine(() -> "Terminating idle ephemeral container " + containerName + " on pod " + slave.getPodName());
+        Metrics.metricRegistry().counter(MetricNames.EPHEMERAL_CONTAINERS_REUSE_EXPIRED).inc();
+        try {
+            PodResource resource = slave.getKubernetesCloud()
+                    .connect()
+                    .pods()
+                    .inNamespace(slave.getNamespace())
+                    .withName(slave.getPodName());
+            EphemeralContainerTerminator.get().terminate(slave, resource, containerName);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to terminate idle ephemeral container " + containerName, e);
+        }
+    }
+
+    private static boolean isRunning(Pod pod, String containerName) {
+        return EphemeralContainerIndex.of(pod)
+                .getStatus(containerName)
+                .map(ContainerStatus::getState)
+                .map(state -> state.getRunning() != null)
+                .orElse(false);
+    }
+
+    private static Optional<EphemeralContainerKubernetesCloudTrait> getTrait(KubernetesSlave slave) {
+        try {
+            return slave.getKubernetesCloud().getTrait(EphemeralContainerKubernetesCloudTrait.class);
+        } catch (IllegalStateException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static String podKey(KubernetesSlave slave) {
+        return slave.getCloudName() + "/" + slave.getNamespace() + "/" + slave.getPodName();
+    }
+
+    /**
+     * Containers of an agent Pod leased to steps or idle.
+     */
+    private static class PodPool {
+        private final Set<String> leased = new HashSet<>();
+        private final List<IdleContainer> idle = new ArrayList<>();
+
+        boolean isEmpty() {
+            return leased.isEmpty() && idle.isEmpty();
+        }
+    }
+
+    /**
+     * Idle container waiting for reuse.
+     */
+    private static class IdleContainer {
+        private final String nodeName;
+        private final String containerName;
+        private final String key;
+
+        @CheckForNull
+        private ScheduledFuture<?> expiry;
+
+        IdleContainer(String nodeName, String containerName, String key) {
+            this.nodeName = nodeName;
+            this.containerName = containerName;
+            this.key = key;
+        }
+
+        void cancelExpiry() {
+            if (expiry != null) {
+                expiry.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.EnvVars;
+import hudson.model.EnvironmentContributingAction;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.slaves.EnvironmentVariablesNodeProperty;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+import hudson.util.DescribableList;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Cache of the build environment passed to ephemeral container step bodies. {@link Run#getEnvironment(TaskListener)}
+ * calls every environment contributor of the build each time, so the result is computed once per build and shared
+ * by all the steps of the build, including parallel branches.
+ * <p>
+ * The environment contributed by the build actions can change while the build runs, so the snapshot is computed
+ * again when the variables contributed by the {@link EnvironmentContributingAction}s of the build differ from the
+ * ones it was computed with. Other changes, i.e. {@code env.FOO = 'bar'} in a Pipeline or the variables of an SCM
+ * checkout, are contributed by an {@code EnvironmentContributor} or the Pipeline run itself and do not invalidate
+ * the snapshot. Those variables are part of the environment of each launch in the step body, which overrides the
+ * snapshot, so stale values of such variables are replaced in the launched processes. A variable removed from the
+ * build environment since the snapshot was computed is still visible.
+ */
+@Restricted(NoExternalUse.class)
+class EphemeralContainerRunEnvironmentCache {
+
+    private static final Logger LOGGER = Logger.getLogger(EphemeralContainerRunEnvironmentCache.class.getName());
+
+    /** Disable the cache and compute the build environment for every step. */
+    private static final boolean DISABLED =
+            Boolean.getBoolean(EphemeralContainerRunEnvironmentCache.class.getName() + ".disabled");
+
+    private static final EphemeralContainerRunEnvironmentCache INSTANCE = new EphemeralContainerRunEnvironmentCache();
+
+    /** Snapshots by build, builds are not kept in memory by the cache. */
+    private final Map<Run<?, ?>, Snapshot> snapshots = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Get the cache instance.
+     * @return cache, never {@code null}
+     */
+    @NonNull
+    static EphemeralContainerRunEnvironmentCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the build environment.
+     * @param run build
+     * @param listener task listener used if the environment needs to be computed
+     * @return copy of the build environment
+     * @throws IOException if the environment could not be computed
+     * @throws InterruptedException if interrupted
+     */
+    @NonNull
+    EnvVars getEnvironment(@NonNull Run<?, ?> run, @NonNull TaskListener listener)
+            throws IOException, InterruptedException {
+        if (DISABLED) {
+            return run.getEnvironment(listener);
+        }
+
+        return snapshots
+                .computeIfAbsent(run, r -> new Snapshot())
+                .get(getActionsEnvironment(run), () -> {
+                    LOGGER.finest(() -> "Computing build environment of " + run.getExternalizableId());
+                    return run.getEnvironment(listener);
+                });
+    }
+
+    /**
+     * Compute a value in the background. Unlike {@link CompletableFuture#supplyAsync}, cancelling the returned
+     * future interrupts the computation, so a step that stops before using the environment does not keep a
+     * thread busy computing it.
+     * @param task computation
+     * @param executor executor running the computation
+     * @return future completed with the computed value
+     * @param <T> value type
+     */
+    @NonNull
+    static <T> CompletableFuture<T> computeAsync(@NonNull Callable<T> task, @NonNull ExecutorService executor) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> computation = executor.submit(() -> {
+            try {
+                result.complete(task.call());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        result.whenComplete((value, t) -> {
+            if (result.isCancelled()) {
+                computation.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Get the global node properties environment variables.
+     * @return environment variables or {@code null} if none are configured
+     */
+    @CheckForNull
+    static EnvVars getGlobalVars() {
+        DescribableList<NodeProperty<?>, NodePropertyDescriptor> globalNodeProperties =
+                Jenkins.get().getGlobalNodeProperties();
+        List<EnvironmentVariablesNodeProperty> envVarsNodePropertyList =
+                globalNodeProperties.getAll(EnvironmentVariablesNodeProperty.class);
+        if (envVarsNodePropertyList != null && !envVarsNodePropertyList.isEmpty()) {
+            return envVarsNodePropertyList.get(0).getEnvVars();
+        }
+
+        return null;
+    }
+
+    /**
+     * Variables contributed by the build actions, used to detect environment changes.
+     * @param run build
+     * @return contributed variables
+     */
+    private static EnvVars getActionsEnvironment(Run<?, ?> run) {
+        EnvVars env = new EnvVars();
+        for (EnvironmentContributingAction a : run.getActions(EnvironmentContributingAction.class)) {
+            a.buildEnvironment(run, env);
+        }
+
+        return env;
+    }
+
+    /**
+     * Build environment snapshot. Steps of the same build computing the environment at the same time wait for a
+     * single computation.
+     */
+    static class Snapshot {
+
+        @CheckForNull
+        private EnvVars actionsEnv;
+
+        @CheckForNull
+        private EnvVars env;
+
+        /**
+         * Get the build environment, computed again if the variables contributed by the build actions changed.
+         * @param current variables currently contributed by the build actions
+         * @param computation computes the build environment
+         * @return copy of the build environment
+         * @throws IOException if the environment could not be computed
+         * @throws InterruptedException if interrupted
+         */
+        @NonNull
+        synchronized EnvVars get(@NonNull EnvVars current, @NonNull Computation computation)
+                throws IOException, InterruptedException {
+            if (env == null || !current.equals(actionsEnv)) {
+                env = computation.compute();
+                actionsEnv = current;
+            }
+
+            return new EnvVars(env);
+        }
+    }
+
+    /**
+     * Build environment computation.
+     */
+    @FunctionalInterface
+    interface Computation {
+        @NonNull
+        EnvVars compute() throws IOException, InterruptedException;
+    }
+}
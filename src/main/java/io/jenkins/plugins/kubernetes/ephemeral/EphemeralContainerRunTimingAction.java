@@ -0,0 +1,239 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
+import hudson.model.Run;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import jenkins.model.RunAction2;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Ephemeral container step phase timings of a build, aggregated by stage and by image. Shows which stages and
+ * images dominate the ephemeral container startup cost of the build.
+ * @see EphemeralContainerStepTimingAction
+ */
+@Restricted(NoExternalUse.class)
+public class EphemeralContainerRunTimingAction implements RunAction2 {
+
+    /** Max number of individual steps kept, aggregates include all steps. */
+    private static final int MAX_STEPS =
+            Integer.getInteger(EphemeralContainerRunTimingAction.class.getName() + ".maxSteps", 1000);
+
+    private static final String NO_STAGE = "(no stage)";
+    private static final String NO_IMAGE = "(no image)";
+
+    private final Summary total = new Summary("All steps");
+    private final Map<String, Summary> stages = new LinkedHashMap<>();
+    private final Map<String, Summary> images = new LinkedHashMap<>();
+    private final List<Step> steps = new ArrayList<>();
+
+    private transient Run<?, ?> run;
+
+    /**
+     * Get the action of a build, adding it if needed.
+     * @param run build
+     * @return build action
+     */
+    @NonNull
+    static EphemeralContainerRunTimingAction of(@NonNull Run<?, ?> run) {
+        synchronized (EphemeralContainerRunTimingAction.class) {
+            EphemeralContainerRunTimingAction action = run.getAction(EphemeralContainerRunTimingAction.class);
+            if (action == null) {
+                action = new EphemeralContainerRunTimingAction();
+                run.addAction(action);
+            }
+
+            return action;
+        }
+    }
+
+    /**
+     * Add the timings of a step.
+     * @param nodeId step flow node id
+     * @param stage enclosing stage name
+     * @param timing step timings
+     */
+    synchronized void add(
+            @CheckForNull String nodeId,
+            @CheckForNull String stage,
+            @NonNull EphemeralContainerStepTimingAction timing) {
+        total.add(timing);
+        stages.computeIfAbsent(stage == null ? NO_STAGE : stage, Summary::new).add(timing);
+        String image = timing.getImage();
+        images.computeIfAbsent(image == null ? NO_IMAGE : image, Summary::new).add(timing);
+        if (steps.size() < MAX_STEPS) {
+            steps.add(new Step(nodeId, stage, timing));
+        }
+    }
+
+    @CheckForNull
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    @NonNull
+    public EphemeralContainerPhase[] getPhases() {
+        return EphemeralContainerPhase.values();
+    }
+
+    @NonNull
+    public synchronized Summary getTotal() {
+        return total.copy();
+    }
+
+    /**
+     * Timings by stage, slowest first.
+     * @return stage summaries
+     */
+    @NonNull
+    public synchronized List<Summary> getStages() {
+        return sorted(stages);
+    }
+
+    /**
+     * Timings by image, slowest first.
+     * @return image summaries
+     */
+    @NonNull
+    public synchronized List<Summary> getImages() {
+        return sorted(images);
+    }
+
+    @NonNull
+    public synchronized List<Step> getSteps() {
+        return new ArrayList<>(steps);
+    }
+
+    /**
+     * Number of steps not listed individually.
+     * @return omitted step count
+     */
+    public synchronized int getOmittedSteps() {
+        return total.count - steps.size();
+    }
+
+    /**
+     * Format a duration for display.
+     * @param millis duration in milliseconds
+     * @return formatted duration
+     */
+    @NonNull
+    public String formatDuration(long millis) {
+        return Util.getTimeSpanString(millis);
+    }
+
+    private static List<Summary> sorted(Map<String, Summary> summaries) {
+        List<Summary> list = new ArrayList<>();
+        summaries.values().forEach(s -> list.add(s.copy()));
+        list.sort(Comparator.comparingLong(Summary::getTotal).reversed());
+        return list;
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "symbol-hourglass";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Ephemeral Container Timings";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "ephemeral-container-timings";
+    }
+
+    /**
+     * Sum of the phase timings of a group of steps.
+     */
+    public static class Summary {
+        private final String name;
+        private final EnumMap<EphemeralContainerPhase, Long> durations = new EnumMap<>(EphemeralContainerPhase.class);
+        private int count;
+
+        Summary(String name) {
+            this.name = name;
+        }
+
+        void add(EphemeralContainerStepTimingAction timing) {
+            count++;
+            timing.getDurations().forEach((phase, millis) -> durations.merge(phase, millis, Long::sum));
+        }
+
+        Summary copy() {
+            Summary copy = new Summary(name);
+            copy.count = count;
+            copy.durations.putAll(durations);
+            return copy;
+        }
+
+        @NonNull
+        public String getName() {
+            return name;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getDuration(@NonNull EphemeralContainerPhase phase) {
+            return durations.getOrDefault(phase, 0L);
+        }
+
+        public long getTotal() {
+            return durations.values().stream().mapToLong(Long::longValue).sum();
+        }
+    }
+
+    /**
+     * Timings of a single step.
+     */
+    public static class Step {
+        @CheckForNull
+        private final String nodeId;
+
+        @CheckForNull
+        private final String stage;
+
+        private final EphemeralContainerStepTimingAction timing;
+
+        Step(@CheckForNull String nodeId, @CheckForNull String stage, EphemeralContainerStepTimingAction timing) {
+            this.nodeId = nodeId;
+            this.stage = stage;
+            this.timing = timing;
+        }
+
+        @CheckForNull
+        public String getNodeId() {
+            return nodeId;
+        }
+
+        @CheckForNull
+        public String getStage() {
+            return stage;
+        }
+
+        @NonNull
+        public EphemeralContainerStepTimingAction getTiming() {
+            return timing;
+        }
+    }
+}
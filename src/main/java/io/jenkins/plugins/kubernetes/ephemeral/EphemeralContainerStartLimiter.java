@@ -0,0 +1,247 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import io.fabric8.kubernetes.api.model.Pod;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import jenkins.metrics.api.Metrics;
+import org.apache.commons.lang3.time.StopWatch;
+import org.csanchez.jenkins.plugins.kubernetes.KubernetesCloud;
+import org.csanchez.jenkins.plugins.kubernetes.KubernetesSlave;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Limits the number of ephemeral containers starting at the same time on a single Kubernetes node.
+ * A burst of container starts can overload the node kubelet and container runtime, causing starts to
+ * fail with a containerd context deadline {@code StartError}. Failed starts are retried, adding even more
+ * load. Capping in-flight starts per node avoids the failures in the first place.
+ * <p>
+ * The limit is configured on the cloud {@link EphemeralContainerKubernetesCloudTrait}. Steps over the limit
+ * wait in FIFO order for a start slot. A slot is held from the Pod update until the container is running
+ * or failed to start.
+ */
+@Restricted(NoExternalUse.class)
+class EphemeralContainerStartLimiter {
+
+    private static final Logger LOGGER = Logger.getLogger(EphemeralContainerStartLimiter.class.getName());
+
+    private static final EphemeralContainerStartLimiter INSTANCE =
+            new EphemeralContainerStartLimiter(Metrics::metricRegistry);
+
+    private static final Permit UNLIMITED = () -> {};
+
+    private final Supplier<MetricRegistry> metrics;
+    private final ConcurrentMap<String, NodeLimit> nodes = new ConcurrentHashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * Steps waiting for a start slot by node metric dimension value. Entries are removed once no step waits on
+     * the node, the gauges read the map so they report zero in the meantime.
+     */
+    private final ConcurrentMap<String, AtomicInteger> queuedByNode = new ConcurrentHashMap<>();
+
+    /** Queue depth gauges registered, by metric name. */
+    private final Set<String> gauges = ConcurrentHashMap.newKeySet();
+
+    EphemeralContainerStartLimiter(@NonNull Supplier<MetricRegistry> metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Get the limiter instance.
+     * @return limiter, never {@code null}
+     */
+    @NonNull
+    static EphemeralContainerStartLimiter get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Acquire a start slot on the agent Pod node, waiting if the node is at its limit.
+     * @param slave kubernetes agent
+     * @param pod agent Pod
+     * @return start slot that must be closed once the container started or failed to start
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @NonNull
+    Permit acquire(@NonNull KubernetesSlave slave, @NonNull Pod pod) throws InterruptedException {
+        KubernetesCloud cloud = slave.getKubernetesCloud();
+        int limit = cloud.getTrait(EphemeralContainerKubernetesCloudTrait.class)
+                .map(EphemeralContainerKubernetesCloudTrait::getMaxConcurrentStartsPerNode)
+                .orElse(0);
+        String nodeName = pod.getSpec() == null ? null : pod.getSpec().getNodeName();
+        if (limit <= 0 || nodeName == null) {
+            return UNLIMITED;
+        }
+
+        // nodes past the metrics dimension cap share a single gauge
+        String nodeDimension =
+                EphemeralContainerMetrics.get().dimensionValue(EphemeralContainerMetrics.NODE, nodeName);
+        return acquire(cloud.name + "/" + nodeName, nodeDimension, limit);
+    }
+
+    /**
+     * Acquire a start slot on a node, waiting if the node is at its limit.
+     * @param key cloud node key
+     * @param nodeDimension node metric dimension value
+     * @param limit max concurrent starts on the node
+     * @return start slot that must be closed once the container started or failed to start
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @NonNull
+    Permit acquire(@NonNull String key, @NonNull String nodeDimension, int limit) throws InterruptedException {
+        MetricRegistry registry = metrics.get();
+        register(registry, MetricNames.EPHEMERAL_CONTAINERS_START_QUEUE_DEPTH, queued::get);
+
+        NodeLimit node = nodes.compute(key, (k, n) -> {
+            if (n == null || n.limit != limit) {
+                // new node or limit changed, slots held under the old limit are released to the old semaphore
+                n = new NodeLimit(k, limit, n == null ? 0 : n.refs);
+            }
+
+            n.refs++;
+            return n;
+        });
+
+        StopWatch wait = new StopWatch();
+        wait.start();
+        try {
+            // timed tryAcquire honors the fairness setting, a new step never barges ahead of waiting steps
+            if (!node.semaphore.tryAcquire(0, TimeUnit.SECONDS)) {
+                LOGGER.fine(() -> "Waiting for ephemeral container start slot on node " + key + " (limit " + limit
+                        + ")");
+                queued.incrementAndGet();
+                enqueue(registry, nodeDimension);
+                try {
+                    node.semaphore.acquire();
+                } finally {
+                    queued.decrementAndGet();
+                    dequeue(nodeDimension);
+                }
+            }
+        } catch (InterruptedException | RuntimeException e) {
+            release(node);
+            throw e;
+        } finally {
+            registry.histogram(MetricNames.EPHEMERAL_CONTAINERS_START_QUEUE_WAIT_DURATION)
+                    .update(wait.getTime());
+        }
+
+        LOGGER.finest(() -> "Acquired ephemeral container start slot on node " + key + " after " + wait);
+        return new Permit() {
+            private boolean closed;
+
+            @Override
+            public synchronized void close() {
+                if (!closed) {
+                    closed = true;
+                    node.semaphore.release();
+                    release(node);
+                }
+            }
+        };
+    }
+
+    /**
+     * Get the start slots of a node.
+     * @param key cloud node key
+     * @return node start slots or {@code null} if no step holds or waits for a slot on the node
+     */
+    @CheckForNull
+    NodeLimit getNodeLimit(@NonNull String key) {
+        return nodes.get(key);
+    }
+
+    private void enqueue(MetricRegistry registry, String nodeDimension) {
+        queuedByNode.compute(nodeDimension, (d, depth) -> {
+            if (depth == null) {
+                depth = new AtomicInteger();
+                register(
+                        registry,
+                        MetricNames.dimension(
+                                MetricNames.EPHEMERAL_CONTAINERS_START_QUEUE_DEPTH, EphemeralContainerMetrics.NODE, d),
+                        () -> {
+                            AtomicInteger current = queuedByNode.get(d);
+                            return current == null ? 0 : current.get();
+                        });
+            }
+
+            depth.incrementAndGet();
+            return depth;
+        });
+    }
+
+    private void dequeue(String nodeDimension) {
+        queuedByNode.computeIfPresent(nodeDimension, (d, depth) -> depth.decrementAndGet() <= 0 ? null : depth);
+    }
+
+    private void register(MetricRegistry registry, String name, Gauge<Integer> gauge) {
+        if (gauges.add(name)) {
+            registry.gauge(name, () -> gauge);
+        }
+    }
+
+    private void release(NodeLimit node) {
+        nodes.computeIfPresent(node.key, (k, n) -> {
+            n.refs--;
+            return n.refs <= 0 ? null : n;
+        });
+    }
+
+    /**
+     * Start slot on a node.
+     */
+    interface Permit extends AutoCloseable {
+        /**
+         * Release the start slot. Calling more than once has no effect.
+         */
+        @Override
+        void close();
+    }
+
+    /**
+     * Start slots of a single node.
+     */
+    static class NodeLimit {
+        private final String key;
+        private final int limit;
+        private final Semaphore semaphore;
+
+        /** Number of steps holding or waiting for a slot on the node, guarded by the {@code nodes} map entry. */
+        private int refs;
+
+        NodeLimit(String key, int limit, int refs) {
+            this.key = key;
+            this.limit = limit;
+            // fair semaphore so waiting steps are admitted in FIFO order
+            this.semaphore = new Semaphore(limit, true);
+            this.refs = refs;
+        }
+
+        int getLimit() {
+            return limit;
+        }
+
+        int getAvailablePermits() {
+            return semaphore.availablePermits();
+        }
+
+        int getRefs() {
+            return refs;
+        }
+
+        int getQueueLength() {
+            return semaphore.getQueueLength();
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.KubernetesClientTimeoutException;
+import io.fabric8.kubernetes.client.dsl.PodResource;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
+import io.fabric8.kubernetes.client.informers.SharedIndexInformer;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.csanchez.jenkins.plugins.kubernetes.KubernetesSlave;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Shares a single watch per agent Pod between all steps waiting on ephemeral container state changes.
+ * Each wait registers a {@link Pod} predicate, every Pod update received by the watch is passed to all
+ * registered predicates. The watch is reference counted, it is opened by the first waiter and closed
+ * when the last waiter leaves.
+ * <p>
+ * The wait semantics match {@link PodResource#waitUntilCondition(Predicate, long, TimeUnit)}. Predicates
+ * are passed {@code null} if the Pod does not exist, and exceptions thrown by a predicate end the wait
+ * and are rethrown to the waiting caller.
+ * <p>
+ * If the cloud {@link EphemeralContainerPodCache} is enabled and has the Pod, updates are taken from the cloud
+ * wide Pod informer and no additional watch is opened.
+ */
+@Restricted(NoExternalUse.class)
+class EphemeralContainerStatusWatcher {
+
+    private static final Logger LOGGER = Logger.getLogger(EphemeralContainerStatusWatcher.class.getName());
+
+    private static final EphemeralContainerStatusWatcher INSTANCE = new EphemeralContainerStatusWatcher();
+
+    private final ConcurrentMap<String, PodWatch> watches = new ConcurrentHashMap<>();
+
+    /**
+     * Get the watcher instance.
+     * @return watcher, never {@code null}
+     */
+    @NonNull
+    static EphemeralContainerStatusWatcher get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Wait until the condition passes for the agent Pod.
+     * @param slave kubernetes agent
+     * @param podResource agent Pod resource
+     * @param condition Pod condition
+     * @param amount max amount of time to wait
+     * @param timeUnit wait time unit
+     * @return Pod that passed the condition, may be {@code null} if the condition accepts a missing Pod
+     * @throws KubernetesClientTimeoutException if the condition did not pass in time
+     * @throws KubernetesClientException if the condition threw an exception or the wait was interrupted
+     */
+    @CheckForNull
+    Pod waitUntilCondition(
+            @NonNull KubernetesSlave slave,
+            @NonNull PodResource podResource,
+            @NonNull Predicate<Pod> condition,
+            long amount,
+            @NonNull TimeUnit timeUnit) {
+        CompletableFuture<Pod> future = watch(slave, podResource, condition);
+        try {
+            return future.get(amount, timeUnit);
+        } catch (TimeoutException te) {
+            throw new KubernetesClientTimeoutException(
+                    "Pod", slave.getPodName(), slave.getNamespace(), amount, timeUnit);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof KubernetesClientException kce) {
+                throw kce;
+            }
+
+            throw KubernetesClientException.launderThrowable(cause);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new KubernetesClientException("Interrupted waiting for pod " + slave.getPodName(), ie);
+        } finally {
+            // no-op if already complete, otherwise deregister the condition
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Register a Pod condition. The returned future completes when the condition passes or completes
+     * exceptionally if the condition throws. Cancel the future to stop watching.
+     * @param slave kubernetes agent
+     * @param podResource agent Pod resource
+     * @param condition Pod condition
+     * @return future Pod that passed the condition
+     */
+    @NonNull
+    CompletableFuture<Pod> watch(
+            @NonNull KubernetesSlave slave, @NonNull PodResource podResource, @NonNull Predicate<Pod> condition) {
+        String key = slave.getCloudName() + "/" + slave.getNamespace() + "/" + slave.getPodName();
+        return watch(key, handler -> subscribe(key, slave, podResource, handler), condition);
+    }
+
+    /**
+     * Register a Pod condition with the shared watch of a Pod, subscribing to Pod updates if no watch is open.
+     * @param key Pod key
+     * @param subscriber Pod update subscriber
+     * @param condition Pod condition
+     * @return future Pod that passed the condition
+     */
+    @NonNull
+    CompletableFuture<Pod> watch(
+            @NonNull String key, @NonNull Subscriber subscriber, @NonNull Predicate<Pod> condition) {
+        PodWatch watch = watches.compute(key, (k, w) -> {
+            PodWatch pw = w == null ? new PodWatch(k) : w;
+            pw.refs++;
+            return pw;
+        });
+
+        Waiter waiter = new Waiter(condition);
+        waiter.future.whenComplete((pod, t) -> {
+            watch.waiters.remove(waiter);
+            release(watch);
+        });
+
+        try {
+            watch.start(subscriber);
+        } catch (RuntimeException e) {
+            waiter.future.completeExceptionally(e);
+            return waiter.future;
+        }
+
+        watch.register(waiter);
+        return waiter.future;
+    }
+
+    /**
+     * Subscribe to updates of the agent Pod, from the cloud Pod cache if enabled or with a new informer.
+     */
+    private static Subscription subscribe(
+            String key, KubernetesSlave slave, PodResource podResource, ResourceEventHandler<Pod> handler) {
+        EphemeralContainerPodCache.PodInformer cache =
+                EphemeralContainerPodCache.get().informer(slave).orElse(null);
+        return subscribe(key, slave.getPodName(), cache, h -> inform(key, podResource, h), handler);
+    }
+
+    /**
+     * Subscribe to updates of the agent Pod from the cloud Pod cache. A Pod missing from the cache is not
+     * necessarily gone, the informer may not have caught up yet or the Pod may not match the cloud Pod labels,
+     * so its updates are followed with a Pod informer instead.
+     * @param key Pod key
+     * @param podName agent Pod name
+     * @param cache cloud Pod cache or {@code null} if not enabled
+     * @param informer Pod informer subscriber
+     * @param handler Pod event handler
+     * @return subscription
+     */
+    @NonNull
+    static Subscription subscribe(
+            @NonNull String key,
+            @NonNull String podName,
+            @CheckForNull EphemeralContainerPodCache.PodInformer cache,
+            @NonNull Subscriber informer,
+            @NonNull ResourceEventHandler<Pod> handler) {
+        if (cache == null || cache.getPod(podName) == null) {
+            return informer.subscribe(handler);
+        }
+
+        // follow pod updates from the cloud wide pod informer
+        LOGGER.fine(() -> "Following ephemeral container status of " + key + " from pod cache");
+        cache.addListener(podName, handler);
+        return new Subscription() {
+            @Override
+            public Pod current() {
+                return cache.getPod(podName);
+            }
+
+            @Override
+            public void close() {
+                cache.removeListener(podName, handler);
+            }
+        };
+    }
+
+    private static Subscription inform(String key, PodResource podResource, ResourceEventHandler<Pod> handler) {
+        LOGGER.fine(() -> "Opening shared ephemeral container status watch on " + key);
+        // blocks until the initial list is complete
+        SharedIndexInformer<Pod> informer = podResource.inform(handler);
+        return new Subscription() {
+            @Override
+            public Pod current() {
+                // add event is delivered asynchronously and may not have been received yet, the store
+                // is populated before handlers are notified and will be empty if the pod does not exist
+                return informer.getStore().list().stream().findFirst().orElse(null);
+            }
+
+            @Override
+            public void close() {
+                LOGGER.fine(() -> "Closing shared ephemeral container status watch on " + key);
+                informer.stop();
+            }
+        };
+    }
+
+    private void release(PodWatch watch) {
+        boolean[] closed = new boolean[1];
+        watches.computeIfPresent(watch.key, (k, w) -> {
+            if (w != watch) {
+                return w;
+            }
+
+            w.refs--;
+            if (w.refs <= 0) {
+                closed[0] = true;
+                return null;
+            }
+
+            return w;
+        });
+
+        if (closed[0]) {
+            watch.stop();
+        }
+    }
+
+    /**
+     * Subscribes a handler to the updates of a Pod.
+     */
+    @FunctionalInterface
+    interface Subscriber {
+        /**
+         * Start delivering Pod updates to the handler.
+         * @param handler Pod event handler
+         * @return subscription
+         */
+        @NonNull
+        Subscription subscribe(@NonNull ResourceEventHandler<Pod> handler);
+    }
+
+    /**
+     * Pod update subscription.
+     */
+    interface Subscription {
+        /**
+         * Get the current Pod.
+         * @return current Pod or {@code null} if it does not exist
+         */
+        @CheckForNull
+        Pod current();
+
+        /**
+         * Stop delivering Pod updates.
+         */
+        void close();
+    }
+
+    /**
+     * Condition registered with a {@link PodWatch}.
+     */
+    private static class Waiter {
+        private final Predicate<Pod> condition;
+        private final CompletableFuture<Pod> future = new CompletableFuture<>();
+
+        Waiter(Predicate<Pod> condition) {
+            this.condition = condition;
+        }
+
+        void test(@CheckForNull Pod pod) {
+            if (future.isDone()) {
+                return;
+            }
+
+            try {
+                if (condition.test(pod)) {
+                    future.complete(pod);
+                }
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Single subscription to an agent Pod shared by all registered waiters.
+     */
+    private static class PodWatch implements ResourceEventHandler<Pod> {
+        private final String key;
+        private final Set<Waiter> waiters = ConcurrentHashMap.newKeySet();
+
+        /** Number of registered waiters, guarded by the {@code watches} map entry. */
+        private int refs;
+
+        private Subscription subscription;
+        private boolean started;
+        private boolean stopped;
+
+        private volatile boolean synced;
+        private volatile Pod latest;
+
+        PodWatch(String key) {
+            this.key = key;
+        }
+
+        synchronized void start(Subscriber subscriber) {
+            if (started || stopped) {
+                return;
+            }
+
+            started = true;
+            try {
+                subscription = subscriber.subscribe(this);
+            } catch (RuntimeException e) {
+                started = false;
+                throw e;
+            }
+
+            if (!synced) {
+                update(subscription.current());
+            }
+        }
+
+        synchronized void stop() {
+            stopped = true;
+            if (subscription != null) {
+                try {
+                    subscription.close();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.FINE, "Failed to close pod watch " + key, e);
+                }
+            }
+        }
+
+        void register(Waiter waiter) {
+            waiters.add(waiter);
+            if (synced) {
+                waiter.test(latest);
+            }
+        }
+
+        private void update(@CheckForNull Pod pod) {
+            latest = pod;
+            synced = true;
+            for (Waiter waiter : waiters) {
+                waiter.test(pod);
+            }
+        }
+
+        @Override
+        public void onAdd(Pod pod) {
+            update(pod);
+        }
+
+        @Override
+        public void onUpdate(Pod oldPod, Pod newPod) {
+            update(newPod);
+        }
+
+        @Override
+        public void onDelete(Pod pod, boolean deletedFinalStateUnknown) {
+            update(null);
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package io.jenkins.plugins.kubernetes.ephemeral;
 
-import static io.jenkins.plugins.kubernetes.ephemeral.EphemeralContainerMonitor.containerStopCommand;
 import static org.csanchez.jenkins.plugins.kubernetes.pipeline.Resources.closeQuietly;
 import static org.csanchez.jenkins.plugins.kubernetes.pipeline.Resources.closeQuietlyCallback;
 
@@ -13,42 +12,38 @@ import hudson.EnvVars;
 import hudson.Launcher;
 import hudson.LauncherDecorator;
 import hudson.console.ModelHyperlinkNote;
+import hudson.model.Computer;
 import hudson.model.Run;
 import hudson.model.TaskListener;
-import hudson.slaves.EnvironmentVariablesNodeProperty;
-import hudson.slaves.NodeProperty;
-import hudson.slaves.NodePropertyDescriptor;
-import hudson.util.DescribableList;
 import hudson.util.Iterators;
 import io.fabric8.kubernetes.api.model.ContainerStateTerminated;
 import io.fabric8.kubernetes.api.model.ContainerStateWaiting;
 import io.fabric8.kubernetes.api.model.ContainerStatus;
 import io.fabric8.kubernetes.api.model.EphemeralContainer;
 import io.fabric8.kubernetes.api.model.Pod;
-import io.fabric8.kubernetes.api.model.PodBuilder;
 import io.fabric8.kubernetes.api.model.SecurityContext;
-import io.fabric8.kubernetes.api.model.Status;
 import io.fabric8.kubernetes.client.KubernetesClientException;
 import io.fabric8.kubernetes.client.KubernetesClientTimeoutException;
-import io.fabric8.kubernetes.client.dsl.ExecWatch;
 import io.fabric8.kubernetes.client.dsl.PodResource;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.Serial;
 import java.nio.charset.Charset;
 import java.util.Collections;
-import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jenkins.metrics.api.Metrics;
-import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 import org.apache.commons.lang3.ObjectUtils;
 import org.apache.commons.lang3.Strings;
-import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.commons.lang3.time.StopWatch;
 import org.csanchez.jenkins.plugins.kubernetes.KubernetesCloud;
 import org.csanchez.jenkins.plugins.kubernetes.KubernetesSlave;
@@ -79,12 +74,6 @@ public class EphemeralContainerStepExecution extends GeneralNonBlockingStepExecu
 
     private static final Logger LOGGER = Logger.getLogger(EphemeralContainerStepExecution.class.getName());
 
-    /** Max retry attempts if Pod update fails. */
-    private static final int PATCH_MAX_RETRY =
-            Integer.getInteger(EphemeralContainerStepExecution.class.getName() + ".patchMaxRetry", 10);
-    /** Max wait time in seconds between Pod update retries. */
-    private static final int PATCH_RETRY_MAX_WAIT =
-            Integer.getInteger(EphemeralContainerStepExecution.class.getName() + ".patchRetryMaxWaitSecs", 2);
     /** Max retry attempts to start an ephemeral container. */
     private static final int START_MAX_RETRY =
             Integer.getInteger(EphemeralContainerStepExecution.class.getName() + ".startMaxRetry", 3);
@@ -99,27 +88,68 @@ public class EphemeralContainerStepExecution extends GeneralNonBlockingStepExecu
     private static final String KUBE_REASON_START_ERROR = "StartError";
     private static final String KUBE_REASON_ERROR = "Error";
     private static final String KUBE_REASON_ERR_IMAGE_PULL = "ErrImagePull";
-    private static final String KUBE_REASON_CONFLICT = "Conflict";
+    private static final String KUBE_REASON_IMAGE_PULL_BACK_OFF = "ImagePullBackOff";
     private static final String KUBE_REASON_CONTAINER_CREATING = "ContainerCreating";
     private static final String KUBE_REASON_POD_INITIALIZING = "PodInitializing";
 
     // Kubernetes state messages
     private static final String KUBE_MESSAGE_UNEXPECTED_HTTP_STATUS = "unexpected HTTP status";
 
+    /** Name prefix of step ephemeral containers. */
+    static final String CONTAINER_NAME_PREFIX = "jkns-step-";
+
     /** Set of container start failure state reasons to retry on. */
     private static final Set<String> START_RETRY_REASONS = Collections.singleton(KUBE_REASON_START_ERROR);
 
     @SuppressFBWarnings(value = "SE_TRANSIENT_FIELD_NOT_RESTORED", justification = "not needed on deserialization")
     private final transient EphemeralContainerStep step;
 
+    /** Container the step body runs in. */
+    @CheckForNull
+    private String containerName;
+
+    /** Body exec decorator, not persisted since its launches do not survive a restart. */
+    @CheckForNull
+    private transient ContainerExecDecorator bodyDecorator;
+
+    /** Body exec decorator persisted by previous versions, only read to restore {@link #containerName}. */
+    @Deprecated
     @CheckForNull
     private ContainerExecDecorator decorator;
 
+    /** Container being added to the Pod, until the step body starts in it. */
+    @CheckForNull
+    private transient String pendingContainerName;
+
+    private transient boolean stopped;
+
+    /** Container of the last start attempt, the step timings are recorded under its name if the start fails. */
+    @CheckForNull
+    private transient String attemptedContainerName;
+
+    @SuppressFBWarnings(value = "SE_TRANSIENT_FIELD_NOT_RESTORED", justification = "not needed on deserialization")
+    private final transient EphemeralContainerStepTimings timings = new EphemeralContainerStepTimings();
+
     EphemeralContainerStepExecution(@NonNull EphemeralContainerStep step, @NonNull StepContext context) {
         super(context);
         this.step = step;
     }
 
+    /**
+     * Restore the name of the container the step body runs in from executions persisted by previous versions,
+     * so the container is still terminated when the step is stopped after a restart.
+     * @return this execution
+     */
+    @Serial
+    protected Object readResolve() {
+        if (containerName == null && decorator != null) {
+            containerName = decorator.getContainerName();
+        }
+
+        decorator = null;
+        return this;
+    }
+
     @Override
     public boolean start() throws Exception {
         KubernetesNodeContext nodeContext = new KubernetesNodeContext(getContext());
@@ -132,7 +162,9 @@ public class EphemeralContainerStepExecution extends GeneralNonBlockingStepExecu
         Iterable<EphemeralContainerStepRule> rules =
                 Iterators.sequence(trait.getContainerStepRules(), globalConfig.getContainerStepRules());
         EphemeralContainerStepRuleEvaluator evaluator = new EphemeralContainerStepRuleEvaluator();
+        long rulesStart = System.nanoTime();
         evaluator.eval(step, rules);
+        timings.since(EphemeralContainerPhase.RULES, rulesStart);
 
         run(this::startEphemeralContainerWithRetry);
         return false;
@@ -145,26 +177,55 @@ public class EphemeralContainerStepExecution extends GeneralNonBlockingStepExecu
      * @throws Exception if container start fails or interrupted
      */
     protected void startEphemeralContainerWithRetry() throws Exception {
+        // The body environment does not depend on the container, compute it while the container starts.
+        CompletableFuture<BuildEnvironment> environment = BuildEnvironment.computeAsync(getContext());
+        try {
+            startEphemeralContainerWithRetry(environment);
+        } catch (Exception e) {
+            // the body never started, record the phases of the failed start
+            String attempted = attemptedContainerName;
+            if (attempted != null) {
+                timings.record(getContext(), attempted, step.getImage());
+            }
+
+            throw e;
+        } finally {
+            // Stop computing the environment if the body was not started, no-op once the body used it
+            environment.cancel(true);
+        }
+    }
+
+    private void startEphemeralContainerWithRetry(CompletableFuture<BuildEnvironment> environment) throws Exception {
         StepContext context = getContext();
         KubernetesNodeContext nodeContext = new KubernetesNodeContext(context);
         KubernetesSlave slave = nodeContext.getKubernetesSlave();
         TaskListener listener = context.get(TaskListener.class);
-        MetricRegistry metrics = Metrics.metricRegistry();
+        EphemeralContainerRetryBudget budget = EphemeralContainerRetryBudget.get();
+        budget.recordAttempt(slave.getKubernetesCloud());
         int retries = 0;
         do {
             try {
-                startEphemeralContainer();
+                startEphemeralContainer(environment);
                 break; // Success
             } catch (EphemeralContainerTerminatedException e) {
                 String reason = e.getState().getReason();
                 // Attempt to retry starting container if it terminated while starting due to a canceled containerd
                 // context. This could happen if there is high system load resource constraints. The hope is that
                 // by waiting or simply trying again the container successfully starts.
-                if (retries < START_MAX_RETRY && START_RETRY_REASONS.contains(reason)) {
-                    metrics.counter(
-                                    io.jenkins.plugins.kubernetes.ephemeral.MetricNames
-                                            .EPHEMERAL_CONTAINERS_CREATION_RETRIED)
-                            .inc();
+                boolean retry = retries < START_MAX_RETRY && START_RETRY_REASONS.contains(reason);
+                if (retry && !budget.tryRetry(slave.getKubernetesCloud())) {
+                    // Fail fast instead of adding load to a degraded cluster
+                    printConsole(
+                            listener,
+                            "Ephemeral container terminated while starting with reason " + reason
+                                    + ", not retrying because the retry budget of cloud " + slave.getCloudName()
+                                    + " is exhausted");
+                    retry = false;
+                }
+
+                if (retry) {
+                    EphemeralContainerMetrics.get()
+                            .creationRetried(slave, step.getImage(), EphemeralContainerMetrics.Failure.START_ERROR);
                     retries++;
                     // Add a little bit of wait in case the container was terminated because of high system load.
                     long waitTime = 0;
@@ -223,27 +284,118 @@ public class EphemeralContainerStepExecution extends GeneralNonBlockingStepExecu
      * Start the ephemeral container by patching the current Pod spec and wait for it
      * to be ready. This function handles retry attempts if the patching operation
      * encounters conflicts.
+     * @param environment body environment being computed concurrently
      * @throws Exception container fails to start
      */
-    private void startEphemeralContainer() throws Exception {
+    private void startEphemeralContainer(CompletableFuture<BuildEnvironment> environment) throws Exception {
         LOGGER.log(Level.FINE, "Starting ephemeral container step.");
         StepContext context = getContext();
         KubernetesNodeContext nodeContext = new KubernetesNodeContext(context);
         KubernetesSlave slave = nodeContext.getKubernetesSlave();
-        KubernetesCloud cloud = slave.getKubernetesCloud();
 
         // Generate unique container name
         String stepId = ObjectUtils.hashCodeHex(this.step);
-        String containerName = PodUtils.createNameWithRandomSuffix("jkns-step-" + stepId);
+        String newContainerName = PodUtils.createNameWithRandomSuffix(CONTAINER_NAME_PREFIX + stepId);
+        attemptedContainerName = newContainerName;
 
         // Create ephemeral container from container template
-        EphemeralContainer ec = createEphemeralContainer(containerName, slave);
+        Pod pod = getPod(slave, nodeContext.getPodResource())
+                .orElseThrow(() -> new AbortException("Kubernetes node Pod reference not found."));
+        updateKubernetesNodeName(slave, pod);
+        EphemeralContainer ec = createEphemeralContainer(newContainerName, pod);
 
+        TaskListener listener = context.get(TaskListener.class);
+        // Reuse an idle container left by a previous step with the same image and identity
+        EphemeralContainerReusePool pool = EphemeralContainerReusePool.get();
+        String reuseKey = pool.isEnabled(slave) ? EphemeralContainerReusePool.reuseKey(ec, step.getCommand()) : null;
+        String containerName = reuseKey == null ? null : pool.acquire(slave, pod, reuseKey).orElse(null);
+        if (containerName != null) {
+            if (!setPendingContainer(containerName)) {
+                // step was stopped while taking the container from the pool
+                terminateEphemeralContainer(context, containerName);
+                return;
+            }
+
+            attemptedContainerName = containerName;
+            printConsole(listener, "Reusing ephemeral container " + containerUrl(slave, containerName));
+        } else {
+            containerName = ec.getName();
+            if (!startNewEphemeralContainer(context, nodeContext, slave, pod, ec, listener)) {
+                return;
+            }
+
+            if (reuseKey != null) {
+                pool.lease(slave, containerName);
+            }
+        }
+
+        EphemeralContainerExecDecorator execDecorator = new EphemeralContainerExecDecorator();
+        try {
+            EnvironmentExpander env = EnvironmentExpander.merge(
+                    context.get(EnvironmentExpander.class),
+                    EnvironmentExpander.constant(Collections.singletonMap("POD_CONTAINER", containerName)));
+
+            long envStart = System.nanoTime();
+            BuildEnvironment buildEnv = BuildEnvironment.await(environment);
+            timings.since(EphemeralContainerPhase.ENVIRONMENT, envStart);
+            execDecorator.setNodeContext(nodeContext);
+            execDecorator.setContainerName(containerName);
+            execDecorator.setEnvironmentExpander(env);
+            execDecorator.setGlobalVars(buildEnv.globalVars);
+            execDecorator.setRunContextEnvVars(buildEnv.runVars);
+            execDecorator.setRunId(buildEnv.runId);
+            execDecorator.setShell(step.getShell());
+            if (!startBody(execDecorator)) {
+                // step was stopped before the body started, the container is stopped by stop
+                return;
+            }
+
+            context.newBodyInvoker()
+                    .withContexts(
+                            BodyInvoker.mergeLauncherDecorators(context.get(LauncherDecorator.class), execDecorator),
+                            env)
+                    .withCallback(closeQuietlyCallback(execDecorator))
+                    .withCallback(new TerminateEphemeralContainerExecCallback(
+                            this, containerName, reuseKey, timings, ec.getImage()))
+                    .start();
+        } catch (Exception e) {
+            // the body never started, nothing else terminates the running container unless the step was stopped
+            if (abandonContainer()) {
+                try {
+                    closeQuietly(context, execDecorator);
+                    terminateEphemeralContainer(context, containerName);
+                } catch (Exception te) {
+                    e.addSuppressed(te);
+                }
+            }
+
+            throw e;
+        }
+    }
+
+    /**
+     * Add a new ephemeral container to the agent Pod and wait for it to be running.
+     * @param context step context
+     * @param nodeContext kubernetes node context
+     * @param slave kubernetes agent
+     * @param pod agent Pod snapshot
+     * @param ec ephemeral container to add
+     * @param listener task listener
+     * @return {@code true} if the container is running, {@code false} if interrupted
+     * @throws Exception container fails to start
+     */
+    private boolean startNewEphemeralContainer(
+            StepContext context,
+            KubernetesNodeContext nodeContext,
+            KubernetesSlave slave,
+            Pod pod,
+            EphemeralContainer ec,
+            @CheckForNull TaskListener listener)
+            throws Exception {
+        String containerName = ec.getName();
         LOGGER.finest(() -> "Adding Ephemeral Container: " + ec);
         // Display link in the build console to the new container
-        TaskListener listener = context.get(TaskListener.class);
-        String containerUrl = ModelHyperlinkNote.encodeTo(
-                "/computer/" + nodeContext.getPodName() + "/container?name=" + containerName, containerName);
+        String containerUrl = containerUrl(slave, containerName);
         if (listener != null) {
             String runningAs = "";
             SecurityContext sc = ec.getSecurityContext();
@@ -257,140 +409,124 @@ public class EphemeralContainerStepExecution extends GeneralNonBlockingStepExecu
                     "Starting ephemeral container " + containerUrl + " with image " + ec.getImage() + runningAs);
         }
 
-        // Patch the Pod with the new ephemeral container
         PodResource podResource = nodeContext.getPodResource();
         MetricRegistry metrics = Metrics.metricRegistry();
         StopWatch startDuration = new StopWatch();
         startDuration.start();
-        // Current implementation of ephemeral containers only allows ephemeral containers to be added
-        // so patching may fail if different threads attempt to add using the same resource version
-        // which would effectively act as a "delete" when the second patch was processed. If this
-        // situation is detected the patch will be retried.
-        int retries = 0;
-        try {
-            do {
+
+        // Wait for a fair share of the cloud container creation rate
+        long queueStart = System.nanoTime();
+        EphemeralContainerAdmissionScheduler.get().admit(slave.getKubernetesCloud(), context.get(Run.class));
+
+        // Limit the number of containers starting at once on the agent node to avoid overloading the kubelet.
+        try (EphemeralContainerStartLimiter.Permit startSlot =
+                EphemeralContainerStartLimiter.get().acquire(slave, pod)) {
+            // Fail fast if starts on the agent node or cloud are suspended after repeated failures. Acquired
+            // once queued so a half-open trial measures the container start, not the time spent waiting.
+            EphemeralContainerCircuitBreaker.Permit circuit =
+                    EphemeralContainerCircuitBreaker.get().acquire(slave, pod);
+            try (circuit) {
+                // Register the container before it is added so an abort from here on stops it once running
+                timings.since(EphemeralContainerPhase.QUEUE, queueStart);
+                if (!setPendingContainer(containerName)) {
+                    return false;
+                }
+
+                EphemeralContainerLifecycleRegistry lifecycle = EphemeralContainerLifecycleRegistry.get();
+                lifecycle.starting(slave, containerName);
+
+                // Patch the Pod with the new ephemeral container. Steps adding containers to the same Pod
+                // at the same time are coalesced into a single update to avoid optimistic locking conflicts.
+                long patchStart = System.nanoTime();
                 try {
-                    podResource.ephemeralContainers().edit(pod -> new PodBuilder(pod)
-                            .editSpec()
-                            .addToEphemeralContainers(ec)
-                            .endSpec()
-                            .build());
+                    EphemeralContainerPatchCoordinator.get().addEphemeralContainer(slave, podResource, pod, ec);
+                } catch (AbortException e) {
+                    // container was not added
+                    lifecycle.removed(slave, containerName);
+                    throw e;
+                }
+
+                lifecycle.added(slave, pod);
 
-                    break; // Success
+                timings.since(EphemeralContainerPhase.PATCH, patchStart);
+
+                // Wait until ephemeral container has started
+                PodTemplate pt = slave.getTemplate();
+                LOGGER.fine(() ->
+                        "Waiting for Ephemeral Container to start: " + containerName + " on Pod " + slave.getPodName());
+                EphemeralContainerRunningCondition running =
+                        new EphemeralContainerRunningCondition(containerName, containerUrl, listener);
+                StopWatch waitDuration = new StopWatch();
+                waitDuration.start();
+                try {
+                    EphemeralContainerStatusWatcher.get()
+                            .waitUntilCondition(
+                                    slave, podResource, running, pt.getSlaveConnectTimeout(), TimeUnit.SECONDS);
+                    circuit.success();
+                    lifecycle.active(slave, containerName);
+                    LOGGER.fine(() -> "Ephemeral Container started: " + containerName + " on Pod " + slave.getPodName()
+                            + " (waited " + waitDuration + ")");
+                    EphemeralContainerMetrics.get().created(slave, ec.getImage());
+                    metrics.histogram(
+                                    io.jenkins.plugins.kubernetes.ephemeral.MetricNames
+                                            .EPHEMERAL_CONTAINERS_CREATION_WAIT_DURATION)
+                            .update(waitDuration.getTime());
                 } catch (KubernetesClientException kce) {
-                    Status status = kce.getStatus();
-                    if (retries < PATCH_MAX_RETRY
-                            && status != null
-                            && Strings.CS.equals(status.getReason(), KUBE_REASON_CONFLICT)) {
-                        retries++;
-
-                        // With large parallel operations the max retry may still get hit trying to provision
-                        // ephemeral container patch updates. This introduces a small amount of random wait
-                        // to distribute the patch updates to help reduce the chances of a conflict.
-                        long waitTime = 0;
-                        if (status.getDetails() != null && status.getDetails().getRetryAfterSeconds() != null) {
-                            waitTime = TimeUnit.SECONDS.toMillis(
-                                    status.getDetails().getRetryAfterSeconds());
-                        } else if (PATCH_RETRY_MAX_WAIT > 0) {
-                            waitTime = ThreadLocalRandom.current()
-                                    .nextLong(TimeUnit.SECONDS.toMillis(PATCH_RETRY_MAX_WAIT));
-                        }
+                    EphemeralContainerMetrics.get().creationFailed(slave, ec.getImage(), classifyFailure(kce));
+                    if (!(kce.getCause() instanceof InterruptedException)) {
+                        // the step fails and the container is not used, an interrupted step stops it
+                        lifecycle.removed(slave, containerName);
+                    }
 
-                        if (waitTime > 0) {
-                            LOGGER.info("Ephemeral container patch failed due to optimistic locking, trying again in "
-                                    + waitTime + "ms (" + retries + " of " + PATCH_MAX_RETRY + "): "
-                                    + kce.getMessage());
-                            Thread.sleep(waitTime);
-                        } else {
-                            LOGGER.info("Ephemeral container patch failed due to optimistic locking, trying again ("
-                                    + retries + " of " + PATCH_MAX_RETRY + "): " + kce.getMessage());
+                    if (kce instanceof EphemeralContainerTerminatedException te) {
+                        if (isStartFailure(te.getState())) {
+                            circuit.failure();
                         }
-                    } else {
+
+                        // Propagate exception to caller to decide if we should retry or abort
                         throw kce;
                     }
-                }
-            } while (true);
-        } catch (KubernetesClientException kce) {
-            metrics.counter(io.jenkins.plugins.kubernetes.ephemeral.MetricNames.EPHEMERAL_CONTAINERS_CREATION_FAILED)
-                    .inc();
-            LOGGER.log(
-                    Level.WARNING,
-                    "Failed to add ephemeral container " + containerName + " to pod " + slave.getPodName()
-                            + " on cloud " + cloud.name + " after " + retries + " retries.",
-                    kce);
-            String message = "Ephemeral container could not be added.";
-            Status status = kce.getStatus();
-            if (status != null) {
-                if (status.getMessage() != null) {
-                    message += " " + status.getMessage();
-                }
-
-                message += " (" + status.getReason() + ")";
-            }
-
-            if (retries == PATCH_MAX_RETRY) {
-                message += ". Reached max retry limit.";
-            }
 
-            throw new AbortException(message);
-        }
+                    if (kce instanceof KubernetesClientTimeoutException) {
+                        circuit.failure();
+                        String status;
+                        try {
+                            status = getPod(slave, podResource)
+                                    .flatMap(p ->
+                                            EphemeralPodContainerSource.getEphemeralContainerStatus(p, containerName))
+                                    .map(cs -> cs.getState().toString())
+                                    .orElse("no status available");
+                        } catch (KubernetesClientException ignored) {
+                            status = "failed to get status";
+                        }
 
-        // Wait until ephemeral container has started
-        PodTemplate pt = slave.getTemplate();
-        LOGGER.fine(
-                () -> "Waiting for Ephemeral Container to start: " + containerName + " on Pod " + slave.getPodName());
-        try {
-            StopWatch waitDuration = new StopWatch();
-            waitDuration.start();
-            podResource.waitUntilCondition(
-                    new EphemeralContainerRunningCondition(containerName, containerUrl, listener),
-                    pt.getSlaveConnectTimeout(),
-                    TimeUnit.SECONDS);
-            LOGGER.fine(() -> "Ephemeral Container started: " + containerName + " on Pod " + slave.getPodName()
-                    + " (waited " + waitDuration + ")");
-            metrics.counter(io.jenkins.plugins.kubernetes.ephemeral.MetricNames.EPHEMERAL_CONTAINERS_CREATED)
-                    .inc();
-            metrics.histogram(
-                            io.jenkins.plugins.kubernetes.ephemeral.MetricNames
-                                    .EPHEMERAL_CONTAINERS_CREATION_WAIT_DURATION)
-                    .update(waitDuration.getTime());
-        } catch (KubernetesClientException kce) {
-            metrics.counter(io.jenkins.plugins.kubernetes.ephemeral.MetricNames.EPHEMERAL_CONTAINERS_CREATION_FAILED)
-                    .inc();
-            if (kce instanceof EphemeralContainerTerminatedException) {
-                // Propagate exception to caller to decide if we should retry or abort
-                throw kce;
-            }
+                        throw new AbortException("Ephemeral container " + containerName + " on Pod "
+                                + slave.getPodName() + " failed to start after " + pt.getSlaveConnectTimeout()
+                                + " seconds: " + status);
+                    }
 
-            if (kce instanceof KubernetesClientTimeoutException) {
-                String status;
-                try {
-                    status = EphemeralPodContainerSource.getEphemeralContainerStatus(podResource.get(), containerName)
-                            .map(cs -> cs.getState().toString())
-                            .orElse("no status available");
-                } catch (KubernetesClientException ignored) {
-                    status = "failed to get status";
+                    Throwable cause = kce.getCause();
+                    if (cause instanceof InterruptedException) {
+                        LOGGER.log(
+                                Level.FINEST,
+                                "Ephemeral container step interrupted " + containerName + " on Pod "
+                                        + slave.getPodName(),
+                                kce);
+                        return false;
+                    } else {
+                        LOGGER.log(
+                                Level.FINEST,
+                                "Ephemeral container " + containerName + " on Pod " + slave.getPodName()
+                                        + " failed to start due to kubernetes client exception",
+                                kce);
+                        throw new AbortException("Ephemeral container " + containerName + " on Pod "
+                                + slave.getPodName() + " failed to start: " + kce.getMessage());
+                    }
+                } finally {
+                    long pullMillis = running.getPullMillis();
+                    timings.add(EphemeralContainerPhase.IMAGE_PULL, pullMillis);
+                    timings.add(EphemeralContainerPhase.START, waitDuration.getTime() - pullMillis);
                 }
-
-                throw new AbortException("Ephemeral container " + containerName + " on Pod " + slave.getPodName()
-                        + " failed to start after " + pt.getSlaveConnectTimeout() + " seconds: " + status);
-            }
-
-            Throwable cause = kce.getCause();
-            if (cause instanceof InterruptedException) {
-                LOGGER.log(
-                        Level.FINEST,
-                        "Ephemeral container step interrupted " + containerName + " on Pod " + slave.getPodName(),
-                        kce);
-                return;
-            } else {
-                LOGGER.log(
-                        Level.FINEST,
-                        "Ephemeral container " + containerName + " on Pod " + slave.getPodName()
-                                + " failed to start due to kubernetes client exception",
-                        kce);
-                throw new AbortException("Ephemeral container " + containerName + " on Pod " + slave.getPodName()
-                        + " failed to start: " + kce.getMessage());
             }
         }
 
@@ -400,56 +536,176 @@ public class EphemeralContainerStepExecution extends GeneralNonBlockingStepExecu
                 listener,
                 "Ephemeral container " + containerName + " ready after "
                         + startDuration.getDuration().toSeconds() + " seconds");
+        return true;
+    }
 
-        EnvironmentExpander env = EnvironmentExpander.merge(
-                context.get(EnvironmentExpander.class),
-                EnvironmentExpander.constant(Collections.singletonMap("POD_CONTAINER", containerName)));
-
-        EnvVars globalVars = null;
-        Jenkins instance = Jenkins.get();
-
-        DescribableList<NodeProperty<?>, NodePropertyDescriptor> globalNodeProperties =
-                instance.getGlobalNodeProperties();
-        List<EnvironmentVariablesNodeProperty> envVarsNodePropertyList =
-                globalNodeProperties.getAll(EnvironmentVariablesNodeProperty.class);
-        if (envVarsNodePropertyList != null && !envVarsNodePropertyList.isEmpty()) {
-            globalVars = envVarsNodePropertyList.get(0).getEnvVars();
-        }
-
-        EnvVars rcEnvVars = null;
-        Run<?, ?> run = context.get(Run.class);
-        if (run != null && listener != null) {
-            rcEnvVars = run.getEnvironment(listener);
-        }
-
-        decorator = new EphemeralContainerExecDecorator();
-        decorator.setNodeContext(nodeContext);
-        decorator.setContainerName(containerName);
-        decorator.setEnvironmentExpander(env);
-        decorator.setGlobalVars(globalVars);
-        decorator.setRunContextEnvVars(rcEnvVars);
-        decorator.setShell(step.getShell());
-        context.newBodyInvoker()
-                .withContexts(BodyInvoker.mergeLauncherDecorators(context.get(LauncherDecorator.class), decorator), env)
-                .withCallback(closeQuietlyCallback(decorator))
-                .withCallback(new TerminateEphemeralContainerExecCallback(containerName))
-                .start();
+    private static String containerUrl(KubernetesSlave slave, String containerName) {
+        return ModelHyperlinkNote.encodeTo(
+                "/computer/" + slave.getPodName() + "/container?name=" + containerName, containerName);
+    }
+
+    /**
+     * Classify a container start failure for metrics.
+     * @param kce start failure
+     * @return failure classification
+     */
+    private static EphemeralContainerMetrics.Failure classifyFailure(KubernetesClientException kce) {
+        if (kce instanceof EphemeralContainerTerminatedException te) {
+            return isStartFailure(te.getState())
+                    ? EphemeralContainerMetrics.Failure.START_ERROR
+                    : EphemeralContainerMetrics.Failure.TERMINATED;
+        }
+
+        if (kce instanceof EphemeralContainerImagePullException) {
+            return EphemeralContainerMetrics.Failure.IMAGE_PULL;
+        }
+
+        if (kce instanceof KubernetesClientTimeoutException) {
+            return EphemeralContainerMetrics.Failure.TIMEOUT;
+        }
+
+        if (kce.getCause() instanceof InterruptedException) {
+            return EphemeralContainerMetrics.Failure.INTERRUPTED;
+        }
+
+        return EphemeralContainerMetrics.Failure.API;
+    }
+
+    /**
+     * Check if the container terminated because the node failed to start it, as opposed to a problem with
+     * the container image or command.
+     * @param state container terminated state
+     * @return {@code true} if start failure
+     */
+    private static boolean isStartFailure(@NonNull ContainerStateTerminated state) {
+        return START_RETRY_REASONS.contains(state.getReason())
+                || Strings.CS.contains(state.getMessage(), "failed to create shim task: context");
+    }
+
+    /**
+     * Register the container being added to the Pod.
+     * @param containerName container name
+     * @return {@code false} if the step was already stopped and the container should not be added
+     */
+    private synchronized boolean setPendingContainer(@NonNull String containerName) {
+        if (stopped) {
+            return false;
+        }
+
+        pendingContainerName = containerName;
+        return true;
+    }
+
+    /**
+     * Hand the running container over from the start to the step body.
+     * @param decorator body exec decorator
+     * @return {@code false} if the step was already stopped
+     */
+    private synchronized boolean startBody(@NonNull ContainerExecDecorator decorator) {
+        if (stopped) {
+            return false;
+        }
+
+        bodyDecorator = decorator;
+        containerName = decorator.getContainerName();
+        pendingContainerName = null;
+        return true;
+    }
+
+    /**
+     * Release the running container of a step body that failed to start.
+     * @return {@code false} if the step was already stopped and the container is stopped by {@link #stop(Throwable)}
+     */
+    private synchronized boolean abandonContainer() {
+        if (stopped) {
+            return false;
+        }
+
+        bodyDecorator = null;
+        containerName = null;
+        pendingContainerName = null;
+        return true;
+    }
+
+    /**
+     * Name of the ephemeral container the step body runs in, or that is being started for it.
+     * @return container name or {@code null} if no container was added yet
+     */
+    @CheckForNull
+    synchronized String getContainerName() {
+        return containerName == null ? pendingContainerName : containerName;
+    }
+
+    /**
+     * Check if the step was stopped. A stopped step terminates its container.
+     * @return {@code true} if stopped
+     */
+    synchronized boolean isStopped() {
+        return stopped;
     }
 
     @Override
-    @SuppressFBWarnings(
-            value = "NP_NULL_ON_SOME_PATH",
-            justification = "decorator is null checked and context is marked non-null")
     public void stop(@NonNull Throwable cause) throws Exception {
         LOGGER.finest("Stopping ephemeral container step.");
+        String pending;
+        String running;
+        ContainerExecDecorator execDecorator;
+        synchronized (this) {
+            stopped = true;
+            pending = pendingContainerName;
+            pendingContainerName = null;
+            running = containerName;
+            execDecorator = bodyDecorator;
+        }
+
+        // interrupts the start if still in progress
         super.stop(cause);
-        if (decorator != null) {
+        if (running != null) {
             StepContext context = getContext();
-            closeQuietly(context, decorator);
-            terminateEphemeralContainer(context, decorator.getContainerName());
+            if (execDecorator != null) {
+                closeQuietly(context, execDecorator);
+            }
+
+            terminateEphemeralContainer(context, running);
+        } else if (pending != null) {
+            terminateWhenRunning(getContext(), pending);
         }
     }
 
+    /**
+     * Terminate a container that was added to the Pod by a step stopped while it was starting, as soon as
+     * the container is running. Gives up after the agent connect timeout in case the container was never
+     * added.
+     * @param context step context
+     * @param containerName container name
+     * @throws Exception if the agent Pod can not be resolved
+     */
+    private static void terminateWhenRunning(StepContext context, String containerName) throws Exception {
+        KubernetesNodeContext nodeContext = new KubernetesNodeContext(context);
+        KubernetesSlave slave = nodeContext.getKubernetesSlave();
+        PodResource podResource = nodeContext.getPodResource();
+        LOGGER.fine(() -> "Step stopped while starting, terminating ephemeral container " + containerName
+                + " on Pod " + slave.getPodName() + " once started");
+        CompletableFuture<Pod> started = EphemeralContainerStatusWatcher.get()
+                .watch(slave, podResource, pod -> pod == null
+                        || EphemeralContainerIndex.of(pod)
+                                .getStatus(containerName)
+                                .map(ContainerStatus::getState)
+                                .map(state -> state.getRunning() != null || state.getTerminated() != null)
+                                .orElse(false));
+        started.whenComplete((pod, t) -> {
+            if (pod != null) {
+                EphemeralContainerTerminator.get().terminate(slave, podResource, containerName);
+            } else {
+                // pod is gone or the container never started
+                EphemeralContainerLifecycleRegistry.get().removed(slave, containerName);
+            }
+        });
+        Timer.get()
+                .schedule(
+                        () -> started.cancel(false), slave.getTemplate().getSlaveConnectTimeout(), TimeUnit.SECONDS);
+    }
+
     /**
      * Print message to listener logger.
      * @param listener task listener or {@code null}
@@ -469,98 +725,279 @@ public class EphemeralContainerStepExecution extends GeneralNonBlockingStepExecu
         }
     }
 
-    private EphemeralContainer createEphemeralContainer(String containerName, KubernetesSlave slave)
+    private EphemeralContainer createEphemeralContainer(String containerName, Pod pod)
             throws IOException, InterruptedException {
-        Pod pod = slave.getPod().orElseThrow(() -> new AbortException("Kubernetes node Pod reference not found."));
-        EphemeralContainer ec = KubernetesClientModelFactory.createEphemeralContainer(containerName, step, pod);
+        // The step runs in the current container of the agent, i.e. the parent of a nested step.
+        EnvVars envVars = getContext().get(EnvVars.class);
+        String parentContainerName = envVars == null ? null : envVars.get("POD_CONTAINER");
+        EphemeralContainer ec =
+                KubernetesClientModelFactory.createEphemeralContainer(containerName, step, pod, parentContainerName);
 
-        // fill in run as user/group from the current agent if not explicitly set
+        // fill in run as user/group not set on the step or declared by the Pod spec from the current agent
         SecurityContext sc = ec.getSecurityContext();
-        if (sc == null || (sc.getRunAsUser() == null && sc.getRunAsGroup() == null)) {
+        boolean explicit = step.getRunAsUser() != null || step.getRunAsGroup() != null;
+        if (!explicit && (sc == null || sc.getRunAsUser() == null || sc.getRunAsGroup() == null)) {
             if (sc == null) {
                 sc = new SecurityContext();
                 ec.setSecurityContext(sc);
             }
 
-            setDefaultRunAsUser(sc);
+            long identityStart = System.nanoTime();
+            setDefaultRunAsUser(sc, parentContainerName);
+            timings.since(EphemeralContainerPhase.IDENTITY, identityStart);
         }
 
         return ec;
     }
 
-    private void setDefaultRunAsUser(SecurityContext sc) throws IOException, InterruptedException {
-        Launcher launcher = getContext().get(Launcher.class);
-        if (launcher != null && launcher.isUnix()) {
-            ByteArrayOutputStream userId = new ByteArrayOutputStream();
-            launcher.launch()
-                    .cmds("id", "-u")
-                    .quiet(true)
-                    .stdout(userId)
-                    .start()
-                    .joinWithTimeout(WHOAMI_TIMEOUT, TimeUnit.SECONDS, launcher.getListener());
-
-            ByteArrayOutputStream groupId = new ByteArrayOutputStream();
-            launcher.launch()
-                    .cmds("id", "-g")
-                    .quiet(true)
-                    .stdout(groupId)
-                    .start()
-                    .joinWithTimeout(WHOAMI_TIMEOUT, TimeUnit.SECONDS, launcher.getListener());
-
-            final Charset charset = Charset.defaultCharset();
-            sc.setRunAsUser(NumberUtils.createLong(userId.toString(charset).trim()));
-            sc.setRunAsGroup(NumberUtils.createLong(groupId.toString(charset).trim()));
+    private void setDefaultRunAsUser(SecurityContext sc, @CheckForNull String containerName)
+            throws IOException, InterruptedException {
+        StepContext context = getContext();
+        Computer c = context.get(Computer.class);
+        EphemeralContainerKubernetesComputer computer =
+                c instanceof EphemeralContainerKubernetesComputer kc ? kc : null;
+        RunAsIdentity identity = computer == null ? null : computer.getRunAsIdentity(containerName);
+        if (identity == null) {
+            identity = probeRunAsIdentity(context.get(Launcher.class));
+            if (identity != null && computer != null) {
+                computer.setRunAsIdentity(containerName, identity);
+            }
         }
+
+        if (identity != null) {
+            if (sc.getRunAsUser() == null) {
+                sc.setRunAsUser(identity.getUid());
+            }
+
+            if (sc.getRunAsGroup() == null) {
+                sc.setRunAsGroup(identity.getGid());
+            }
+        }
+    }
+
+    /**
+     * Detect the user and group ids of the launcher with a single {@code id} command.
+     * @param launcher agent launcher
+     * @return identity or {@code null} if not a unix agent or not detected
+     */
+    @CheckForNull
+    private static RunAsIdentity probeRunAsIdentity(@CheckForNull Launcher launcher)
+            throws IOException, InterruptedException {
+        if (launcher == null || !launcher.isUnix()) {
+            return null;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        launcher.launch()
+                .cmds("id")
+                .quiet(true)
+                .stdout(out)
+                .start()
+                .joinWithTimeout(WHOAMI_TIMEOUT, TimeUnit.SECONDS, launcher.getListener());
+        RunAsIdentity identity = RunAsIdentity.parse(out.toString(Charset.defaultCharset()));
+        if (identity == null) {
+            LOGGER.fine(() -> "Failed to parse user and group ids from: " + out);
+        }
+
+        return identity;
     }
 
     private static void terminateEphemeralContainer(StepContext context, String containerName) throws Exception {
-        LOGGER.fine(() -> "Removing ephemeral container: " + containerName);
         KubernetesNodeContext nodeContext = new KubernetesNodeContext(context);
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        PodResource resource = nodeContext.getPodResource();
-        try (ExecWatch ignored = resource.inContainer(containerName)
-                .redirectingInput()
-                .writingOutput(out)
-                .writingError(out)
-                .withTTY()
-                .exec(containerStopCommand(containerName))) {
-            resource.waitUntilCondition(
-                    new EphemeralContainerStatusCondition(containerName, false), 10, TimeUnit.SECONDS);
-            LOGGER.finest(() -> "Ephemeral Container stopped: " + nodeContext.getPodName() + "/" + containerName);
-        } catch (Exception ex) {
-            LOGGER.log(
-                    Level.WARNING,
-                    "Failed to terminate ephemeral container " + containerName + " on pod " + nodeContext.getPodName(),
-                    ex);
-        }
-
-        LOGGER.finest(() -> {
+        EphemeralContainerTerminator.get()
+                .terminate(nodeContext.getKubernetesSlave(), nodeContext.getPodResource(), containerName);
+    }
+
+    /**
+     * Remember the Kubernetes node the agent Pod was scheduled on, used to label metrics and circuit breakers.
+     * @param slave kubernetes agent
+     * @param pod agent Pod
+     */
+    private static void updateKubernetesNodeName(@NonNull KubernetesSlave slave, @NonNull Pod pod) {
+        if (slave.toComputer() instanceof EphemeralContainerKubernetesComputer computer) {
+            computer.setKubernetesNodeName(pod.getSpec() == null ? null : pod.getSpec().getNodeName());
+        }
+    }
+
+    /**
+     * Get the current agent Pod. Served from the cloud Pod cache if enabled.
+     * @param slave kubernetes agent
+     * @param resource agent Pod resource
+     * @return agent Pod or empty if not found
+     */
+    static Optional<Pod> getPod(@NonNull KubernetesSlave slave, @NonNull PodResource resource) {
+        return getPod(
+                EphemeralContainerPodCache.get().informer(slave).orElse(null), slave.getPodName(), resource::get);
+    }
+
+    /**
+     * Get the current agent Pod from the cache, or from the API server if not cached. The Pod may be missing
+     * from the cache while the informer is syncing or relisting, or if it does not match the cloud Pod labels.
+     * @param cache cloud Pod cache or {@code null} if not enabled
+     * @param podName agent Pod name
+     * @param lookup agent Pod lookup on the API server
+     * @return agent Pod or empty if not found
+     */
+    static Optional<Pod> getPod(
+            @CheckForNull EphemeralContainerPodCache.PodInformer cache,
+            @NonNull String podName,
+            @NonNull Supplier<Pod> lookup) {
+        Pod pod = cache == null ? null : cache.getPod(podName);
+        if (pod == null) {
+            if (cache != null) {
+                LOGGER.fine(() -> "Agent pod " + podName + " not found in pod cache, querying API server");
+            }
+
+            pod = lookup.get();
+        }
+
+        return Optional.ofNullable(pod);
+    }
+
+    /**
+     * Environment variables passed to the step body that do not depend on the ephemeral container.
+     */
+    private static class BuildEnvironment {
+
+        @CheckForNull
+        private final EnvVars globalVars;
+
+        @CheckForNull
+        private final EnvVars runVars;
+
+        @CheckForNull
+        private final String runId;
+
+        private BuildEnvironment(
+                @CheckForNull EnvVars globalVars, @CheckForNull EnvVars runVars, @CheckForNull String runId) {
+            this.globalVars = globalVars;
+            this.runVars = runVars;
+            this.runId = runVars == null ? null : runId;
+        }
+
+        /**
+         * Compute the environment in the background.
+         * @param context step context
+         * @return environment future
+         */
+        static CompletableFuture<BuildEnvironment> computeAsync(StepContext context) {
+            return EphemeralContainerRunEnvironmentCache.computeAsync(
+                    () -> compute(context), Computer.threadPoolForRemoting);
+        }
+
+        /**
+         * Wait for the environment computed in the background.
+         * @param environment environment future
+         * @return environment
+         * @throws Exception if the environment could not be computed or interrupted
+         */
+        static BuildEnvironment await(CompletableFuture<BuildEnvironment> environment) throws Exception {
             try {
-                ContainerStatus status = EphemeralPodContainerSource.getEphemeralContainerStatus(
-                                resource.get(), containerName)
-                        .orElse(null);
-                return "Ephemeral container status after step: " + nodeContext.getPodName() + "/" + containerName
-                        + " -> " + status;
-            } catch (KubernetesClientException ignored) {
-                return "Failed to get container status after step";
+                return environment.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception cause) {
+                    throw cause;
+                }
+
+                throw e;
             }
-        });
+        }
+
+        private static BuildEnvironment compute(StepContext context) throws IOException, InterruptedException {
+            EnvVars globalVars = EphemeralContainerRunEnvironmentCache.getGlobalVars();
+            EnvVars rcEnvVars = null;
+            Run<?, ?> run = context.get(Run.class);
+            TaskListener listener = context.get(TaskListener.class);
+            if (run != null && listener != null) {
+                rcEnvVars = EphemeralContainerRunEnvironmentCache.get().getEnvironment(run, listener);
+            }
+
+            return new BuildEnvironment(globalVars, rcEnvVars, run == null ? null : run.getExternalizableId());
+        }
     }
 
-    private static class TerminateEphemeralContainerExecCallback extends BodyExecutionCallback.TailCall {
+    /**
+     * Returns the container to the reuse pool or terminates it when the step body completes. Only the
+     * container of a body that completed successfully is reused, the container of a stopped step is
+     * terminated by {@link #stop(Throwable)}.
+     */
+    private static class TerminateEphemeralContainerExecCallback extends BodyExecutionCallback {
 
         @Serial
         private static final long serialVersionUID = 6385838254761750483L;
 
+        @CheckForNull
+        private final EphemeralContainerStepExecution execution;
+
         private final String containerName;
 
-        private TerminateEphemeralContainerExecCallback(String containerName) {
+        @CheckForNull
+        private final String reuseKey;
+
+        /** {@code null} if restored from a callback persisted by a previous version. */
+        @CheckForNull
+        private final EphemeralContainerStepTimings timings;
+
+        @CheckForNull
+        private final String image;
+
+        private TerminateEphemeralContainerExecCallback(
+                @NonNull EphemeralContainerStepExecution execution,
+                String containerName,
+                @CheckForNull String reuseKey,
+                EphemeralContainerStepTimings timings,
+                @CheckForNull String image) {
+            this.execution = execution;
             this.containerName = containerName;
+            this.reuseKey = reuseKey;
+            this.timings = timings;
+            this.image = image;
         }
 
         @Override
-        public void finished(StepContext context) throws Exception {
-            terminateEphemeralContainer(context, containerName);
+        public void onSuccess(StepContext context, Object result) {
+            try {
+                finished(context, true);
+            } catch (Exception x) {
+                context.onFailure(x);
+                return;
+            }
+
+            context.onSuccess(result);
+        }
+
+        @Override
+        public void onFailure(StepContext context, Throwable t) {
+            try {
+                finished(context, false);
+            } catch (Exception x) {
+                t.addSuppressed(x);
+            }
+
+            context.onFailure(t);
+        }
+
+        private void finished(StepContext context, boolean succeeded) throws Exception {
+            try {
+                if (execution != null && execution.isStopped()) {
+                    // already terminated by stop
+                    return;
+                }
+
+                if (reuseKey != null && succeeded) {
+                    // keep the container running for the next matching step if the pool has room
+                    KubernetesSlave slave = new KubernetesNodeContext(context).getKubernetesSlave();
+                    if (EphemeralContainerReusePool.get().release(slave, containerName, reuseKey)) {
+                        return;
+                    }
+                }
+
+                terminateEphemeralContainer(context, containerName);
+            } finally {
+                if (timings != null) {
+                    timings.record(context, containerName, image);
+                }
+            }
         }
     }
 
@@ -584,16 +1021,17 @@ public class EphemeralContainerStepExecution extends GeneralNonBlockingStepExecu
                 return !running;
             }
 
-            return pod.getStatus().getEphemeralContainerStatuses().stream()
-                    .filter(status -> Strings.CS.equals(status.getName(), containerName))
-                    .anyMatch(status -> {
+            return EphemeralContainerIndex.of(pod)
+                    .getStatus(containerName)
+                    .map(status -> {
                         onStatus(status);
                         if (running) {
                             return status.getState().getRunning() != null;
                         } else {
                             return status.getState().getTerminated() != null;
                         }
-                    });
+                    })
+                    .orElse(false);
         }
 
         protected void onStatus(ContainerStatus status) {}
@@ -609,11 +1047,20 @@ public class EphemeralContainerStepExecution extends GeneralNonBlockingStepExecu
         private static final Set<String> IGNORE_REASONS =
                 Set.of(KUBE_REASON_CONTAINER_CREATING, KUBE_REASON_POD_INITIALIZING);
 
+        /** Waiting reasons reported while the image is pulled. */
+        private static final Set<String> PULL_REASONS =
+                Set.of(KUBE_REASON_CONTAINER_CREATING, KUBE_REASON_ERR_IMAGE_PULL, KUBE_REASON_IMAGE_PULL_BACK_OFF);
+
         @CheckForNull
         private final TaskListener taskListener;
 
         private final String containerUrl;
 
+        /** Time the container entered an image pull waiting state, {@code -1} if not waiting on the image. */
+        private long pullStartNanos = -1;
+
+        private long pullNanos;
+
         EphemeralContainerRunningCondition(
                 String containerName, String containerUrl, @CheckForNull TaskListener listener) {
             super(containerName, true);
@@ -621,8 +1068,34 @@ public class EphemeralContainerStepExecution extends GeneralNonBlockingStepExecu
             this.taskListener = listener;
         }
 
+        /**
+         * Time spent waiting on the image, the kubelet reports image pulls as container creation.
+         * @return duration in milliseconds
+         */
+        synchronized long getPullMillis() {
+            long nanos = pullNanos;
+            if (pullStartNanos >= 0) {
+                nanos += System.nanoTime() - pullStartNanos;
+            }
+
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        private synchronized void trackPull(ContainerStatus status) {
+            ContainerStateWaiting waiting = status.getState().getWaiting();
+            boolean pulling = waiting != null && PULL_REASONS.contains(waiting.getReason());
+            if (pulling && pullStartNanos < 0) {
+                pullStartNanos = System.nanoTime();
+            } else if (!pulling && pullStartNanos >= 0) {
+                pullNanos += System.nanoTime() - pullStartNanos;
+                pullStartNanos = -1;
+            }
+        }
+
         @Override
         protected void onStatus(ContainerStatus status) {
+            trackPull(status);
+
             // Stop waiting if the container already terminated
             ContainerStateTerminated terminated = status.getState().getTerminated();
             if (terminated != null) {
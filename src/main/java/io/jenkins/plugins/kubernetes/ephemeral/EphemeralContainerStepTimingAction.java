@@ -0,0 +1,92 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import org.jenkinsci.plugins.workflow.actions.PersistentAction;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Phase timings of an ephemeral container step, attached to the step flow node.
+ * @see EphemeralContainerStepTimings
+ */
+@Restricted(NoExternalUse.class)
+public class EphemeralContainerStepTimingAction implements PersistentAction {
+
+    private final String containerName;
+
+    @CheckForNull
+    private final String image;
+
+    private final EnumMap<EphemeralContainerPhase, Long> durations;
+
+    EphemeralContainerStepTimingAction(
+            @NonNull String containerName,
+            @CheckForNull String image,
+            @NonNull Map<EphemeralContainerPhase, Long> durations) {
+        this.containerName = containerName;
+        this.image = image;
+        this.durations = new EnumMap<>(EphemeralContainerPhase.class);
+        this.durations.putAll(durations);
+    }
+
+    @NonNull
+    public String getContainerName() {
+        return containerName;
+    }
+
+    @CheckForNull
+    public String getImage() {
+        return image;
+    }
+
+    /**
+     * Time spent in each phase.
+     * @return durations in milliseconds by phase
+     */
+    @NonNull
+    public Map<EphemeralContainerPhase, Long> getDurations() {
+        return Collections.unmodifiableMap(durations);
+    }
+
+    /**
+     * Time spent in a phase.
+     * @param phase phase
+     * @return duration in milliseconds
+     */
+    public long getDuration(@NonNull EphemeralContainerPhase phase) {
+        return durations.getOrDefault(phase, 0L);
+    }
+
+    /**
+     * Time spent in all phases.
+     * @return duration in milliseconds
+     */
+    public long getTotal() {
+        return durations.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    @Override
+    public String getIconFileName() {
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Ephemeral container timings";
+    }
+
+    @Override
+    public String getUrlName() {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return containerName + " " + durations + " (total " + Util.getTimeSpanString(getTotal()) + ")";
+    }
+}
@@ -0,0 +1,126 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import com.codahale.metrics.MetricRegistry;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Run;
+import java.io.IOException;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.metrics.api.Metrics;
+import org.jenkinsci.plugins.workflow.actions.LabelAction;
+import org.jenkinsci.plugins.workflow.actions.ThreadNameAction;
+import org.jenkinsci.plugins.workflow.graph.BlockStartNode;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Time spent by an ephemeral container step in each {@link EphemeralContainerPhase}. Phases repeated by start
+ * retries are summed. When the step ends, the timings are recorded in the phase histograms, attached to the step
+ * {@link FlowNode} and aggregated into the build {@link EphemeralContainerRunTimingAction}.
+ */
+@Restricted(NoExternalUse.class)
+class EphemeralContainerStepTimings implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = Logger.getLogger(EphemeralContainerStepTimings.class.getName());
+
+    private final EnumMap<EphemeralContainerPhase, Long> durations = new EnumMap<>(EphemeralContainerPhase.class);
+
+    /**
+     * Add time spent in a phase.
+     * @param phase phase
+     * @param millis duration in milliseconds
+     */
+    synchronized void add(@NonNull EphemeralContainerPhase phase, long millis) {
+        durations.merge(phase, Math.max(0, millis), Long::sum);
+    }
+
+    /**
+     * Add time spent in a phase since a start time.
+     * @param phase phase
+     * @param startNanos phase start {@link System#nanoTime()}
+     */
+    void since(@NonNull EphemeralContainerPhase phase, long startNanos) {
+        add(phase, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * Get the time spent in each phase.
+     * @return durations in milliseconds by phase
+     */
+    @NonNull
+    synchronized Map<EphemeralContainerPhase, Long> getDurations() {
+        return new EnumMap<>(durations);
+    }
+
+    /**
+     * Record the step timings. Failures are logged, recording timings never fails the step.
+     * @param context step context
+     * @param containerName container name
+     * @param image container image
+     */
+    void record(@NonNull StepContext context, @NonNull String containerName, @CheckForNull String image) {
+        Map<EphemeralContainerPhase, Long> snapshot = getDurations();
+        MetricRegistry metrics = Metrics.metricRegistry();
+        snapshot.forEach((phase, millis) ->
+                metrics.histogram(MetricNames.phaseDuration(phase)).update(millis));
+
+        try {
+            EphemeralContainerStepTimingAction action =
+                    new EphemeralContainerStepTimingAction(containerName, image, snapshot);
+            FlowNode node = context.get(FlowNode.class);
+            if (node != null) {
+                node.addAction(action);
+            }
+
+            Run<?, ?> run = context.get(Run.class);
+            if (run != null) {
+                EphemeralContainerRunTimingAction.of(run)
+                        .add(node == null ? null : node.getId(), getStageName(node), action);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to record timings of ephemeral container " + containerName, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get the name of the stage enclosing a step.
+     * @param node step node
+     * @return stage name or {@code null} if the step is not in a stage
+     */
+    @CheckForNull
+    static String getStageName(@CheckForNull FlowNode node) {
+        if (node == null) {
+            return null;
+        }
+
+        for (BlockStartNode block : node.getEnclosingBlocks()) {
+            // parallel branches are labeled too
+            if (block.getAction(ThreadNameAction.class) == null) {
+                LabelAction label = block.getAction(LabelAction.class);
+                if (label != null) {
+                    return label.getDisplayName();
+                }
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return durations.toString();
+    }
+}
@@ -0,0 +1,362 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import static io.jenkins.plugins.kubernetes.ephemeral.EphemeralContainerMonitor.containerStopCommand;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import io.fabric8.kubernetes.api.model.ContainerStatus;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.dsl.ExecWatch;
+import io.fabric8.kubernetes.client.dsl.PodResource;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.Timer;
+import org.csanchez.jenkins.plugins.kubernetes.KubernetesSlave;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Terminates ephemeral containers in the background so the step completion path does not wait for the
+ * container to shut down.
+ * <p>
+ * Containers requested to terminate on the same Pod within a short window are signaled together. Containers
+ * sharing a monitor directory with the agent are signaled with a single agent call, the others with an exec of
+ * the stop command. Termination is confirmed later with a status check of the Pod, a container that is still
+ * running at that point gets the stop command executed again and is checked again, up to a max number of
+ * attempts. A container still running after the last attempt is left to the {@link EphemeralContainerReconciler}.
+ */
+@Restricted(NoExternalUse.class)
+class EphemeralContainerTerminator {
+
+    private static final Logger LOGGER = Logger.getLogger(EphemeralContainerTerminator.class.getName());
+
+    /** Max number of threads terminating containers. */
+    private static final int THREADS =
+            Integer.getInteger(EphemeralContainerTerminator.class.getName() + ".threads", 4);
+    /** Time in milliseconds to collect containers to terminate on the same Pod before signaling them. */
+    private static final long BATCH_WINDOW_MILLIS =
+            Long.getLong(EphemeralContainerTerminator.class.getName() + ".batchWindowMillis", 50);
+    /** Time in seconds after signaling before checking the containers terminated. */
+    private static final long CONFIRM_DELAY_SECS =
+            Long.getLong(EphemeralContainerTerminator.class.getName() + ".confirmDelaySecs", 10);
+    /** Max number of termination checks, the stop command is executed again after each failed check. */
+    private static final int CONFIRM_ATTEMPTS =
+            Integer.getInteger(EphemeralContainerTerminator.class.getName() + ".confirmAttempts", 3);
+    /** Max time in seconds to wait for a stop command exec to complete. */
+    private static final long EXEC_TIMEOUT_SECS = 10;
+
+    private static final EphemeralContainerTerminator INSTANCE = new EphemeralContainerTerminator();
+
+    private final Executor executor;
+    private final long batchWindowMillis;
+    private final ConcurrentMap<String, Batch> pending = new ConcurrentHashMap<>();
+
+    private EphemeralContainerTerminator() {
+        this(newExecutor(), BATCH_WINDOW_MILLIS);
+    }
+
+    EphemeralContainerTerminator(@NonNull Executor executor, long batchWindowMillis) {
+        this.executor = executor;
+        this.batchWindowMillis = batchWindowMillis;
+    }
+
+    private static Executor newExecutor() {
+        int threads = Math.max(1, THREADS);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads,
+                threads,
+                60,
+                TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), EphemeralContainerTerminator.class.getSimpleName()));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Get the terminator instance.
+     * @return terminator, never {@code null}
+     */
+    @NonNull
+    static EphemeralContainerTerminator get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Request an ephemeral container to be terminated. Returns immediately, the container is signaled to
+     * exit in the background.
+     * @param slave kubernetes agent
+     * @param resource agent Pod resource
+     * @param containerName ephemeral container name
+     */
+    void terminate(@NonNull KubernetesSlave slave, @NonNull PodResource resource, @NonNull String containerName) {
+        LOGGER.fine(() -> "Removing ephemeral container: " + containerName);
+        // never reuse a container requested to terminate
+        EphemeralContainerReusePool.get().discard(slave, containerName);
+        EphemeralContainerLifecycleRegistry.get().terminating(slave, containerName);
+        add(podKey(slave), containerName, containers -> stop(slave, resource, containers));
+    }
+
+    /**
+     * Add a container to the batch of the Pod. The first container of a batch schedules the batch to stop
+     * after the batch window, containers added until then are stopped with it.
+     * @param key Pod key
+     * @param containerName ephemeral container name
+     * @param stop stops the batch containers, only the callback of the first container is used
+     */
+    void add(@NonNull String key, @NonNull String containerName, @NonNull Consumer<List<String>> stop) {
+        boolean[] created = new boolean[1];
+        pending.compute(key, (k, b) -> {
+            Batch batch = b == null ? new Batch(stop) : b;
+            created[0] = b == null;
+            batch.containers.add(containerName);
+            return batch;
+        });
+
+        if (created[0]) {
+            if (batchWindowMillis > 0) {
+                Timer.get().schedule(() -> submit(() -> flush(key)), batchWindowMillis, TimeUnit.MILLISECONDS);
+            } else {
+                submit(() -> flush(key));
+            }
+        }
+    }
+
+    private void submit(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.WARNING, "Failed to schedule ephemeral container termination", e);
+        }
+    }
+
+    private void flush(String key) {
+        Batch batch = pending.remove(key);
+        if (batch != null) {
+            batch.stop.accept(new ArrayList<>(batch.containers));
+        }
+    }
+
+    /**
+     * Signal all containers of the Pod batch to exit and schedule the status check.
+     */
+    private void stop(KubernetesSlave slave, PodResource resource, List<String> containers) {
+        Map<String, String> monitorDirs = new LinkedHashMap<>();
+        try {
+            Optional<Pod> pod = EphemeralContainerStepExecution.getPod(slave, resource);
+            for (String containerName : containers) {
+                monitorDirs.put(
+                        containerName,
+                        pod.flatMap(p -> EphemeralContainerIndex.of(p).getContainer(containerName))
+                                .map(EphemeralContainerMonitor::getMonitorDir)
+                                .orElse(null));
+            }
+        } catch (KubernetesClientException e) {
+            LOGGER.log(Level.FINE, "Failed to get pod " + slave.getPodName() + ", executing stop commands", e);
+        }
+
+        // group containers sharing a monitor directory with the agent into a single signal
+        Map<String, List<String>> byDir = new LinkedHashMap<>();
+        List<String> exec = new ArrayList<>();
+        for (String containerName : containers) {
+            String monitorDir = monitorDirs.get(containerName);
+            if (monitorDir == null) {
+                exec.add(containerName);
+            } else {
+                byDir.computeIfAbsent(monitorDir, d -> new ArrayList<>()).add(containerName);
+            }
+        }
+
+        List<String> signaled = new ArrayList<>();
+        for (Map.Entry<String, List<String>> e : byDir.entrySet()) {
+            if (signalStop(slave, e.getKey(), e.getValue())) {
+                signaled.addAll(e.getValue());
+            } else {
+                exec.addAll(e.getValue());
+            }
+        }
+
+        for (String containerName : exec) {
+            execStop(resource, slave, containerName, monitorDirs.get(containerName));
+        }
+
+        scheduleConfirm(slave, resource, containers, signaled, monitorDirs, 1);
+    }
+
+    private void scheduleConfirm(
+            KubernetesSlave slave,
+            PodResource resource,
+            List<String> containers,
+            List<String> signaled,
+            Map<String, String> monitorDirs,
+            int attempt) {
+        Timer.get()
+                .schedule(
+                        () -> submit(() -> confirm(slave, resource, containers, signaled, monitorDirs, attempt)),
+                        CONFIRM_DELAY_SECS,
+                        TimeUnit.SECONDS);
+    }
+
+    /**
+     * Check the signaled containers terminated, executing the stop command again for containers still running
+     * until the max number of attempts is reached.
+     */
+    private void confirm(
+            KubernetesSlave slave,
+            PodResource resource,
+            List<String> containers,
+            List<String> signaled,
+            Map<String, String> monitorDirs,
+            int attempt) {
+        Pod pod;
+        try {
+            pod = EphemeralContainerStepExecution.getPod(slave, resource).orElse(null);
+        } catch (KubernetesClientException e) {
+            LOGGER.log(Level.FINE, "Failed to confirm ephemeral containers terminated on pod " + slave.getPodName(), e);
+            return;
+        }
+
+        EphemeralContainerLifecycleRegistry registry = EphemeralContainerLifecycleRegistry.get();
+        if (pod == null) {
+            // pod is gone and the containers with it
+            registry.sync(slave, null);
+            return;
+        }
+
+        List<String> running = stillRunning(pod, containers);
+        for (String containerName : containers) {
+            if (!running.contains(containerName)) {
+                LOGGER.finest(() -> "Ephemeral container terminated: " + slave.getPodName() + "/" + containerName);
+                registry.removed(slave, containerName);
+            }
+        }
+
+        if (running.isEmpty()) {
+            return;
+        }
+
+        if (attempt >= CONFIRM_ATTEMPTS) {
+            for (String containerName : running) {
+                // no step owns the container anymore, the reconciler terminates it again on its next run
+                LOGGER.warning(() -> "Ephemeral container " + containerName + " on pod " + slave.getPodName()
+                        + " still running after " + attempt + " termination checks, leaving it to the reconciler");
+                registry.removed(slave, containerName);
+            }
+
+            return;
+        }
+
+        for (String containerName : running) {
+            LOGGER.fine(() -> "Ephemeral container " + containerName + " on pod " + slave.getPodName()
+                    + " still running after " + (signaled.contains(containerName) ? "signal" : "stop command")
+                    + ", executing stop command");
+            execStop(resource, slave, containerName, monitorDirs.get(containerName));
+        }
+
+        scheduleConfirm(slave, resource, running, List.of(), monitorDirs, attempt + 1);
+    }
+
+    /**
+     * Get the containers still running on the Pod. A container without a status or state is considered
+     * terminated.
+     * @param pod agent Pod, {@code null} if the Pod is gone
+     * @param containers ephemeral container names
+     * @return names of the containers still running, never {@code null}
+     */
+    @NonNull
+    static List<String> stillRunning(@CheckForNull Pod pod, @NonNull List<String> containers) {
+        if (pod == null) {
+            return List.of();
+        }
+
+        EphemeralContainerIndex index = EphemeralContainerIndex.of(pod);
+        List<String> running = new ArrayList<>();
+        for (String containerName : containers) {
+            ContainerStatus status = index.getStatus(containerName).orElse(null);
+            if (status != null && status.getState() != null && status.getState().getTerminated() == null) {
+                running.add(containerName);
+            }
+        }
+
+        return running;
+    }
+
+    private static boolean signalStop(KubernetesSlave slave, String monitorDir, List<String> containers) {
+        VirtualChannel channel = slave.getChannel();
+        if (channel == null) {
+            return false;
+        }
+
+        try {
+            EphemeralContainerMonitor.signalStop(channel, monitorDir, containers);
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(
+                    Level.FINE,
+                    "Failed to signal ephemeral containers " + containers + " from agent, executing stop command",
+                    e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void execStop(
+            PodResource resource, KubernetesSlave slave, String containerName, @CheckForNull String monitorDir) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ExecWatch watch = resource.inContainer(containerName)
+                .redirectingInput()
+                .writingOutput(out)
+                .writingError(out)
+                .exec(containerStopCommand(containerName, monitorDir))) {
+            watch.exitCode().get(EXEC_TIMEOUT_SECS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (KubernetesClientException | ExecutionException | TimeoutException e) {
+            LOGGER.log(
+                    Level.WARNING,
+                    "Failed to terminate ephemeral container " + containerName + " on pod " + slave.getPodName(),
+                    e);
+        }
+    }
+
+    private static String podKey(KubernetesSlave slave) {
+        return slave.getCloudName() + "/" + slave.getNamespace() + "/" + slave.getPodName();
+    }
+
+    /**
+     * Containers to terminate on the same Pod.
+     */
+    private static class Batch {
+        private final Consumer<List<String>> stop;
+        private final Set<String> containers = new LinkedHashSet<>();
+
+        Batch(Consumer<List<String>> stop) {
+            this.stop = stop;
+        }
+    }
+}
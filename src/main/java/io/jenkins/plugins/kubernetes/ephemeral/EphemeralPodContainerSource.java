@@ -5,10 +5,7 @@ import hudson.Extension;
 import io.fabric8.kubernetes.api.model.ContainerStatus;
 import io.fabric8.kubernetes.api.model.EphemeralContainer;
 import io.fabric8.kubernetes.api.model.Pod;
-import io.fabric8.kubernetes.api.model.PodStatus;
-import java.util.List;
 import java.util.Optional;
-import org.apache.commons.lang3.Strings;
 import org.csanchez.jenkins.plugins.kubernetes.PodContainerSource;
 
 /**
@@ -34,15 +31,7 @@ public class EphemeralPodContainerSource extends PodContainerSource {
      * @return optional container working dir if found
      */
     public static Optional<String> getEphemeralContainerWorkingDir(@NonNull Pod pod, @NonNull String containerName) {
-        List<EphemeralContainer> ephemeralContainers = pod.getSpec().getEphemeralContainers();
-        if (ephemeralContainers == null) {
-            return Optional.empty();
-        }
-
-        return ephemeralContainers.stream()
-                .filter(c -> Strings.CS.equals(c.getName(), containerName))
-                .findAny()
-                .map(EphemeralContainer::getWorkingDir);
+        return EphemeralContainerIndex.of(pod).getContainer(containerName).map(EphemeralContainer::getWorkingDir);
     }
 
     /**
@@ -53,13 +42,6 @@ public class EphemeralPodContainerSource extends PodContainerSource {
      */
     public static Optional<ContainerStatus> getEphemeralContainerStatus(
             @NonNull Pod pod, @NonNull String containerName) {
-        PodStatus podStatus = pod.getStatus();
-        if (podStatus == null) {
-            return Optional.empty();
-        }
-
-        return podStatus.getEphemeralContainerStatuses().stream()
-                .filter(cs -> Strings.CS.equals(cs.getName(), containerName))
-                .findFirst();
+        return EphemeralContainerIndex.of(pod).getStatus(containerName);
     }
 }
@@ -2,14 +2,23 @@ package io.jenkins.plugins.kubernetes.ephemeral;
 
 import static io.jenkins.plugins.kubernetes.ephemeral.EphemeralContainerMonitor.containerWaitCommand;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import io.fabric8.kubernetes.api.model.Container;
 import io.fabric8.kubernetes.api.model.EnvVar;
 import io.fabric8.kubernetes.api.model.EphemeralContainer;
 import io.fabric8.kubernetes.api.model.EphemeralContainerBuilder;
 import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodSecurityContext;
+import io.fabric8.kubernetes.api.model.PodSpec;
+import io.fabric8.kubernetes.api.model.SecurityContext;
+import io.fabric8.kubernetes.api.model.SecurityContextBuilder;
 import io.fabric8.kubernetes.api.model.VolumeMount;
 import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Stream;
 import org.csanchez.jenkins.plugins.kubernetes.KubernetesCloud;
 import org.csanchez.jenkins.plugins.kubernetes.model.TemplateEnvVar;
 
@@ -27,9 +36,26 @@ class KubernetesClientModelFactory {
      * @return ephemeral container instance, never {@code null}
      */
     @NonNull
-    @SuppressFBWarnings(value = "BC_UNCONFIRMED_CAST_OF_RETURN_VALUE", justification = "not applicable")
     static EphemeralContainer createEphemeralContainer(
             @NonNull String containerName, @NonNull EphemeralContainerStep step, @NonNull Pod pod) {
+        return createEphemeralContainer(containerName, step, pod, null);
+    }
+
+    /**
+     * Create an {@link EphemeralContainer} model instance for the target {@link Pod}.
+     * @param containerName container name, must be unique within the pod
+     * @param step ephemeral container step
+     * @param pod target pod resource
+     * @param parentContainerName container the step runs in, {@code null} for the agent container
+     * @return ephemeral container instance, never {@code null}
+     */
+    @NonNull
+    @SuppressFBWarnings(value = "BC_UNCONFIRMED_CAST_OF_RETURN_VALUE", justification = "not applicable")
+    static EphemeralContainer createEphemeralContainer(
+            @NonNull String containerName,
+            @NonNull EphemeralContainerStep step,
+            @NonNull Pod pod,
+            @CheckForNull String parentContainerName) {
         List<EnvVar> envVars =
                 step.getEnvVars().stream().map(TemplateEnvVar::buildEnvVar).toList();
 
@@ -42,24 +68,26 @@ class KubernetesClientModelFactory {
                 .withImagePullPolicy(step.isAlwaysPullImage() ? "Always" : "IfNotPresent")
                 .withEnv(envVars);
 
-        pod.getSpec().getContainers().stream()
+        Optional<Container> jnlp = pod.getSpec().getContainers().stream()
                 .filter(c -> KubernetesCloud.JNLP_NAME.equals(c.getName()))
-                .findFirst()
-                .ifPresent(container -> containerBuilder
-                        .withVolumeMounts(container.getVolumeMounts().toArray(new VolumeMount[0]))
-                        .withWorkingDir(container.getWorkingDir()));
+                .findFirst();
+        jnlp.ifPresent(container -> containerBuilder
+                .withVolumeMounts(container.getVolumeMounts().toArray(new VolumeMount[0]))
+                .withWorkingDir(container.getWorkingDir()));
 
-        if (step.getRunAsUser() != null || step.getRunAsGroup() != null) {
-            containerBuilder
-                    .withNewSecurityContext()
-                    .withRunAsUser(step.getRunAsUserLong())
-                    .withRunAsGroup(step.getRunAsGroupLong())
-                    .endSecurityContext();
+        SecurityContext sc = createSecurityContext(step, pod, parentContainerName);
+        if (sc != null) {
+            containerBuilder.withSecurityContext(sc);
         }
 
         // Windows containers not yet supported, sorry
         // Our file monitor script that will exit the container when the step ends to return resources to the Pod.
-        String[] monitorCmd = containerWaitCommand(containerName);
+        // Monitor files are placed in the working directory when it is shared with the agent container, so the
+        // agent can signal the container without an exec.
+        String monitorDir = jnlp.map(
+                        c -> EphemeralContainerMonitor.getMonitorDir(c.getWorkingDir(), c.getVolumeMounts()))
+                .orElse(null);
+        String[] monitorCmd = containerWaitCommand(containerName, monitorDir);
         List<String> stepCmd = step.getCommand();
         if (stepCmd == null) {
             // Use default container entrypoint. It is assumed to be able to handle taking an executable as the first
@@ -79,4 +107,58 @@ class KubernetesClientModelFactory {
 
         return containerBuilder.build();
     }
+
+    /**
+     * Create the container security context. User and group set on the step take precedence, otherwise
+     * the user and group are inherited from the parent container security context, then from the Pod
+     * security context.
+     * @param step ephemeral container step
+     * @param pod target pod resource
+     * @param parentContainerName container the step runs in, {@code null} for the agent container
+     * @return security context or {@code null} if neither user or group is known
+     */
+    @CheckForNull
+    static SecurityContext createSecurityContext(
+            @NonNull EphemeralContainerStep step, @NonNull Pod pod, @CheckForNull String parentContainerName) {
+        if (step.getRunAsUser() != null || step.getRunAsGroup() != null) {
+            return new SecurityContextBuilder()
+                    .withRunAsUser(step.getRunAsUserLong())
+                    .withRunAsGroup(step.getRunAsGroupLong())
+                    .build();
+        }
+
+        PodSpec spec = pod.getSpec();
+        String parent = parentContainerName == null ? KubernetesCloud.JNLP_NAME : parentContainerName;
+        SecurityContext containerSc = Stream.concat(
+                        Stream.ofNullable(spec.getContainers())
+                                .flatMap(List::stream)
+                                .filter(c -> parent.equals(c.getName()))
+                                .map(Container::getSecurityContext),
+                        Stream.ofNullable(spec.getEphemeralContainers())
+                                .flatMap(List::stream)
+                                .filter(c -> parent.equals(c.getName()))
+                                .map(EphemeralContainer::getSecurityContext))
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElse(null);
+        PodSecurityContext podSc = spec.getSecurityContext();
+        Long user = containerSc == null ? null : containerSc.getRunAsUser();
+        Long group = containerSc == null ? null : containerSc.getRunAsGroup();
+        if (user == null && podSc != null) {
+            user = podSc.getRunAsUser();
+        }
+
+        if (group == null && podSc != null) {
+            group = podSc.getRunAsGroup();
+        }
+
+        if (user == null && group == null) {
+            return null;
+        }
+
+        return new SecurityContextBuilder()
+                .withRunAsUser(user)
+                .withRunAsGroup(group)
+                .build();
+    }
 }
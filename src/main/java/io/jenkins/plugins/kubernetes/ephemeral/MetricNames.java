@@ -1,5 +1,7 @@
 package io.jenkins.plugins.kubernetes.ephemeral;
 
+import java.util.Locale;
+
 class MetricNames {
 
     private static final String PREFIX = "kubernetes.cloud.containers.ephemeral";
@@ -8,4 +10,53 @@ class MetricNames {
     public static final String EPHEMERAL_CONTAINERS_CREATION_RETRIED = PREFIX + ".creation.retried";
     public static final String EPHEMERAL_CONTAINERS_CREATION_DURATION = PREFIX + ".creation.duration";
     public static final String EPHEMERAL_CONTAINERS_CREATION_WAIT_DURATION = PREFIX + ".creation.wait.duration";
+    public static final String EPHEMERAL_CONTAINERS_START_QUEUE_DEPTH = PREFIX + ".start.queue.depth";
+    public static final String EPHEMERAL_CONTAINERS_START_QUEUE_WAIT_DURATION = PREFIX + ".start.queue.wait.duration";
+    public static final String EPHEMERAL_CONTAINERS_ADMISSION_WAIT_DURATION = PREFIX + ".admission.wait.duration";
+    public static final String EPHEMERAL_CONTAINERS_RETRY_BUDGET_CONSUMED = PREFIX + ".retry.budget.consumed";
+    public static final String EPHEMERAL_CONTAINERS_RETRY_BUDGET_EXHAUSTED = PREFIX + ".retry.budget.exhausted";
+    public static final String EPHEMERAL_CONTAINERS_RETRY_BUDGET_AVAILABLE = PREFIX + ".retry.budget.available";
+    public static final String EPHEMERAL_CONTAINERS_CIRCUIT_OPEN = PREFIX + ".circuit.open";
+    public static final String EPHEMERAL_CONTAINERS_CIRCUIT_HALF_OPEN = PREFIX + ".circuit.half_open";
+    public static final String EPHEMERAL_CONTAINERS_CIRCUIT_REJECTED = PREFIX + ".circuit.rejected";
+    public static final String EPHEMERAL_CONTAINERS_REUSED = PREFIX + ".reused";
+    public static final String EPHEMERAL_CONTAINERS_REUSE_EXPIRED = PREFIX + ".reuse.expired";
+    public static final String EPHEMERAL_CONTAINERS_ORPHANS_RECLAIMED = PREFIX + ".orphans.reclaimed";
+    public static final String EPHEMERAL_CONTAINERS_PATCH_LOST_RESPONSE = PREFIX + ".patch.lost_response";
+    public static final String EPHEMERAL_CONTAINERS_PHASE_DURATION = PREFIX + ".phase.duration";
+    public static final String EPHEMERAL_CONTAINERS_STATE = PREFIX + ".state";
+    public static final String EPHEMERAL_CONTAINERS_POD_ADDED = PREFIX + ".pod.added";
+    public static final String EPHEMERAL_CONTAINERS_POD_ADDED_MAX = EPHEMERAL_CONTAINERS_POD_ADDED + ".max";
+
+    static String admissionTenantWaitDuration(String tenant) {
+        return EPHEMERAL_CONTAINERS_ADMISSION_WAIT_DURATION + ".tenant." + sanitize(tenant);
+    }
+
+    static String retryBudgetAvailable(String cloudName) {
+        return EPHEMERAL_CONTAINERS_RETRY_BUDGET_AVAILABLE + ".cloud." + sanitize(cloudName);
+    }
+
+    /**
+     * Name of a metric counted by a dimension value.
+     * @param metric metric name
+     * @param dimension dimension name
+     * @param value sanitized dimension value
+     * @return dimension metric name
+     */
+    static String dimension(String metric, String dimension, String value) {
+        return metric + "." + dimension + "." + value;
+    }
+
+    static String phaseDuration(EphemeralContainerPhase phase) {
+        return EPHEMERAL_CONTAINERS_PHASE_DURATION + "." + phase.name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Make a name safe to use as a metric name segment.
+     * @param name name
+     * @return name with unsupported characters replaced
+     */
+    static String sanitize(String name) {
+        return name.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
 }
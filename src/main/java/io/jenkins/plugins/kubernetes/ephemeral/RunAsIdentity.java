@@ -0,0 +1,62 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * User and group id a container runs as.
+ */
+@Restricted(NoExternalUse.class)
+final class RunAsIdentity {
+
+    private static final Pattern UID = Pattern.compile("\\buid=(\\d+)");
+    private static final Pattern GID = Pattern.compile("\\bgid=(\\d+)");
+
+    private final long uid;
+    private final long gid;
+
+    RunAsIdentity(long uid, long gid) {
+        this.uid = uid;
+        this.gid = gid;
+    }
+
+    long getUid() {
+        return uid;
+    }
+
+    long getGid() {
+        return gid;
+    }
+
+    /**
+     * Parse the output of the {@code id} command, i.e. {@code uid=1000(jenkins) gid=1000(jenkins) groups=...}.
+     * @param output command output
+     * @return identity or {@code null} if the output could not be parsed
+     */
+    @CheckForNull
+    static RunAsIdentity parse(@CheckForNull String output) {
+        if (output == null) {
+            return null;
+        }
+
+        Matcher uid = UID.matcher(output);
+        Matcher gid = GID.matcher(output);
+        if (!uid.find() || !gid.find()) {
+            return null;
+        }
+
+        try {
+            return new RunAsIdentity(Long.parseLong(uid.group(1)), Long.parseLong(gid.group(1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return uid + ":" + gid;
+    }
+}
@@ -0,0 +1,105 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class EphemeralContainerAdmissionSchedulerTest {
+
+    @Test
+    void parseWeights() {
+        Map<String, Double> weights = EphemeralContainerAdmissionScheduler.parseWeights("""
+                # comment
+                team-a = 2
+                team-b/sub=0.5
+
+                team-c=0
+                team-d=abc
+                =3
+                """);
+        assertEquals(Map.of("team-a", 2.0, "team-b/sub", 0.5), weights);
+        assertTrue(EphemeralContainerAdmissionScheduler.parseWeights(null).isEmpty());
+        assertTrue(EphemeralContainerAdmissionScheduler.parseWeights("  ").isEmpty());
+    }
+
+    @Test
+    void tenantMetricOther() {
+        EphemeralContainerAdmissionScheduler scheduler = new EphemeralContainerAdmissionScheduler();
+        assertEquals("other", scheduler.tenantMetric("other"));
+        for (int i = 1; i < 100; i++) {
+            scheduler.tenantMetric("team-" + i);
+        }
+
+        assertEquals(EphemeralContainerMetrics.OTHER, scheduler.tenantMetric("team-100"));
+        assertEquals("other", scheduler.tenantMetric("other"), "folder named other has its own metric");
+    }
+
+    @Test
+    void burst() throws Exception {
+        EphemeralContainerAdmissionScheduler.CloudQueue queue =
+                new EphemeralContainerAdmissionScheduler.CloudQueue("test");
+        long start = System.nanoTime();
+        // 600 per minute allows a burst of 10
+        for (int i = 0; i < 10; i++) {
+            queue.admit("a", 1, 600);
+        }
+
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500), "burst admitted immediately");
+    }
+
+    @Test
+    void weightedFairShare() throws Exception {
+        EphemeralContainerAdmissionScheduler.CloudQueue queue =
+                new EphemeralContainerAdmissionScheduler.CloudQueue("test");
+        // exhaust burst so the following requests queue up
+        queue.admit("warmup", 1, 60);
+
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(9);
+        List<Thread> threads = new ArrayList<>();
+        // heavy tenant queues six requests before the light tenant queues three
+        for (int i = 0; i < 6; i++) {
+            threads.add(admit(queue, "heavy", 1, order, done));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            threads.add(admit(queue, "light", 2, order, done));
+        }
+
+        for (Thread t : threads) {
+            t.start();
+            // keep arrival order deterministic
+            Thread.sleep(20);
+        }
+
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        // light tenant is not stuck behind all of the heavy tenant requests
+        assertTrue(order.subList(0, 3).contains("light"), "light tenant admitted early: " + order);
+        assertEquals(3, Collections.frequency(order, "light"));
+    }
+
+    private static Thread admit(
+            EphemeralContainerAdmissionScheduler.CloudQueue queue,
+            String tenant,
+            double weight,
+            List<String> order,
+            CountDownLatch done) {
+        return new Thread(() -> {
+            try {
+                queue.admit(tenant, weight, 600);
+                order.add(tenant);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                done.countDown();
+            }
+        });
+    }
+}
@@ -0,0 +1,172 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.codahale.metrics.MetricRegistry;
+import io.jenkins.plugins.kubernetes.ephemeral.EphemeralContainerCircuitBreaker.Breaker;
+import io.jenkins.plugins.kubernetes.ephemeral.EphemeralContainerCircuitBreaker.State;
+import io.jenkins.plugins.kubernetes.ephemeral.EphemeralContainerCircuitBreaker.Ticket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class EphemeralContainerCircuitBreakerTest {
+
+    @Test
+    void opensOnFailureRate() {
+        Breaker breaker = breaker(50, TimeUnit.MINUTES.toNanos(1));
+        for (int i = 0; i < 3; i++) {
+            breaker.record(acquire(breaker), true);
+        }
+
+        // 2 of 5 failed, below threshold
+        breaker.record(acquire(breaker), false);
+        breaker.record(acquire(breaker), false);
+        assertEquals(State.CLOSED, breaker.getState());
+
+        // 3 of 6 failed
+        breaker.record(acquire(breaker), false);
+        assertEquals(State.OPEN, breaker.getState());
+        assertNull(breaker.tryAcquire(), "starts rejected while open");
+        assertTrue(breaker.getRetryAfter() > 0);
+    }
+
+    @Test
+    void minCalls() {
+        Breaker breaker = breaker(50, TimeUnit.MINUTES.toNanos(1));
+        for (int i = 0; i < 4; i++) {
+            breaker.record(acquire(breaker), false);
+        }
+
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void ignoredOutcome() {
+        Breaker breaker = breaker(50, TimeUnit.MINUTES.toNanos(1));
+        for (int i = 0; i < 10; i++) {
+            breaker.record(acquire(breaker), null);
+        }
+
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void halfOpenTrialSuccessCloses() {
+        Breaker breaker = halfOpen();
+        Ticket trial = acquire(breaker);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertNull(breaker.tryAcquire(), "single trial while half-open");
+
+        breaker.record(trial, true);
+        assertEquals(State.CLOSED, breaker.getState());
+        assertNotNull(breaker.tryAcquire());
+    }
+
+    @Test
+    void halfOpenTrialFailureReopens() {
+        Breaker breaker = halfOpen();
+        breaker.record(acquire(breaker), false);
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void halfOpenIgnoresStartsAllowedWhileClosed() {
+        Breaker breaker = breaker(50, 0);
+        List<Ticket> closed = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            closed.add(acquire(breaker));
+        }
+
+        // 5 of 5 failed opens the breaker, 2 starts allowed while closed are still in flight
+        for (int i = 0; i < 5; i++) {
+            breaker.record(closed.get(i), false);
+        }
+
+        assertEquals(State.OPEN, breaker.getState());
+        Ticket trial = acquire(breaker);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+
+        breaker.record(closed.get(5), true);
+        assertEquals(State.HALF_OPEN, breaker.getState(), "stale success does not close");
+        breaker.record(closed.get(6), null);
+        assertNull(breaker.tryAcquire(), "stale outcome does not release the trial");
+
+        breaker.record(trial, false);
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void halfOpenTrialNotCompletedAllowsNextTrial() {
+        Breaker breaker = halfOpen();
+        Ticket first = acquire(breaker);
+        breaker.record(first, null);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+
+        Ticket next = acquire(breaker);
+        assertNull(breaker.tryAcquire());
+        breaker.record(next, true);
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void staleTrialIgnoredOnceClosed() {
+        Breaker breaker = halfOpen();
+        Ticket trial = acquire(breaker);
+        breaker.record(trial, true);
+        assertEquals(State.CLOSED, breaker.getState());
+
+        // a duplicate outcome of the trial does not count in the closed window
+        for (int i = 0; i < 10; i++) {
+            breaker.record(trial, false);
+        }
+
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    void retainKeepsSuspendingBreakers() {
+        EphemeralContainerCircuitBreaker circuit = new EphemeralContainerCircuitBreaker(MetricRegistry::new);
+        circuit.breaker("node:cloud/kept", "node kept");
+        circuit.breaker("node:cloud/gone", "node gone");
+        Breaker open = circuit.breaker("node:cloud/open", "node open");
+        open.setThreshold(50);
+        for (int i = 0; i < 5; i++) {
+            open.record(acquire(open), false);
+        }
+
+        circuit.retainKeys(Set.of("node:cloud/kept"));
+        assertEquals(State.OPEN, circuit.getNodeState("cloud", "open"), "open breaker kept until it expires");
+        assertEquals(Set.of("node:cloud/kept", "node:cloud/open"), circuit.getKeys());
+    }
+
+    /**
+     * Breaker opened with a zero open duration, the next start is the trial.
+     */
+    private static Breaker halfOpen() {
+        Breaker breaker = breaker(50, 0);
+        for (int i = 0; i < 5; i++) {
+            breaker.record(acquire(breaker), false);
+        }
+
+        assertEquals(State.OPEN, breaker.getState());
+        return breaker;
+    }
+
+    private static Ticket acquire(Breaker breaker) {
+        Ticket ticket = breaker.tryAcquire();
+        assertNotNull(ticket);
+        return ticket;
+    }
+
+    private static Breaker breaker(int threshold, long openDurationNanos) {
+        Breaker breaker = new Breaker("test", "node test", openDurationNanos);
+        breaker.setThreshold(threshold);
+        return breaker;
+    }
+}
@@ -0,0 +1,48 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import hudson.EnvVars;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import org.junit.jupiter.api.Test;
+
+class EphemeralContainerExecDecoratorTest {
+
+    @Test
+    void leanSerialization() throws Exception {
+        EphemeralContainerExecDecorator decorator = new EphemeralContainerExecDecorator();
+        decorator.setContainerName("jkns-step-foo");
+        decorator.setShell("bash");
+        decorator.setGlobalVars(new EnvVars("GLOBAL", "1"));
+        decorator.setRunContextEnvVars(new EnvVars("RUN", "2"));
+        decorator.setRunId("job#1");
+
+        EphemeralContainerExecDecorator copy = roundTrip(decorator);
+        assertEquals("jkns-step-foo", copy.getContainerName());
+        assertEquals("bash", copy.getShell());
+        assertNull(copy.getGlobalVars());
+        assertNull(copy.getRunContextEnvVars());
+
+        // environment that can not be restored is kept
+        decorator.setRunId(null);
+        copy = roundTrip(decorator);
+        assertEquals("1", copy.getGlobalVars().get("GLOBAL"));
+        assertEquals("2", copy.getRunContextEnvVars().get("RUN"));
+    }
+
+    private static EphemeralContainerExecDecorator roundTrip(EphemeralContainerExecDecorator decorator)
+            throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(decorator);
+        }
+
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (EphemeralContainerExecDecorator) in.readObject();
+        }
+    }
+}
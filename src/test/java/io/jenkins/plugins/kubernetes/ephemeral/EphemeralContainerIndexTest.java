@@ -0,0 +1,76 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import org.junit.jupiter.api.Test;
+
+class EphemeralContainerIndexTest {
+
+    @Test
+    void lookup() {
+        Pod pod = pod("1");
+        EphemeralContainerIndex index = EphemeralContainerIndex.of(pod);
+        assertEquals("/foo", index.getContainer("foo").orElseThrow().getWorkingDir());
+        assertEquals("/bar", index.getContainer("bar").orElseThrow().getWorkingDir());
+        assertTrue(index.getContainer("baz").isEmpty());
+        assertEquals("foo-image", index.getStatus("foo").orElseThrow().getImage());
+        assertTrue(index.getStatus("bar").isEmpty());
+        assertTrue(index.getStatus(null).isEmpty());
+        assertEquals(1, index.getStatuses().size());
+    }
+
+    @Test
+    void cachedByResourceVersion() {
+        EphemeralContainerIndex index = EphemeralContainerIndex.of(pod("1"));
+        assertSame(index, EphemeralContainerIndex.of(pod("1")));
+        assertNotSame(index, EphemeralContainerIndex.of(pod("2")));
+    }
+
+    @Test
+    void noMetadata() {
+        Pod pod = new PodBuilder()
+                .withNewSpec()
+                .addNewEphemeralContainer()
+                .withName("foo")
+                .endEphemeralContainer()
+                .endSpec()
+                .build();
+        EphemeralContainerIndex index = EphemeralContainerIndex.of(pod);
+        assertTrue(index.getContainer("foo").isPresent());
+        assertTrue(index.getStatus("foo").isEmpty());
+        assertNotSame(index, EphemeralContainerIndex.of(pod));
+        assertTrue(EphemeralContainerIndex.of(new Pod()).getStatuses().isEmpty());
+    }
+
+    private static Pod pod(String resourceVersion) {
+        return new PodBuilder()
+                .withNewMetadata()
+                .withName("test")
+                .withNamespace("default")
+                .withUid("4cd2b7c5-1a55-4a3f-9d8e-index-test")
+                .withResourceVersion(resourceVersion)
+                .endMetadata()
+                .withNewSpec()
+                .addNewEphemeralContainer()
+                .withName("foo")
+                .withWorkingDir("/foo")
+                .endEphemeralContainer()
+                .addNewEphemeralContainer()
+                .withName("bar")
+                .withWorkingDir("/bar")
+                .endEphemeralContainer()
+                .endSpec()
+                .withNewStatus()
+                .addNewEphemeralContainerStatus()
+                .withName("foo")
+                .withImage("foo-image")
+                .endEphemeralContainerStatus()
+                .endStatus()
+                .build();
+    }
+}
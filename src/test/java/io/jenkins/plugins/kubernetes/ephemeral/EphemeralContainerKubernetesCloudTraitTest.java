@@ -2,11 +2,14 @@ package io.jenkins.plugins.kubernetes.ephemeral;
 
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import hudson.util.XStream2;
 import io.jenkins.plugins.kubernetes.ephemeral.rules.ContainerImageRule;
 import java.util.List;
 import java.util.Optional;
@@ -37,10 +40,108 @@ class EphemeralContainerKubernetesCloudTraitTest {
         });
     }
 
+    @Test
+    void patchMode() {
+        EphemeralContainerKubernetesCloudTrait trait = new EphemeralContainerKubernetesCloudTrait();
+        assertEquals(EphemeralContainerKubernetesCloudTrait.PatchMode.UPDATE, trait.getPatchMode());
+
+        trait.setPatchMode(EphemeralContainerKubernetesCloudTrait.PatchMode.JSON_PATCH);
+        assertEquals(EphemeralContainerKubernetesCloudTrait.PatchMode.JSON_PATCH, trait.getPatchMode());
+
+        trait.setPatchMode(null);
+        assertEquals(EphemeralContainerKubernetesCloudTrait.PatchMode.UPDATE, trait.getPatchMode());
+    }
+
+    @Test
+    void podInformerCache() {
+        EphemeralContainerKubernetesCloudTrait trait = new EphemeralContainerKubernetesCloudTrait();
+        assertFalse(trait.isPodInformerCache(), "disabled by default");
+        trait.setPodInformerCache(true);
+        assertTrue(trait.isPodInformerCache());
+    }
+
+    @Test
+    void maxConcurrentStartsPerNode() {
+        EphemeralContainerKubernetesCloudTrait trait = new EphemeralContainerKubernetesCloudTrait();
+        assertEquals(0, trait.getMaxConcurrentStartsPerNode(), "unlimited by default");
+        trait.setMaxConcurrentStartsPerNode(4);
+        assertEquals(4, trait.getMaxConcurrentStartsPerNode());
+        trait.setMaxConcurrentStartsPerNode(-1);
+        assertEquals(0, trait.getMaxConcurrentStartsPerNode());
+    }
+
+    @Test
+    void admission() {
+        EphemeralContainerKubernetesCloudTrait trait = new EphemeralContainerKubernetesCloudTrait();
+        assertEquals(0, trait.getAdmissionRatePerMinute(), "unlimited by default");
+        assertEquals(EphemeralContainerKubernetesCloudTrait.AdmissionTenant.FOLDER, trait.getAdmissionTenant());
+        trait.setAdmissionRatePerMinute(120);
+        trait.setAdmissionTenant(EphemeralContainerKubernetesCloudTrait.AdmissionTenant.JOB);
+        trait.setAdmissionWeights("  ");
+        assertEquals(120, trait.getAdmissionRatePerMinute());
+        assertEquals(EphemeralContainerKubernetesCloudTrait.AdmissionTenant.JOB, trait.getAdmissionTenant());
+        assertNull(trait.getAdmissionWeights());
+        trait.setAdmissionTenant(null);
+        assertEquals(EphemeralContainerKubernetesCloudTrait.AdmissionTenant.FOLDER, trait.getAdmissionTenant());
+    }
+
+    @Test
+    void retryBudgetPercent() {
+        EphemeralContainerKubernetesCloudTrait trait = new EphemeralContainerKubernetesCloudTrait();
+        assertEquals(0, trait.getRetryBudgetPercent(), "disabled by default");
+        trait.setRetryBudgetPercent(20);
+        assertEquals(20, trait.getRetryBudgetPercent());
+        trait.setRetryBudgetPercent(-5);
+        assertEquals(0, trait.getRetryBudgetPercent());
+    }
+
+    @Test
+    void circuitBreakerFailureRate() {
+        EphemeralContainerKubernetesCloudTrait trait = new EphemeralContainerKubernetesCloudTrait();
+        assertEquals(0, trait.getCircuitBreakerFailureRate(), "disabled by default");
+        trait.setCircuitBreakerFailureRate(50);
+        assertEquals(50, trait.getCircuitBreakerFailureRate());
+        trait.setCircuitBreakerFailureRate(150);
+        assertEquals(100, trait.getCircuitBreakerFailureRate());
+    }
+
+    @Test
+    void containerReuse() {
+        EphemeralContainerKubernetesCloudTrait trait = new EphemeralContainerKubernetesCloudTrait();
+        assertEquals(0, trait.getReuseIdleTimeoutSeconds(), "disabled by default");
+        assertEquals(1, trait.getReuseMaxIdlePerPod());
+        trait.setReuseIdleTimeoutSeconds(300);
+        trait.setReuseMaxIdlePerPod(3);
+        assertEquals(300, trait.getReuseIdleTimeoutSeconds());
+        assertEquals(3, trait.getReuseMaxIdlePerPod());
+    }
+
     @Test
     void testToString() {
         EphemeralContainerKubernetesCloudTrait trait = new EphemeralContainerKubernetesCloudTrait();
-        assertEquals("EphemeralContainerKubernetesCloudTrait[containerStepRules=[]]", trait.toString());
+        assertEquals(
+                "EphemeralContainerKubernetesCloudTrait[containerStepRules=[],patchMode=UPDATE,podInformerCache=false"
+                        + ",maxConcurrentStartsPerNode=0,admissionRatePerMinute=0,admissionTenant=FOLDER"
+                        + ",admissionWeights=<null>,retryBudgetPercent=0,circuitBreakerFailureRate=0"
+                        + ",reuseIdleTimeoutSeconds=0,reuseMaxIdlePerPod=1]",
+                trait.toString());
+    }
+
+    @Test
+    void reuseMaxIdlePerPodLegacyConfig() {
+        XStream2 xstream = new XStream2();
+        String legacy = "<" + EphemeralContainerKubernetesCloudTrait.class.getName() + ">"
+                + "<reuseIdleTimeoutSeconds>60</reuseIdleTimeoutSeconds>"
+                + "</" + EphemeralContainerKubernetesCloudTrait.class.getName() + ">";
+        EphemeralContainerKubernetesCloudTrait trait = assertInstanceOf(
+                EphemeralContainerKubernetesCloudTrait.class, xstream.fromXML(legacy));
+        assertEquals(60, trait.getReuseIdleTimeoutSeconds());
+        assertEquals(1, trait.getReuseMaxIdlePerPod(), "default when loaded from a config without the option");
+
+        trait.setReuseMaxIdlePerPod(0);
+        EphemeralContainerKubernetesCloudTrait copy = assertInstanceOf(
+                EphemeralContainerKubernetesCloudTrait.class, xstream.fromXML(xstream.toXML(trait)));
+        assertEquals(0, copy.getReuseMaxIdlePerPod(), "explicit 0 is kept");
     }
 
     @Test
@@ -0,0 +1,164 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.fabric8.kubernetes.api.model.EphemeralContainerBuilder;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.jenkins.plugins.kubernetes.ephemeral.EphemeralContainerLifecycleRegistry.PodEntry;
+import io.jenkins.plugins.kubernetes.ephemeral.EphemeralContainerLifecycleRegistry.State;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class EphemeralContainerLifecycleRegistryTest {
+
+    private static final String POD = "cloud/ns/pod";
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final EphemeralContainerLifecycleRegistry registry = new EphemeralContainerLifecycleRegistry(() -> metrics);
+
+    @Test
+    void transitions() {
+        PodEntry entry = registry.entry(POD, "cloud", "node-1");
+        registry.transition(entry, "a", State.STARTING);
+        registry.transition(entry, "b", State.STARTING);
+        registry.transition(entry, "b", State.ACTIVE);
+        registry.transition(entry, "c", State.IDLE);
+        assertEquals(
+                Map.of(State.STARTING, 1, State.ACTIVE, 1, State.IDLE, 1, State.TERMINATING, 0),
+                registry.getCounts(POD));
+
+        registry.transition(entry, "b", State.TERMINATING);
+        registry.removed(POD, "c");
+        assertEquals(
+                Map.of(State.STARTING, 1, State.ACTIVE, 0, State.IDLE, 0, State.TERMINATING, 1),
+                registry.getCounts(POD));
+
+        assertEquals(1L, gauge(State.STARTING.getMetricName()));
+        assertEquals(1L, gauge(MetricNames.dimension(State.TERMINATING.getMetricName(), "cloud", "cloud")));
+        assertEquals(1L, gauge(MetricNames.dimension(State.TERMINATING.getMetricName(), "node", "node-1")));
+    }
+
+    @Test
+    void addedOnlyCountsAppliedContainers() {
+        PodEntry entry = registry.entry(POD, "cloud", null);
+        registry.transition(entry, "a", State.STARTING);
+        // update failed, the container was never added
+        registry.removed(POD, "a");
+        assertEquals(0, registry.getAdded(POD));
+
+        registry.transition(entry, "b", State.STARTING);
+        registry.added(entry, pod("x", "y"));
+        assertEquals(3, registry.getAdded(POD));
+        // same Pod snapshot, added in the same batch
+        registry.added(entry, pod("x", "y"));
+        assertEquals(4, registry.getAdded(POD));
+        assertEquals(4L, gauge(MetricNames.EPHEMERAL_CONTAINERS_POD_ADDED_MAX));
+        assertEquals(4L, gauge(podAdded("cloud_ns_pod")));
+
+        PodEntry other = registry.entry("cloud/ns/other", "cloud", null);
+        registry.added(other, pod());
+        assertEquals(1L, gauge(podAdded("cloud_ns_other")));
+        assertEquals(4L, gauge(MetricNames.EPHEMERAL_CONTAINERS_POD_ADDED_MAX));
+
+        // agent is gone
+        registry.sync(POD, null);
+        assertEquals(0L, gauge(podAdded("cloud_ns_pod")));
+        assertEquals(1L, gauge(MetricNames.EPHEMERAL_CONTAINERS_POD_ADDED_MAX));
+    }
+
+    private static String podAdded(String pod) {
+        return MetricNames.dimension(MetricNames.EPHEMERAL_CONTAINERS_POD_ADDED, EphemeralContainerMetrics.POD, pod);
+    }
+
+    @Test
+    void sync() {
+        PodEntry entry = registry.entry(POD, "cloud", null);
+        registry.transition(entry, "starting", State.STARTING);
+        registry.transition(entry, "running", State.TERMINATING);
+        registry.transition(entry, "terminated", State.TERMINATING);
+        registry.transition(entry, "missing", State.IDLE);
+
+        Pod pod = new PodBuilder()
+                .withNewStatus()
+                .addNewEphemeralContainerStatus()
+                .withName("running")
+                .withNewState()
+                .withNewRunning()
+                .endRunning()
+                .endState()
+                .endEphemeralContainerStatus()
+                .addNewEphemeralContainerStatus()
+                .withName("terminated")
+                .withNewState()
+                .withNewTerminated()
+                .withExitCode(0)
+                .endTerminated()
+                .endState()
+                .endEphemeralContainerStatus()
+                .endStatus()
+                .build();
+        registry.sync(POD, pod);
+        assertEquals(
+                Map.of(State.STARTING, 1, State.ACTIVE, 0, State.IDLE, 0, State.TERMINATING, 1),
+                registry.getCounts(POD));
+
+        // pod is gone
+        registry.sync(POD, null);
+        assertEquals(0, registry.getCounts(POD).get(State.STARTING));
+    }
+
+    @Test
+    void retain() {
+        registry.transition(registry.entry(POD, "cloud", null), "a", State.ACTIVE);
+        registry.transition(registry.entry("cloud/ns/other", "cloud", null), "b", State.ACTIVE);
+        registry.retainKeys(Set.of(POD));
+        assertEquals(1, registry.getCounts(POD).get(State.ACTIVE));
+        assertEquals(0, registry.getCounts("cloud/ns/other").get(State.ACTIVE));
+        assertEquals(1L, gauge(State.ACTIVE.getMetricName()));
+    }
+
+    @Test
+    void retainReleasesGauges() {
+        registry.added(registry.entry(POD, "cloud", "node-gone"), pod());
+        registry.added(registry.entry("cloud/ns/a", "cloud", "node-kept"), pod());
+        registry.added(registry.entry("cloud/ns/b", "cloud", "node-kept"), pod());
+        String nodeGone = MetricNames.dimension(State.ACTIVE.getMetricName(), "node", "node-gone");
+        String nodeKept = MetricNames.dimension(State.ACTIVE.getMetricName(), "node", "node-kept");
+        assertNotNull(metrics.getGauges().get(podAdded("cloud_ns_pod")));
+        assertNotNull(metrics.getGauges().get(nodeGone));
+
+        registry.retainKeys(Set.of("cloud/ns/a"));
+        assertNull(metrics.getGauges().get(podAdded("cloud_ns_pod")));
+        assertNull(metrics.getGauges().get(podAdded("cloud_ns_b")));
+        assertNotNull(metrics.getGauges().get(podAdded("cloud_ns_a")));
+        assertNull(metrics.getGauges().get(nodeGone), "no pod left on the node");
+        assertNotNull(metrics.getGauges().get(nodeKept));
+
+        // registered again when the pod comes back
+        registry.added(registry.entry(POD, "cloud", "node-gone"), pod());
+        assertEquals(1L, gauge(podAdded("cloud_ns_pod")));
+        assertEquals(0L, gauge(nodeGone));
+    }
+
+    private Object gauge(String name) {
+        Gauge<?> gauge = metrics.getGauges().get(name);
+        return gauge == null ? null : gauge.getValue();
+    }
+
+    private static Pod pod(String... containers) {
+        PodBuilder builder = new PodBuilder().withNewSpec().endSpec();
+        for (String name : containers) {
+            builder.editSpec()
+                    .addToEphemeralContainers(new EphemeralContainerBuilder().withName(name).build())
+                    .endSpec();
+        }
+
+        return builder.build();
+    }
+}
@@ -0,0 +1,68 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import org.junit.jupiter.api.Test;
+
+class EphemeralContainerMetricsTest {
+
+    @Test
+    void dimensionValue() {
+        EphemeralContainerMetrics metrics = new EphemeralContainerMetrics();
+        assertEquals("docker_io_library_maven", metrics.dimensionValue("image", "docker.io/library/maven"));
+        for (int i = 1; i < 100; i++) {
+            assertEquals("node-" + i, metrics.dimensionValue("node", "node-" + i));
+        }
+
+        assertEquals("node-100", metrics.dimensionValue("node", "node-100"));
+        assertEquals(EphemeralContainerMetrics.OTHER, metrics.dimensionValue("node", "node-101"));
+        // known values are still counted by name
+        assertEquals("node-1", metrics.dimensionValue("node", "node-1"));
+        // caps are per dimension
+        assertEquals("node-101", metrics.dimensionValue("cloud", "node-101"));
+    }
+
+    @Test
+    void dimensionValueOther() {
+        EphemeralContainerMetrics metrics = new EphemeralContainerMetrics();
+        // real values named like the overflow bucket
+        assertEquals("other", metrics.dimensionValue("node", "other"));
+        assertEquals("_other", metrics.dimensionValue("node", ".other"));
+        assertEquals("_other", metrics.dimensionValue("node", "~other"));
+        for (int i = 2; i < 100; i++) {
+            metrics.dimensionValue("node", "node-" + i);
+        }
+
+        assertEquals(EphemeralContainerMetrics.OTHER, metrics.dimensionValue("node", "node-100"));
+        assertNotEquals(EphemeralContainerMetrics.OTHER, metrics.dimensionValue("node", "other"));
+        assertNotEquals(EphemeralContainerMetrics.OTHER, metrics.dimensionValue("node", "~other"));
+    }
+
+    @Test
+    void releaseDimensionValue() {
+        EphemeralContainerMetrics metrics = new EphemeralContainerMetrics();
+        for (int i = 1; i <= 100; i++) {
+            metrics.dimensionValue("pod", "pod-" + i);
+        }
+
+        assertEquals(EphemeralContainerMetrics.OTHER, metrics.dimensionValue("pod", "pod-101"));
+        metrics.release("pod", "pod-1");
+        metrics.release("pod", EphemeralContainerMetrics.OTHER);
+        assertEquals("pod-101", metrics.dimensionValue("pod", "pod-101"));
+        assertEquals(EphemeralContainerMetrics.OTHER, metrics.dimensionValue("pod", "pod-102"));
+    }
+
+    @Test
+    void imageName() {
+        assertEquals("docker.io/library/maven", EphemeralContainerMetrics.imageName("maven:3.9"));
+        assertEquals(
+                "ghcr.io/org/tool", EphemeralContainerMetrics.imageName("ghcr.io/org/tool@sha256:" + "a".repeat(64)));
+        assertEquals("Not An Image", EphemeralContainerMetrics.imageName("Not An Image"));
+    }
+
+    @Test
+    void failureMetricName() {
+        assertEquals("start_error", EphemeralContainerMetrics.Failure.START_ERROR.getMetricName());
+    }
+}
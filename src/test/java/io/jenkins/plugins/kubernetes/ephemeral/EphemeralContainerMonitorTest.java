@@ -1,8 +1,28 @@
 package io.jenkins.plugins.kubernetes.ephemeral;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import hudson.remoting.LocalChannel;
+import io.fabric8.kubernetes.api.model.EphemeralContainer;
+import io.fabric8.kubernetes.api.model.EphemeralContainerBuilder;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.api.model.VolumeMount;
+import io.fabric8.kubernetes.api.model.VolumeMountBuilder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import org.csanchez.jenkins.plugins.kubernetes.KubernetesCloud;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
 
 class EphemeralContainerMonitorTest {
 
@@ -12,15 +32,165 @@ class EphemeralContainerMonitorTest {
                 new String[] {
                     "sh",
                     "-c",
-                    "set -e; { while ! test -f '/tmp/foobar-jenkins-step-is-done-monitor' ; do sleep 1; done }"
+                    "set -e; { if mkfifo '/tmp/foobar-jenkins-step-is-done-monitor.fifo' 2>/dev/null; then "
+                            + "read -r l 0<>'/tmp/foobar-jenkins-step-is-done-monitor.fifo' || true; "
+                            + "elif command -v inotifywait >/dev/null 2>&1; then "
+                            + "while ! test -f '/tmp/foobar-jenkins-step-is-done-monitor' ; do "
+                            + "inotifywait -qq -t 10 -e create -e moved_to '/tmp' || true; done; fi; "
+                            + "while ! test -f '/tmp/foobar-jenkins-step-is-done-monitor' ; do sleep 1; done }"
                 },
-                EphemeralContainerMonitor.containerWaitCommand("foobar"));
+                EphemeralContainerMonitor.containerWaitCommand("foobar", null));
+    }
+
+    @Test
+    void containerWaitCommandSharedDir() {
+        assertArrayEquals(
+                new String[] {
+                    "sh",
+                    "-c",
+                    "set -e; { if mkfifo '/home/jenkins/agent/foobar-jenkins-step-is-done-monitor.fifo' 2>/dev/null; "
+                            + "then read -r l 0<>'/home/jenkins/agent/foobar-jenkins-step-is-done-monitor.fifo' "
+                            + "|| true; elif command -v inotifywait >/dev/null 2>&1; then "
+                            + "while ! test -f '/home/jenkins/agent/foobar-jenkins-step-is-done-monitor' ; do "
+                            + "inotifywait -qq -t 10 -e create -e moved_to '/home/jenkins/agent' || true; done; fi; "
+                            + "while ! test -f '/home/jenkins/agent/foobar-jenkins-step-is-done-monitor' ; do "
+                            + "sleep 1; done; rm -f '/home/jenkins/agent/foobar-jenkins-step-is-done-monitor.fifo' "
+                            + "'/home/jenkins/agent/foobar-jenkins-step-is-done-monitor' || true; }"
+                },
+                EphemeralContainerMonitor.containerWaitCommand("foobar", "/home/jenkins/agent"));
+    }
+
+    @Test
+    void fileMonitorScriptPollOnly() {
+        assertEquals(
+                "set -e; { while ! test -f '/tmp/foobar-jenkins-step-is-done-monitor' ; do sleep 1; done }",
+                EphemeralContainerMonitor.fileMonitorScript("foobar", null, true));
+    }
+
+    @Test
+    void fileMonitorScriptPollOnlySharedDir() {
+        assertEquals(
+                "set -e; { while ! test -f '/home/jenkins/agent/foobar-jenkins-step-is-done-monitor' ; do sleep 1; "
+                        + "done; rm -f '/home/jenkins/agent/foobar-jenkins-step-is-done-monitor.fifo' "
+                        + "'/home/jenkins/agent/foobar-jenkins-step-is-done-monitor' || true; }",
+                EphemeralContainerMonitor.fileMonitorScript("foobar", "/home/jenkins/agent", true));
     }
 
     @Test
     void containerStopCommand() {
         assertArrayEquals(
-                new String[] {"touch", "/tmp/foobar-jenkins-step-is-done-monitor"},
-                EphemeralContainerMonitor.containerStopCommand("foobar"));
+                new String[] {
+                    "sh",
+                    "-c",
+                    "touch '/tmp/foobar-jenkins-step-is-done-monitor'; "
+                            + "test ! -p '/tmp/foobar-jenkins-step-is-done-monitor.fifo' "
+                            + "|| echo 1<>'/tmp/foobar-jenkins-step-is-done-monitor.fifo'"
+                },
+                EphemeralContainerMonitor.containerStopCommand("foobar", null));
+    }
+
+    @Test
+    void getMonitorDir() {
+        VolumeMount workspace = new VolumeMountBuilder()
+                .withName("workspace")
+                .withMountPath("/home/jenkins/agent")
+                .build();
+        VolumeMount readOnly = new VolumeMountBuilder()
+                .withName("config")
+                .withMountPath("/config")
+                .withReadOnly(true)
+                .build();
+        assertEquals(
+                "/home/jenkins/agent",
+                EphemeralContainerMonitor.getMonitorDir("/home/jenkins/agent", List.of(workspace)));
+        assertEquals(
+                "/home/jenkins/agent/work",
+                EphemeralContainerMonitor.getMonitorDir("/home/jenkins/agent/work/", List.of(workspace)));
+        assertNull(EphemeralContainerMonitor.getMonitorDir("/home/jenkins", List.of(workspace)));
+        assertNull(EphemeralContainerMonitor.getMonitorDir("/home/jenkins/agent2", List.of(workspace)));
+        assertNull(EphemeralContainerMonitor.getMonitorDir("/config", List.of(readOnly)));
+        assertNull(EphemeralContainerMonitor.getMonitorDir(null, List.of(workspace)));
+        assertNull(EphemeralContainerMonitor.getMonitorDir("/home/jenkins/agent", null));
+    }
+
+    @Test
+    void getMonitorDirFromCommand() {
+        String[] shared = EphemeralContainerMonitor.containerWaitCommand("foobar", "/home/jenkins/agent");
+        assertEquals("/home/jenkins/agent", EphemeralContainerMonitor.getMonitorDir(container("foobar", shared)));
+        assertNull(EphemeralContainerMonitor.getMonitorDir(
+                container("foobar", EphemeralContainerMonitor.containerWaitCommand("foobar", null))));
+        assertNull(EphemeralContainerMonitor.getMonitorDir(container("foobar", "sleep", "infinity")));
+    }
+
+    @ParameterizedTest
+    @MethodSource("stepCommands")
+    void getMonitorDirFromModelFactory(List<String> stepCommand) {
+        EphemeralContainerStep step = new EphemeralContainerStep("maven");
+        step.setCommand(stepCommand);
+        Pod pod = new PodBuilder()
+                .withNewSpec()
+                .addNewContainer()
+                .withName(KubernetesCloud.JNLP_NAME)
+                .withWorkingDir("/home/jenkins/agent")
+                .addNewVolumeMount()
+                .withName("workspace")
+                .withMountPath("/home/jenkins/agent")
+                .endVolumeMount()
+                .endContainer()
+                .endSpec()
+                .build();
+        EphemeralContainer ec = KubernetesClientModelFactory.createEphemeralContainer("foobar", step, pod);
+        assertEquals("/home/jenkins/agent", EphemeralContainerMonitor.getMonitorDir(ec));
+    }
+
+    static Stream<List<String>> stepCommands() {
+        // default entrypoint, custom entrypoint and entrypoint override
+        return Stream.of(null, List.of("sh", "/opt/entrypoint.sh"), List.of());
+    }
+
+    @Test
+    void getMonitorDirLegacyContainer() {
+        // created by a previous version, on the agent working directory volume but waiting in /tmp
+        EphemeralContainer legacy = new EphemeralContainerBuilder()
+                .withName("foobar")
+                .withWorkingDir("/home/jenkins/agent")
+                .withVolumeMounts(new VolumeMountBuilder()
+                        .withName("workspace")
+                        .withMountPath("/home/jenkins/agent")
+                        .build())
+                .withCommand(
+                        "sh",
+                        "-c",
+                        "set -e; { while ! test -f '/tmp/foobar-jenkins-step-is-done-monitor' ; do sleep 1; done }")
+                .build();
+        String monitorDir = EphemeralContainerMonitor.getMonitorDir(legacy);
+        assertNull(monitorDir, "stop command executed in the container");
+        assertArrayEquals(
+                new String[] {
+                    "sh",
+                    "-c",
+                    "touch '/tmp/foobar-jenkins-step-is-done-monitor'; "
+                            + "test ! -p '/tmp/foobar-jenkins-step-is-done-monitor.fifo' "
+                            + "|| echo 1<>'/tmp/foobar-jenkins-step-is-done-monitor.fifo'"
+                },
+                EphemeralContainerMonitor.containerStopCommand("foobar", monitorDir));
+    }
+
+    @Test
+    void signalStop(@TempDir Path dir) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            EphemeralContainerMonitor.signalStop(new LocalChannel(executor), dir.toString(), List.of("foo", "bar"));
+            assertTrue(Files.isRegularFile(dir.resolve("foo-jenkins-step-is-done-monitor")));
+            assertTrue(Files.isRegularFile(dir.resolve("bar-jenkins-step-is-done-monitor")));
+            // signaling again is fine
+            EphemeralContainerMonitor.signalStop(new LocalChannel(executor), dir.toString(), List.of("foo"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static EphemeralContainer container(String name, String... command) {
+        return new EphemeralContainerBuilder().withName(name).withCommand(command).build();
     }
 }
@@ -0,0 +1,80 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class EphemeralContainerPatchBackoffTest {
+
+    @Test
+    void noContention() {
+        EphemeralContainerPatchBackoff backoff = new EphemeralContainerPatchBackoff(50);
+        assertEquals(50, backoff.ceiling("cloud", "pod"));
+        long wait = backoff.onConflict("cloud", "pod", 0, 2000);
+        assertTrue(wait >= 50 && wait <= 150, "near-instant first retry: " + wait);
+    }
+
+    @Test
+    void widensAndShrinks() {
+        EphemeralContainerPatchBackoff backoff = new EphemeralContainerPatchBackoff(50);
+        long previous = 0;
+        for (int i = 0; i < 20; i++) {
+            long wait = backoff.onConflict("cloud", "pod", previous, 2000);
+            assertTrue(wait >= 50 && wait <= 2000, "wait within bounds: " + wait);
+            previous = wait;
+        }
+
+        assertEquals(2000, backoff.ceiling("cloud", "pod"), "ceiling capped at max wait");
+
+        backoff.onSuccess("cloud", "pod");
+        assertEquals(1000, backoff.ceiling("cloud", "pod"));
+        for (int i = 0; i < 10; i++) {
+            backoff.onSuccess("cloud", "pod");
+        }
+
+        assertEquals(50, backoff.ceiling("cloud", "pod"));
+    }
+
+    @Test
+    void cloudContentionWidensOtherPods() {
+        EphemeralContainerPatchBackoff backoff = new EphemeralContainerPatchBackoff(50);
+        for (int i = 0; i < 4; i++) {
+            backoff.onConflict("cloud", "pod-" + i, 0, 2000);
+        }
+
+        assertEquals(1050, backoff.ceiling("cloud", "other-pod"));
+        assertEquals(50, backoff.ceiling("other-cloud", "other-pod"));
+    }
+
+    @Test
+    void failureDropsPodWindow() {
+        EphemeralContainerPatchBackoff backoff = new EphemeralContainerPatchBackoff(50);
+        for (int i = 0; i < 4; i++) {
+            backoff.onConflict("cloud", "pod", 0, 2000);
+        }
+
+        assertEquals(1050, backoff.ceiling("other-cloud", "pod"));
+        backoff.onFailure("pod");
+        assertEquals(50, backoff.ceiling("other-cloud", "pod"));
+        assertEquals(1050, backoff.ceiling("cloud", "pod"), "cloud window kept");
+    }
+
+    @Test
+    void retainKeys() {
+        EphemeralContainerPatchBackoff backoff = new EphemeralContainerPatchBackoff(50);
+        backoff.onConflict("cloud", "pod", 0, 2000);
+        backoff.onConflict("cloud", "removed", 0, 2000);
+
+        backoff.retainKeys(Set.of("pod"));
+        assertEquals(300, backoff.ceiling("other-cloud", "pod"));
+        assertEquals(50, backoff.ceiling("other-cloud", "removed"));
+    }
+
+    @Test
+    void noWait() {
+        EphemeralContainerPatchBackoff backoff = new EphemeralContainerPatchBackoff(50);
+        assertEquals(0, backoff.onConflict("cloud", "pod", 0, 0));
+    }
+}
@@ -0,0 +1,274 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import hudson.AbortException;
+import io.fabric8.kubernetes.api.model.EphemeralContainer;
+import io.fabric8.kubernetes.api.model.EphemeralContainerBuilder;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.jenkins.plugins.kubernetes.ephemeral.EphemeralContainerPatchCoordinator.InvalidContainersException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class EphemeralContainerPatchCoordinatorTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String POD = "cloud/ns/pod";
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final EphemeralContainerPatchCoordinator coordinator = new EphemeralContainerPatchCoordinator(executor, 0);
+
+    /** Container names of each update applied. */
+    private final List<List<String>> updates = new CopyOnWriteArrayList<>();
+
+    private final CountDownLatch inFlight = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void batchContainersAddedWhileInFlight() throws Exception {
+        Caller first = startInFlight();
+        Caller b = caller("b");
+        Caller c = caller("c");
+        awaitWaiting(b, c);
+        release.countDown();
+
+        for (Caller caller : List.of(first, b, c)) {
+            caller.join(10_000);
+            assertNull(caller.failure);
+        }
+
+        assertEquals(2, updates.size());
+        assertEquals(List.of("a"), updates.get(0));
+        assertEquals(Set.of("b", "c"), Set.copyOf(updates.get(1)));
+    }
+
+    @Test
+    void interruptedStepDoesNotFailBatch() throws Exception {
+        Caller first = startInFlight();
+        Caller b = caller("b");
+        awaitWaiting(b);
+        Caller c = caller("c");
+        awaitWaiting(c);
+
+        // b started the batch
+        b.interrupt();
+        b.join(10_000);
+        assertInstanceOf(InterruptedException.class, b.failure);
+        release.countDown();
+
+        first.join(10_000);
+        c.join(10_000);
+        assertNull(first.failure);
+        assertNull(c.failure);
+        assertEquals(2, updates.size());
+        assertEquals(Set.of("b", "c"), Set.copyOf(updates.get(1)));
+    }
+
+    @Test
+    void batchFailureRetriesContainersOneAtATime() throws Exception {
+        Caller first = startInFlight();
+        Caller good = caller("good");
+        Caller bad = caller("bad");
+        Caller other = caller("other");
+        awaitWaiting(good, bad, other);
+        release.countDown();
+
+        for (Caller caller : List.of(first, good, bad, other)) {
+            caller.join(10_000);
+        }
+
+        assertNull(first.failure);
+        assertNull(good.failure);
+        assertNull(other.failure);
+        AbortException e = assertInstanceOf(AbortException.class, bad.failure);
+        assertEquals("invalid container", e.getMessage());
+        assertEquals(5, updates.size());
+        assertEquals(Set.of("good", "bad", "other"), Set.copyOf(updates.get(1)));
+        assertEquals(
+                Set.of(List.of("good"), List.of("bad"), List.of("other")), Set.copyOf(updates.subList(2, 5)));
+    }
+
+    @Test
+    void batchFailureFailsAllContainers() throws Exception {
+        Caller first = startInFlight();
+        Caller b = caller("b");
+        Caller conflict = caller("conflict");
+        Caller c = caller("c");
+        awaitWaiting(b, conflict, c);
+        release.countDown();
+
+        for (Caller caller : List.of(first, b, conflict, c)) {
+            caller.join(10_000);
+        }
+
+        assertNull(first.failure);
+        for (Caller caller : List.of(b, conflict, c)) {
+            AbortException e = assertInstanceOf(AbortException.class, caller.failure);
+            assertEquals("max retry limit", e.getMessage());
+        }
+
+        assertEquals(2, updates.size(), "no update per container");
+    }
+
+    @Test
+    void singleContainerFailure() throws Exception {
+        Caller bad = caller("bad");
+        bad.join(10_000);
+        assertInstanceOf(AbortException.class, bad.failure);
+        assertEquals(List.of(List.of("bad")), updates);
+    }
+
+    /**
+     * Start adding container {@code a} and wait until its update is in flight, blocked until {@link #release}.
+     */
+    private Caller startInFlight() throws InterruptedException {
+        Caller first = caller("a");
+        assertTrue(inFlight.await(10, TimeUnit.SECONDS));
+        return first;
+    }
+
+    private Caller caller(String name) {
+        Caller caller = new Caller(name);
+        caller.start();
+        return caller;
+    }
+
+    /**
+     * Wait until the callers joined a batch and are waiting for the update.
+     */
+    private static void awaitWaiting(Caller... callers) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        for (Caller caller : callers) {
+            while (caller.getState() != Thread.State.WAITING && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(Thread.State.WAITING, caller.getState());
+        }
+    }
+
+    private void update(List<EphemeralContainer> containers) throws AbortException, InterruptedException {
+        List<String> names = containers.stream().map(EphemeralContainer::getName).toList();
+        updates.add(names);
+        if (names.contains("a")) {
+            inFlight.countDown();
+            assertTrue(release.await(10, TimeUnit.SECONDS));
+        }
+
+        if (names.contains("bad")) {
+            throw new InvalidContainersException("invalid container");
+        }
+
+        if (names.contains("conflict")) {
+            throw new AbortException("max retry limit");
+        }
+    }
+
+    private class Caller extends Thread {
+        private final String containerName;
+        private volatile Throwable failure;
+
+        Caller(String containerName) {
+            super("add-" + containerName);
+            this.containerName = containerName;
+        }
+
+        @Override
+        public void run() {
+            try {
+                coordinator.add(POD, container(containerName), EphemeralContainerPatchCoordinatorTest.this::update);
+            } catch (Throwable t) {
+                failure = t;
+            }
+        }
+    }
+
+    @Test
+    void jsonPatchAppend() throws Exception {
+        List<EphemeralContainer> containers = List.of(container("foo"), container("bar"));
+        List<?> ops = MAPPER.readValue(EphemeralContainerPatchCoordinator.jsonPatch(containers, true), List.class);
+        assertEquals(2, ops.size());
+        for (int i = 0; i < ops.size(); i++) {
+            Map<?, ?> op = assertInstanceOf(Map.class, ops.get(i));
+            assertEquals("add", op.get("op"));
+            assertEquals("/spec/ephemeralContainers/-", op.get("path"));
+            Map<?, ?> value = assertInstanceOf(Map.class, op.get("value"));
+            assertEquals(containers.get(i).getName(), value.get("name"));
+        }
+    }
+
+    @Test
+    void jsonPatchCreate() throws Exception {
+        List<EphemeralContainer> containers = List.of(container("foo"), container("bar"));
+        List<?> ops = MAPPER.readValue(EphemeralContainerPatchCoordinator.jsonPatch(containers, false), List.class);
+        assertEquals(1, ops.size());
+        Map<?, ?> op = assertInstanceOf(Map.class, ops.get(0));
+        assertEquals("add", op.get("op"));
+        assertEquals("/spec/ephemeralContainers", op.get("path"));
+        List<?> value = assertInstanceOf(List.class, op.get("value"));
+        assertEquals(2, value.size());
+        assertEquals("foo", assertInstanceOf(Map.class, value.get(0)).get("name"));
+        assertEquals("bar", assertInstanceOf(Map.class, value.get(1)).get("name"));
+    }
+
+    @Test
+    void missingContainersAllApplied() {
+        List<EphemeralContainer> containers = List.of(container("foo"), container("bar"));
+        Pod pod = pod(container("other"), container("bar"), container("foo"));
+        assertEquals(List.of(), EphemeralContainerPatchCoordinator.missingContainers(pod, containers));
+    }
+
+    @Test
+    void missingContainersPartiallyApplied() {
+        EphemeralContainer foo = container("foo");
+        EphemeralContainer bar = container("bar");
+        EphemeralContainer baz = container("baz");
+        Pod pod = pod(container("other"), bar);
+        assertEquals(
+                List.of(foo, baz), EphemeralContainerPatchCoordinator.missingContainers(pod, List.of(foo, bar, baz)));
+    }
+
+    @Test
+    void missingContainersNotApplied() {
+        List<EphemeralContainer> containers = List.of(container("foo"), container("bar"));
+        assertEquals(
+                containers, EphemeralContainerPatchCoordinator.missingContainers(pod(container("other")), containers));
+        // no ephemeral containers list yet
+        assertEquals(
+                containers,
+                EphemeralContainerPatchCoordinator.missingContainers(
+                        new PodBuilder().withNewSpec().endSpec().build(), containers));
+        // pod not found
+        assertEquals(containers, EphemeralContainerPatchCoordinator.missingContainers((Pod) null, containers));
+    }
+
+    private static Pod pod(EphemeralContainer... containers) {
+        return new PodBuilder()
+                .withNewSpec()
+                .withEphemeralContainers(containers)
+                .endSpec()
+                .build();
+    }
+
+    private static EphemeralContainer container(String name) {
+        return new EphemeralContainerBuilder().withName(name).withImage("maven").build();
+    }
+}
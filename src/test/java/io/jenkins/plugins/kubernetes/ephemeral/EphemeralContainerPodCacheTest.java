@@ -0,0 +1,73 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.jenkins.plugins.kubernetes.ephemeral.EphemeralContainerPodCache.PodInformer;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.csanchez.jenkins.plugins.kubernetes.PodLabel;
+import org.junit.jupiter.api.Test;
+
+class EphemeralContainerPodCacheTest {
+
+    private static final Map<String, String> LABELS = Map.of("jenkins", "slave");
+
+    @Test
+    void labelSelector() {
+        assertEquals(Map.of(), EphemeralContainerPodCache.labelSelector(null));
+        assertEquals(Map.of(), EphemeralContainerPodCache.labelSelector(List.of()));
+        assertEquals(
+                Map.of("jenkins", "slave", "team", "a"),
+                EphemeralContainerPodCache.labelSelector(
+                        List.of(new PodLabel("jenkins", "slave"), new PodLabel("team", "a"))));
+    }
+
+    @Test
+    void informerPerCloudNamespace() {
+        EphemeralContainerPodCache cache = new EphemeralContainerPodCache();
+        PodInformer informer = cache.informer("cloud/ns", null, "ns", LABELS);
+        assertNotNull(informer);
+        assertSame(informer, cache.informer("cloud/ns", null, "ns", LABELS));
+        assertNotSame(informer, cache.informer("cloud/other", null, "other", LABELS));
+        assertFalse(informer.start(), "informer without cloud is never started");
+    }
+
+    @Test
+    void retainClosesRemovedClouds() {
+        EphemeralContainerPodCache cache = new EphemeralContainerPodCache();
+        PodInformer informer = cache.informer("cloud/ns", null, "ns", LABELS);
+        assertNotNull(informer);
+
+        cache.retain(cloud -> true);
+        assertFalse(informer.isClosed());
+        assertSame(informer, cache.informer("cloud/ns", null, "ns", LABELS));
+
+        // cloud removed or cache disabled
+        cache.retain(cloud -> false);
+        assertTrue(informer.isClosed());
+        assertFalse(informer.start());
+        PodInformer replacement = cache.informer("cloud/ns", null, "ns", LABELS);
+        assertNotNull(replacement);
+        assertNotSame(informer, replacement);
+        assertFalse(replacement.isClosed());
+    }
+
+    @Test
+    void getPodFallsBackToApiServerOnCacheMiss() {
+        Pod pod = new PodBuilder().withNewMetadata().withName("agent").endMetadata().build();
+        // informer not started yet, nothing cached
+        PodInformer informer = new EphemeralContainerPodCache().informer("cloud/ns", null, "ns", LABELS);
+        assertNotNull(informer);
+        assertEquals(Optional.of(pod), EphemeralContainerStepExecution.getPod(informer, "agent", () -> pod));
+        assertEquals(Optional.empty(), EphemeralContainerStepExecution.getPod(informer, "agent", () -> null));
+        assertEquals(Optional.of(pod), EphemeralContainerStepExecution.getPod(null, "agent", () -> pod));
+    }
+}
@@ -0,0 +1,114 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.fabric8.kubernetes.api.model.ContainerStatus;
+import io.fabric8.kubernetes.api.model.ContainerStatusBuilder;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.function.Predicate;
+import org.junit.jupiter.api.Test;
+
+class EphemeralContainerReconcilerTest {
+
+    private static final String POD = "cloud/ns/pod";
+    private static final String CONTAINER = EphemeralContainerStepExecution.CONTAINER_NAME_PREFIX + "abc";
+
+    private final Instant now = Instant.now();
+    private final Instant startedBefore = now.minus(Duration.ofMinutes(10));
+    private final Predicate<String> notPooled = name -> false;
+
+    @Test
+    void orphan() {
+        assertTrue(EphemeralContainerReconciler.isOrphan(
+                running(CONTAINER, now.minus(Duration.ofHours(1))), Set.of(), notPooled, startedBefore));
+    }
+
+    @Test
+    void owned() {
+        assertFalse(EphemeralContainerReconciler.isOrphan(
+                running(CONTAINER, now.minus(Duration.ofHours(1))), Set.of(CONTAINER), notPooled, startedBefore));
+    }
+
+    @Test
+    void pooled() {
+        assertFalse(EphemeralContainerReconciler.isOrphan(
+                running(CONTAINER, now.minus(Duration.ofHours(1))), Set.of(), CONTAINER::equals, startedBefore));
+    }
+
+    @Test
+    void withinGracePeriod() {
+        assertFalse(EphemeralContainerReconciler.isOrphan(
+                running(CONTAINER, now.minus(Duration.ofMinutes(1))), Set.of(), notPooled, startedBefore));
+        assertFalse(EphemeralContainerReconciler.isOrphan(
+                new ContainerStatusBuilder()
+                        .withName(CONTAINER)
+                        .withNewState()
+                        .withNewRunning()
+                        .endRunning()
+                        .endState()
+                        .build(),
+                Set.of(),
+                notPooled,
+                startedBefore));
+    }
+
+    @Test
+    void notStepContainer() {
+        assertFalse(EphemeralContainerReconciler.isOrphan(
+                running("debugger", now.minus(Duration.ofHours(1))), Set.of(), notPooled, startedBefore));
+    }
+
+    @Test
+    void notRunning() {
+        ContainerStatus terminated = new ContainerStatusBuilder()
+                .withName(CONTAINER)
+                .withNewState()
+                .withNewTerminated()
+                .withExitCode(0)
+                .endTerminated()
+                .endState()
+                .build();
+        assertFalse(EphemeralContainerReconciler.isOrphan(terminated, Set.of(), notPooled, startedBefore));
+    }
+
+    @Test
+    void idleContainerAcquiredAfterSnapshot() {
+        EphemeralContainerReusePool pool = new EphemeralContainerReusePool((node, name) -> {});
+        pool.lease(POD, CONTAINER);
+        pool.release(POD, "node", CONTAINER, "key", 60, 1);
+
+        // the owned snapshot was taken while the container was idle, a step acquires it before the Pod is checked
+        ContainerStatus status = running(CONTAINER, now.minus(Duration.ofHours(1)));
+        assertTrue(pool.acquire(
+                        POD,
+                        new PodBuilder()
+                                .withNewStatus()
+                                .withEphemeralContainerStatuses(status)
+                                .endStatus()
+                                .build(),
+                        "key")
+                .isPresent());
+        assertFalse(EphemeralContainerReconciler.isOrphan(
+                status, Set.of(), name -> pool.isPooled(POD, name), startedBefore));
+
+        // step completed and the container was requested to terminate
+        pool.discard(POD, CONTAINER);
+        assertTrue(EphemeralContainerReconciler.isOrphan(
+                status, Set.of(), name -> pool.isPooled(POD, name), startedBefore));
+    }
+
+    private static ContainerStatus running(String name, Instant startedAt) {
+        return new ContainerStatusBuilder()
+                .withName(name)
+                .withNewState()
+                .withNewRunning()
+                .withStartedAt(startedAt.toString())
+                .endRunning()
+                .endState()
+                .build();
+    }
+}
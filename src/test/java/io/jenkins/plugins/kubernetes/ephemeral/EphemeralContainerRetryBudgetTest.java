@@ -0,0 +1,38 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class EphemeralContainerRetryBudgetTest {
+
+    @Test
+    void bucket() {
+        EphemeralContainerRetryBudget.Bucket bucket = new EphemeralContainerRetryBudget.Bucket(2, 5);
+        assertTrue(bucket.withdraw());
+        assertTrue(bucket.withdraw());
+        assertFalse(bucket.withdraw(), "reserve exhausted");
+
+        // 20% budget, five attempts earn one retry
+        for (int i = 0; i < 4; i++) {
+            bucket.deposit(0.2);
+            assertFalse(bucket.withdraw());
+        }
+
+        bucket.deposit(0.2);
+        assertTrue(bucket.withdraw());
+        assertFalse(bucket.withdraw());
+    }
+
+    @Test
+    void bucketMax() {
+        EphemeralContainerRetryBudget.Bucket bucket = new EphemeralContainerRetryBudget.Bucket(0, 5);
+        for (int i = 0; i < 100; i++) {
+            bucket.deposit(1);
+        }
+
+        assertEquals(5, bucket.balance());
+    }
+}
@@ -0,0 +1,187 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.fabric8.kubernetes.api.model.ContainerState;
+import io.fabric8.kubernetes.api.model.ContainerStateBuilder;
+import io.fabric8.kubernetes.api.model.EphemeralContainer;
+import io.fabric8.kubernetes.api.model.EphemeralContainerBuilder;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class EphemeralContainerReusePoolTest {
+
+    private static final String POD = "cloud/ns/pod";
+
+    private final List<String> expired = new CopyOnWriteArrayList<>();
+    private final EphemeralContainerReusePool pool =
+            new EphemeralContainerReusePool((node, containerName) -> expired.add(containerName));
+
+    @Test
+    void acquireReleased() {
+        pool.lease(POD, "a");
+        assertTrue(pool.release(POD, "node", "a", "key", 60, 2));
+        assertTrue(pool.isPooled(POD, "a"));
+        assertEquals(Optional.empty(), pool.acquire(POD, pod("a", true), "other-key"));
+        assertEquals(Optional.of("a"), pool.acquire(POD, pod("a", true), "key"));
+        assertTrue(pool.isPooled(POD, "a"), "leased to the step");
+        assertEquals(Optional.empty(), pool.acquire(POD, pod("a", true), "key"), "already taken");
+
+        // released again by the step reusing it
+        assertTrue(pool.release(POD, "node", "a", "key", 60, 2));
+        assertEquals(Optional.of("a"), pool.acquire(POD, pod("a", true), "key"));
+    }
+
+    @Test
+    void acquireDiscardsStoppedContainer() {
+        pool.lease(POD, "a");
+        assertTrue(pool.release(POD, "node", "a", "key", 60, 2));
+        assertEquals(Optional.empty(), pool.acquire(POD, pod("a", false), "key"));
+        assertFalse(pool.isPooled(POD, "a"));
+    }
+
+    @Test
+    void abortThenRelease() {
+        pool.lease(POD, "a");
+        // step aborted, the container is requested to terminate
+        pool.discard(POD, "a");
+        assertFalse(pool.release(POD, "node", "a", "key", 60, 2));
+        assertFalse(pool.isPooled(POD, "a"));
+        assertEquals(Optional.empty(), pool.acquire(POD, pod("a", true), "key"));
+    }
+
+    @Test
+    void discardIdle() {
+        pool.lease(POD, "a");
+        assertTrue(pool.release(POD, "node", "a", "key", 60, 2));
+        pool.discard(POD, "a");
+        assertFalse(pool.isPooled(POD, "a"));
+        assertEquals(Optional.empty(), pool.acquire(POD, pod("a", true), "key"));
+    }
+
+    @Test
+    void releaseNotLeased() {
+        assertFalse(pool.release(POD, "node", "a", "key", 60, 2));
+        assertFalse(pool.isPooled(POD, "a"));
+    }
+
+    @Test
+    void maxIdle() {
+        pool.lease(POD, "a");
+        pool.lease(POD, "b");
+        assertTrue(pool.release(POD, "node", "a", "key", 60, 1));
+        assertFalse(pool.release(POD, "node", "b", "key", 60, 1), "pool is full");
+        assertFalse(pool.isPooled(POD, "b"));
+        assertTrue(pool.isPooled(POD, "a"));
+        assertFalse(pool.isPooled("cloud/ns/other-pod", "a"));
+    }
+
+    @Test
+    void idleTimeout() throws Exception {
+        pool.lease(POD, "a");
+        assertTrue(pool.release(POD, "node", "a", "key", 1, 2));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (expired.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+
+        assertEquals(List.of("a"), expired);
+        assertFalse(pool.isPooled(POD, "a"));
+        assertEquals(Optional.empty(), pool.acquire(POD, pod("a", true), "key"));
+    }
+
+    @Test
+    void acquireCancelsIdleTimeout() throws Exception {
+        pool.lease(POD, "a");
+        assertTrue(pool.release(POD, "node", "a", "key", 1, 2));
+        assertEquals(Optional.of("a"), pool.acquire(POD, pod("a", true), "key"));
+        Thread.sleep(1500);
+        assertTrue(expired.isEmpty());
+        assertTrue(pool.isPooled(POD, "a"));
+    }
+
+    @Test
+    void reuseKeyIgnoresContainerName() {
+        EphemeralContainer a = container("a", "maven:3", 1000L, "FOO", "bar");
+        EphemeralContainer b = container("b", "maven:3", 1000L, "FOO", "bar");
+        assertEquals(
+                EphemeralContainerReusePool.reuseKey(a, null), EphemeralContainerReusePool.reuseKey(b, null));
+    }
+
+    @Test
+    void reuseKeyDiffers() {
+        String key = EphemeralContainerReusePool.reuseKey(container("a", "maven:3", 1000L, "FOO", "bar"), null);
+        assertNotEquals(
+                key, EphemeralContainerReusePool.reuseKey(container("a", "maven:4", 1000L, "FOO", "bar"), null));
+        assertNotEquals(
+                key, EphemeralContainerReusePool.reuseKey(container("a", "maven:3", 0L, "FOO", "bar"), null));
+        assertNotEquals(
+                key, EphemeralContainerReusePool.reuseKey(container("a", "maven:3", 1000L, "FOO", "baz"), null));
+        assertNotEquals(
+                key,
+                EphemeralContainerReusePool.reuseKey(
+                        container("a", "maven:3", 1000L, "FOO", "bar"), List.of("/entrypoint.sh")));
+    }
+
+    @Test
+    void reuseKeyDiffersBySecret() {
+        assertEquals(
+                EphemeralContainerReusePool.reuseKey(secretContainer("a", "deploy-key"), null),
+                EphemeralContainerReusePool.reuseKey(secretContainer("b", "deploy-key"), null));
+        assertNotEquals(
+                EphemeralContainerReusePool.reuseKey(secretContainer("a", "deploy-key"), null),
+                EphemeralContainerReusePool.reuseKey(secretContainer("a", "other-key"), null));
+    }
+
+    private static Pod pod(String containerName, boolean running) {
+        ContainerState state = running
+                ? new ContainerStateBuilder().withNewRunning().endRunning().build()
+                : new ContainerStateBuilder().withNewTerminated().withExitCode(0).endTerminated().build();
+        return new PodBuilder()
+                .withNewStatus()
+                .addNewEphemeralContainerStatus()
+                .withName(containerName)
+                .withState(state)
+                .endEphemeralContainerStatus()
+                .endStatus()
+                .build();
+    }
+
+    private static EphemeralContainer container(String name, String image, Long uid, String env, String value) {
+        return new EphemeralContainerBuilder()
+                .withName(name)
+                .withImage(image)
+                .withTargetContainerName("jnlp")
+                .withNewSecurityContext()
+                .withRunAsUser(uid)
+                .withRunAsGroup(uid)
+                .endSecurityContext()
+                .addNewEnv()
+                .withName(env)
+                .withValue(value)
+                .endEnv()
+                .build();
+    }
+
+    private static EphemeralContainer secretContainer(String name, String secretName) {
+        return new EphemeralContainerBuilder(container(name, "maven:3", 1000L, "FOO", "bar"))
+                .addNewEnv()
+                .withName("TOKEN")
+                .withNewValueFrom()
+                .withNewSecretKeyRef()
+                .withName(secretName)
+                .withKey("token")
+                .endSecretKeyRef()
+                .endValueFrom()
+                .endEnv()
+                .build();
+    }
+}
@@ -0,0 +1,105 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import hudson.EnvVars;
+import io.jenkins.plugins.kubernetes.ephemeral.EphemeralContainerRunEnvironmentCache.Computation;
+import io.jenkins.plugins.kubernetes.ephemeral.EphemeralContainerRunEnvironmentCache.Snapshot;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class EphemeralContainerRunEnvironmentCacheTest {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void snapshotComputedOnce() throws Exception {
+        Snapshot snapshot = new Snapshot();
+        AtomicInteger computed = new AtomicInteger();
+        Computation computation = () -> new EnvVars("BUILD", String.valueOf(computed.incrementAndGet()));
+
+        EnvVars env = snapshot.get(new EnvVars("FOO", "a"), computation);
+        assertEquals("1", env.get("BUILD"));
+        env.put("BUILD", "changed by the step");
+        assertEquals("1", snapshot.get(new EnvVars("FOO", "a"), computation).get("BUILD"), "copy returned");
+        assertEquals(1, computed.get());
+    }
+
+    @Test
+    void snapshotInvalidatedByActionsEnvironment() throws Exception {
+        Snapshot snapshot = new Snapshot();
+        AtomicInteger computed = new AtomicInteger();
+        Computation computation = () -> new EnvVars("BUILD", String.valueOf(computed.incrementAndGet()));
+        snapshot.get(new EnvVars("FOO", "a"), computation);
+
+        // variable of an environment contributing action changed
+        assertEquals("2", snapshot.get(new EnvVars("FOO", "b"), computation).get("BUILD"));
+        // new environment contributing action added to the build
+        assertEquals("3", snapshot.get(new EnvVars("FOO", "b", "BAR", "c"), computation).get("BUILD"));
+        assertEquals("3", snapshot.get(new EnvVars("FOO", "b", "BAR", "c"), computation).get("BUILD"));
+    }
+
+    @Test
+    void snapshotNotInvalidatedByOtherContributors() throws Exception {
+        Snapshot snapshot = new Snapshot();
+        AtomicInteger computed = new AtomicInteger();
+        Computation computation = () -> new EnvVars("FOO", "value " + computed.incrementAndGet());
+        snapshot.get(new EnvVars(), computation);
+
+        // env.FOO = 'b' in the Pipeline or an SCM checkout is not contributed by a build action, the stale value
+        // is overridden by the environment of each launch in the step body
+        assertEquals("value 1", snapshot.get(new EnvVars(), computation).get("FOO"));
+        assertEquals(1, computed.get());
+    }
+
+    @Test
+    void computeAsync() throws Exception {
+        assertEquals("env", EphemeralContainerRunEnvironmentCache.computeAsync(() -> "env", executor).get());
+        CompletableFuture<String> failed = EphemeralContainerRunEnvironmentCache.computeAsync(
+                () -> {
+                    throw new IOException("failed");
+                },
+                executor);
+        ExecutionException e = assertThrows(ExecutionException.class, failed::get);
+        assertInstanceOf(IOException.class, e.getCause());
+    }
+
+    @Test
+    void cancelInterruptsComputation() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CompletableFuture<String> environment = EphemeralContainerRunEnvironmentCache.computeAsync(
+                () -> {
+                    started.countDown();
+                    try {
+                        Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                        return "env";
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                        throw e;
+                    }
+                },
+                executor);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        environment.cancel(true);
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS), "computation interrupted");
+        assertTrue(environment.isCancelled());
+    }
+}
@@ -0,0 +1,59 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class EphemeralContainerRunTimingActionTest {
+
+    @Test
+    void aggregate() {
+        EphemeralContainerRunTimingAction action = new EphemeralContainerRunTimingAction();
+        action.add("3", "Build", timing("c1", "maven", 100, 1000));
+        action.add("4", "Build", timing("c2", "golang", 200, 3000));
+        action.add("5", null, timing("c3", "maven", 300, 0));
+
+        EphemeralContainerRunTimingAction.Summary total = action.getTotal();
+        assertEquals(3, total.getCount());
+        assertEquals(600, total.getDuration(EphemeralContainerPhase.PATCH));
+        assertEquals(4000, total.getDuration(EphemeralContainerPhase.IMAGE_PULL));
+        assertEquals(0, total.getDuration(EphemeralContainerPhase.START));
+        assertEquals(4600, total.getTotal());
+
+        List<EphemeralContainerRunTimingAction.Summary> stages = action.getStages();
+        assertEquals(2, stages.size());
+        assertEquals("Build", stages.get(0).getName());
+        assertEquals(2, stages.get(0).getCount());
+        assertEquals(4300, stages.get(0).getTotal());
+
+        List<EphemeralContainerRunTimingAction.Summary> images = action.getImages();
+        assertEquals("golang", images.get(0).getName());
+        assertEquals("maven", images.get(1).getName());
+        assertEquals(1400, images.get(1).getTotal());
+
+        assertEquals(3, action.getSteps().size());
+        assertEquals("c2", action.getSteps().get(1).getTiming().getContainerName());
+        assertEquals(0, action.getOmittedSteps());
+    }
+
+    @Test
+    void stepTimings() {
+        EphemeralContainerStepTimings timings = new EphemeralContainerStepTimings();
+        timings.add(EphemeralContainerPhase.PATCH, 10);
+        timings.add(EphemeralContainerPhase.PATCH, 20);
+        timings.add(EphemeralContainerPhase.START, -5);
+        timings.since(EphemeralContainerPhase.QUEUE, System.nanoTime());
+
+        assertEquals(30, timings.getDurations().get(EphemeralContainerPhase.PATCH));
+        assertEquals(0, timings.getDurations().get(EphemeralContainerPhase.START));
+        assertEquals(3, timings.getDurations().size());
+    }
+
+    private static EphemeralContainerStepTimingAction timing(String name, String image, long patch, long pull) {
+        EphemeralContainerStepTimings timings = new EphemeralContainerStepTimings();
+        timings.add(EphemeralContainerPhase.PATCH, patch);
+        timings.add(EphemeralContainerPhase.IMAGE_PULL, pull);
+        return new EphemeralContainerStepTimingAction(name, image, timings.getDurations());
+    }
+}
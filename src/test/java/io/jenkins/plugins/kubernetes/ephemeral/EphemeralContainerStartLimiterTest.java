@@ -0,0 +1,167 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.jenkins.plugins.kubernetes.ephemeral.EphemeralContainerStartLimiter.NodeLimit;
+import io.jenkins.plugins.kubernetes.ephemeral.EphemeralContainerStartLimiter.Permit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class EphemeralContainerStartLimiterTest {
+
+    private static final String NODE = "cloud/node-1";
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final EphemeralContainerStartLimiter limiter = new EphemeralContainerStartLimiter(() -> metrics);
+
+    @Test
+    void fifoOverLimit() throws Exception {
+        Permit holder = limiter.acquire(NODE, "node-1", 1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            String name = "step-" + i;
+            Thread t = new Thread(() -> {
+                try (Permit p = limiter.acquire(NODE, "node-1", 1)) {
+                    order.add(name);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads.add(t);
+            t.start();
+            // keep arrival order deterministic
+            awaitQueued(i + 1);
+        }
+
+        assertEquals(3, gauge(MetricNames.EPHEMERAL_CONTAINERS_START_QUEUE_DEPTH));
+        assertEquals(3, gauge(nodeGauge("node-1")));
+        assertTrue(order.isEmpty(), "node at its limit");
+
+        holder.close();
+        for (Thread t : threads) {
+            t.join(TimeUnit.SECONDS.toMillis(30));
+        }
+
+        assertEquals(List.of("step-0", "step-1", "step-2"), order);
+        assertEquals(0, gauge(MetricNames.EPHEMERAL_CONTAINERS_START_QUEUE_DEPTH));
+        assertEquals(0, gauge(nodeGauge("node-1")));
+        assertNull(limiter.getNodeLimit(NODE), "node released once no step holds a slot");
+    }
+
+    @Test
+    void interruptedWhileWaiting() throws Exception {
+        Permit holder = limiter.acquire(NODE, "node-1", 1);
+        CompletableFuture<Throwable> result = new CompletableFuture<>();
+        Thread waiter = new Thread(() -> {
+            try {
+                limiter.acquire(NODE, "node-1", 1).close();
+                result.complete(null);
+            } catch (Throwable t) {
+                result.complete(t);
+            }
+        });
+        waiter.start();
+        awaitQueued(1);
+        assertEquals(2, limiter.getNodeLimit(NODE).getRefs());
+
+        waiter.interrupt();
+        assertInstanceOf(InterruptedException.class, result.get(30, TimeUnit.SECONDS));
+        assertEquals(0, gauge(nodeGauge("node-1")));
+        NodeLimit node = limiter.getNodeLimit(NODE);
+        assertNotNull(node);
+        assertEquals(1, node.getRefs());
+        assertEquals(0, node.getAvailablePermits(), "interrupted step never held a slot");
+
+        holder.close();
+        assertNull(limiter.getNodeLimit(NODE));
+    }
+
+    @Test
+    void closeIdempotent() throws Exception {
+        Permit a = limiter.acquire(NODE, "node-1", 2);
+        Permit b = limiter.acquire(NODE, "node-1", 2);
+        NodeLimit node = limiter.getNodeLimit(NODE);
+        assertEquals(0, node.getAvailablePermits());
+
+        a.close();
+        a.close();
+        assertEquals(1, node.getAvailablePermits(), "slot released once");
+        assertEquals(1, node.getRefs());
+
+        b.close();
+        assertNull(limiter.getNodeLimit(NODE));
+    }
+
+    @Test
+    void limitChanged() throws Exception {
+        Permit old = limiter.acquire(NODE, "node-1", 1);
+        NodeLimit oldNode = limiter.getNodeLimit(NODE);
+
+        // not blocked by the slot held under the old limit
+        Permit current = limiter.acquire(NODE, "node-1", 2);
+        NodeLimit node = limiter.getNodeLimit(NODE);
+        assertEquals(2, node.getLimit());
+        assertEquals(2, node.getRefs());
+        assertEquals(1, node.getAvailablePermits());
+
+        old.close();
+        assertEquals(1, oldNode.getAvailablePermits(), "released to the old semaphore");
+        assertEquals(1, node.getAvailablePermits());
+        assertEquals(1, node.getRefs());
+
+        current.close();
+        assertEquals(2, node.getAvailablePermits());
+        assertNull(limiter.getNodeLimit(NODE));
+    }
+
+    @Test
+    void queueDepthByNode() throws Exception {
+        Permit holder = limiter.acquire(NODE, "node-1", 1);
+        try (Permit other = limiter.acquire("cloud/node-2", "node-2", 1)) {
+            Thread waiter = new Thread(() -> {
+                try {
+                    limiter.acquire(NODE, "node-1", 1).close();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            waiter.start();
+            awaitQueued(1);
+            assertEquals(1, gauge(nodeGauge("node-1")));
+            assertNull(metrics.getGauges().get(nodeGauge("node-2")), "no step ever waited on node-2");
+
+            holder.close();
+            waiter.join(TimeUnit.SECONDS.toMillis(30));
+            assertEquals(0, gauge(nodeGauge("node-1")));
+        }
+    }
+
+    private void awaitQueued(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (limiter.getNodeLimit(NODE).getQueueLength() < expected) {
+            assertTrue(System.nanoTime() < deadline, "timed out waiting for queued steps");
+            Thread.sleep(10);
+        }
+    }
+
+    private static String nodeGauge(String node) {
+        return MetricNames.dimension(
+                MetricNames.EPHEMERAL_CONTAINERS_START_QUEUE_DEPTH, EphemeralContainerMetrics.NODE, node);
+    }
+
+    private int gauge(String name) {
+        Gauge<?> gauge = metrics.getGauges().get(name);
+        return gauge == null ? 0 : ((Number) gauge.getValue()).intValue();
+    }
+}
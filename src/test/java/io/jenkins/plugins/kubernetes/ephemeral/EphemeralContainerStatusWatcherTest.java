@@ -0,0 +1,142 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
+import io.jenkins.plugins.kubernetes.ephemeral.EphemeralContainerStatusWatcher.Subscription;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.junit.jupiter.api.Test;
+
+class EphemeralContainerStatusWatcherTest {
+
+    private static final String POD = "cloud/ns/pod";
+
+    private final EphemeralContainerStatusWatcher watcher = new EphemeralContainerStatusWatcher();
+    private final FakeSubscriber subscriber = new FakeSubscriber();
+
+    @Test
+    void fanOut() throws Exception {
+        CompletableFuture<Pod> running = watcher.watch(POD, subscriber, pod -> hasPhase(pod, "Running"));
+        CompletableFuture<Pod> succeeded = watcher.watch(POD, subscriber, pod -> hasPhase(pod, "Succeeded"));
+        assertEquals(1, subscriber.subscribed, "single subscription shared by all waiters");
+
+        Pod pod = pod("Running");
+        subscriber.handler.onUpdate(pod("Pending"), pod);
+        assertSame(pod, running.get());
+        assertFalse(succeeded.isDone());
+        assertEquals(0, subscriber.closed, "subscription open while a waiter is left");
+
+        subscriber.handler.onUpdate(pod, pod("Succeeded"));
+        assertTrue(succeeded.isDone());
+        assertEquals(1, subscriber.closed, "subscription closed once the last waiter left");
+    }
+
+    @Test
+    void unsubscribe() {
+        CompletableFuture<Pod> first = watcher.watch(POD, subscriber, pod -> false);
+        CompletableFuture<Pod> second = watcher.watch(POD, subscriber, pod -> false);
+        first.cancel(false);
+        assertEquals(0, subscriber.closed);
+        second.cancel(false);
+        assertEquals(1, subscriber.closed);
+
+        // next waiter opens a new subscription
+        watcher.watch(POD, subscriber, pod -> false);
+        assertEquals(2, subscriber.subscribed);
+    }
+
+    @Test
+    void currentPod() throws Exception {
+        subscriber.current = pod("Running");
+        CompletableFuture<Pod> running = watcher.watch(POD, subscriber, pod -> hasPhase(pod, "Running"));
+        assertSame(subscriber.current, running.get());
+        assertEquals(1, subscriber.closed);
+    }
+
+    @Test
+    void podDeleted() throws Exception {
+        CompletableFuture<Pod> gone = watcher.watch(POD, subscriber, pod -> pod == null);
+        assertFalse(gone.isDone(), "current pod exists");
+        subscriber.handler.onDelete(subscriber.current, false);
+        assertTrue(gone.isDone());
+        assertNull(gone.get());
+    }
+
+    @Test
+    void conditionFailure() {
+        CompletableFuture<Pod> failed = watcher.watch(POD, subscriber, pod -> {
+            throw new IllegalStateException("container terminated");
+        });
+        ExecutionException e = assertThrows(ExecutionException.class, failed::get);
+        assertEquals("container terminated", e.getCause().getMessage());
+        assertEquals(1, subscriber.closed);
+    }
+
+    @Test
+    void uncachedPod() throws Exception {
+        // cache enabled but the pod is not in the informer store, i.e. not synced yet or labels do not match
+        EphemeralContainerPodCache.PodInformer cache =
+                new EphemeralContainerPodCache().informer("cloud/ns", null, "ns", Map.of("jenkins", "slave"));
+        assertNotNull(cache);
+        CompletableFuture<Pod> running = watcher.watch(
+                POD,
+                handler -> EphemeralContainerStatusWatcher.subscribe(POD, "pod", cache, subscriber, handler),
+                pod -> hasPhase(pod, "Running"));
+        assertEquals(1, subscriber.subscribed, "pod followed with its own informer");
+        assertFalse(running.isDone(), "pod not reported gone");
+
+        Pod pod = pod("Running");
+        subscriber.handler.onUpdate(pod("Pending"), pod);
+        assertSame(pod, running.get());
+    }
+
+    private static boolean hasPhase(Pod pod, String phase) {
+        return pod != null && pod.getStatus() != null && phase.equals(pod.getStatus().getPhase());
+    }
+
+    private static Pod pod(String phase) {
+        return new PodBuilder()
+                .withNewMetadata()
+                .withName("pod")
+                .endMetadata()
+                .withNewStatus()
+                .withPhase(phase)
+                .endStatus()
+                .build();
+    }
+
+    private static class FakeSubscriber implements EphemeralContainerStatusWatcher.Subscriber {
+        private ResourceEventHandler<Pod> handler;
+        private Pod current = pod("Pending");
+        private int subscribed;
+        private int closed;
+
+        @Override
+        public Subscription subscribe(ResourceEventHandler<Pod> handler) {
+            assertNotNull(handler);
+            this.handler = handler;
+            subscribed++;
+            return new Subscription() {
+                @Override
+                public Pod current() {
+                    return current;
+                }
+
+                @Override
+                public void close() {
+                    closed++;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import io.fabric8.kubernetes.api.model.ContainerStatus;
+import io.fabric8.kubernetes.api.model.ContainerStatusBuilder;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class EphemeralContainerTerminatorTest {
+
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final List<List<String>> stopped = new ArrayList<>();
+    private final EphemeralContainerTerminator terminator = new EphemeralContainerTerminator(tasks::add, 0);
+
+    @Test
+    void batchPerPod() {
+        terminator.add("cloud/ns/pod", "a", stopped::add);
+        terminator.add("cloud/ns/pod", "b", containers -> stopped.add(List.of("unexpected")));
+        terminator.add("cloud/ns/other", "c", stopped::add);
+        assertEquals(2, tasks.size(), "one flush per pod");
+
+        runTasks();
+        assertEquals(List.of(List.of("a", "b"), List.of("c")), stopped);
+    }
+
+    @Test
+    void newBatchAfterFlush() {
+        terminator.add("cloud/ns/pod", "a", stopped::add);
+        runTasks();
+        terminator.add("cloud/ns/pod", "a", stopped::add);
+        terminator.add("cloud/ns/pod", "b", stopped::add);
+        runTasks();
+        assertEquals(List.of(List.of("a"), List.of("a", "b")), stopped);
+    }
+
+    @Test
+    void stillRunning() {
+        ContainerStatus noState = new ContainerStatusBuilder().withName("unknown").build();
+        Pod pod = new PodBuilder()
+                .withNewStatus()
+                .withEphemeralContainerStatuses(status("running", false), status("terminated", true), noState)
+                .endStatus()
+                .build();
+        assertEquals(
+                List.of("running"),
+                EphemeralContainerTerminator.stillRunning(pod, List.of("running", "terminated", "unknown", "gone")));
+        assertEquals(List.of(), EphemeralContainerTerminator.stillRunning(null, List.of("running")));
+    }
+
+    private void runTasks() {
+        List<Runnable> run = new ArrayList<>(tasks);
+        tasks.clear();
+        run.forEach(Runnable::run);
+    }
+
+    private static ContainerStatus status(String name, boolean terminated) {
+        ContainerStatusBuilder builder = new ContainerStatusBuilder().withName(name);
+        if (terminated) {
+            return builder.withNewState()
+                    .withNewTerminated()
+                    .withExitCode(0)
+                    .endTerminated()
+                    .endState()
+                    .build();
+        }
+
+        return builder.withNewState().withNewRunning().endRunning().endState().build();
+    }
+}
@@ -35,7 +35,12 @@ class KubernetesClientModelFactoryTest {
                 List.of(
                         "sh",
                         "-c",
-                        "set -e; { while ! test -f '/tmp/foo-jenkins-step-is-done-monitor' ; do sleep 1; done }"),
+                        "set -e; { if mkfifo '/tmp/foo-jenkins-step-is-done-monitor.fifo' 2>/dev/null; then "
+                                + "read -r l 0<>'/tmp/foo-jenkins-step-is-done-monitor.fifo' || true; "
+                                + "elif command -v inotifywait >/dev/null 2>&1; then "
+                                + "while ! test -f '/tmp/foo-jenkins-step-is-done-monitor' ; do "
+                                + "inotifywait -qq -t 10 -e create -e moved_to '/tmp' || true; done; fi; "
+                                + "while ! test -f '/tmp/foo-jenkins-step-is-done-monitor' ; do sleep 1; done }"),
                 ec.getArgs());
         assertEquals(true, ec.getTty());
         assertEquals(true, ec.getStdin());
@@ -54,7 +59,12 @@ class KubernetesClientModelFactoryTest {
                 List.of(
                         "sh",
                         "-c",
-                        "set -e; { while ! test -f '/tmp/foo-jenkins-step-is-done-monitor' ; do sleep 1; done }"),
+                        "set -e; { if mkfifo '/tmp/foo-jenkins-step-is-done-monitor.fifo' 2>/dev/null; then "
+                                + "read -r l 0<>'/tmp/foo-jenkins-step-is-done-monitor.fifo' || true; "
+                                + "elif command -v inotifywait >/dev/null 2>&1; then "
+                                + "while ! test -f '/tmp/foo-jenkins-step-is-done-monitor' ; do "
+                                + "inotifywait -qq -t 10 -e create -e moved_to '/tmp' || true; done; fi; "
+                                + "while ! test -f '/tmp/foo-jenkins-step-is-done-monitor' ; do sleep 1; done }"),
                 ec.getArgs());
     }
 
@@ -69,7 +79,12 @@ class KubernetesClientModelFactoryTest {
                 List.of(
                         "sh",
                         "-c",
-                        "set -e; { while ! test -f '/tmp/foo-jenkins-step-is-done-monitor' ; do sleep 1; done }"),
+                        "set -e; { if mkfifo '/tmp/foo-jenkins-step-is-done-monitor.fifo' 2>/dev/null; then "
+                                + "read -r l 0<>'/tmp/foo-jenkins-step-is-done-monitor.fifo' || true; "
+                                + "elif command -v inotifywait >/dev/null 2>&1; then "
+                                + "while ! test -f '/tmp/foo-jenkins-step-is-done-monitor' ; do "
+                                + "inotifywait -qq -t 10 -e create -e moved_to '/tmp' || true; done; fi; "
+                                + "while ! test -f '/tmp/foo-jenkins-step-is-done-monitor' ; do sleep 1; done }"),
                 ec.getCommand());
         assertEquals(List.of(), ec.getArgs());
     }
@@ -118,6 +133,19 @@ class KubernetesClientModelFactoryTest {
         EphemeralContainer ec = KubernetesClientModelFactory.createEphemeralContainer("foo", step, p);
         assertEquals("/jenkins/work", ec.getWorkingDir());
         assertEquals(List.of(vm), ec.getVolumeMounts());
+        assertEquals(
+                List.of(
+                        "sh",
+                        "-c",
+                        "set -e; { if mkfifo '/jenkins/work/foo-jenkins-step-is-done-monitor.fifo' 2>/dev/null; "
+                                + "then read -r l 0<>'/jenkins/work/foo-jenkins-step-is-done-monitor.fifo' || true; "
+                                + "elif command -v inotifywait >/dev/null 2>&1; then "
+                                + "while ! test -f '/jenkins/work/foo-jenkins-step-is-done-monitor' ; do "
+                                + "inotifywait -qq -t 10 -e create -e moved_to '/jenkins/work' || true; done; fi; "
+                                + "while ! test -f '/jenkins/work/foo-jenkins-step-is-done-monitor' ; do sleep 1; "
+                                + "done; rm -f '/jenkins/work/foo-jenkins-step-is-done-monitor.fifo' "
+                                + "'/jenkins/work/foo-jenkins-step-is-done-monitor' || true; }"),
+                ec.getArgs());
     }
 
     @ParameterizedTest
@@ -144,4 +172,62 @@ class KubernetesClientModelFactoryTest {
             assertNull(sc, "expect security context not configured");
         }
     }
+
+    @Test
+    void buildSecurityContextFromPod() {
+        EphemeralContainerStep step = new EphemeralContainerStep("maven");
+        Pod p = new PodBuilder()
+                .withNewSpec()
+                .withNewSecurityContext()
+                .withRunAsUser(1000L)
+                .withRunAsGroup(2000L)
+                .endSecurityContext()
+                .addNewContainer()
+                .withName(KubernetesCloud.JNLP_NAME)
+                .withNewSecurityContext()
+                .withRunAsUser(1001L)
+                .endSecurityContext()
+                .endContainer()
+                .endSpec()
+                .build();
+
+        SecurityContext sc = KubernetesClientModelFactory.createSecurityContext(step, p, null);
+        assertNotNull(sc);
+        assertEquals(1001L, sc.getRunAsUser(), "container user takes precedence");
+        assertEquals(2000L, sc.getRunAsGroup(), "group inherited from pod");
+
+        step.setRunAsUser("5");
+        sc = KubernetesClientModelFactory.createSecurityContext(step, p, null);
+        assertNotNull(sc);
+        assertEquals(5L, sc.getRunAsUser(), "step user takes precedence");
+        assertNull(sc.getRunAsGroup());
+    }
+
+    @Test
+    void buildSecurityContextFromParentContainer() {
+        EphemeralContainerStep step = new EphemeralContainerStep("maven");
+        Pod p = new PodBuilder()
+                .withNewSpec()
+                .addNewContainer()
+                .withName(KubernetesCloud.JNLP_NAME)
+                .endContainer()
+                .addNewEphemeralContainer()
+                .withName("parent")
+                .withNewSecurityContext()
+                .withRunAsUser(1L)
+                .withRunAsGroup(2L)
+                .endSecurityContext()
+                .endEphemeralContainer()
+                .endSpec()
+                .build();
+
+        assertNull(KubernetesClientModelFactory.createSecurityContext(step, p, null));
+        SecurityContext sc = KubernetesClientModelFactory.createSecurityContext(step, p, "parent");
+        assertNotNull(sc);
+        assertEquals(1L, sc.getRunAsUser());
+        assertEquals(2L, sc.getRunAsGroup());
+
+        EphemeralContainer ec = KubernetesClientModelFactory.createEphemeralContainer("foo", step, p, "parent");
+        assertEquals(sc, ec.getSecurityContext());
+    }
 }
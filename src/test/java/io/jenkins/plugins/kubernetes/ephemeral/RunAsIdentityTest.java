@@ -0,0 +1,36 @@
+package io.jenkins.plugins.kubernetes.ephemeral;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.NullAndEmptySource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class RunAsIdentityTest {
+
+    @ParameterizedTest
+    @CsvSource(
+            delimiter = '|',
+            value = {
+                "uid=1000(jenkins) gid=1000(jenkins) groups=1000(jenkins)|1000|1000",
+                "uid=0(root) gid=0(root) groups=0(root),1(bin),2(daemon)|0|0",
+                "uid=1001 gid=0 groups=0|1001|0",
+                "uid=1000(jenkins) gid=2000 groups=2000,1000(jenkins)|1000|2000",
+            })
+    void parse(String output, long uid, long gid) {
+        RunAsIdentity identity = RunAsIdentity.parse(output);
+        assertNotNull(identity);
+        assertEquals(uid, identity.getUid());
+        assertEquals(gid, identity.getGid());
+    }
+
+    @ParameterizedTest
+    @NullAndEmptySource
+    @ValueSource(strings = {"id: command not found", "uid=1000(jenkins)", "uid=abc gid=def"})
+    void parseInvalid(String output) {
+        assertNull(RunAsIdentity.parse(output));
+    }
+}
@@ -1,6 +1,7 @@
 package io.jenkins.plugins.kubernetes.ephemeral.it;
 
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 import hudson.model.Executor;
@@ -18,6 +19,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.csanchez.jenkins.plugins.kubernetes.KubernetesCloud;
@@ -251,6 +253,42 @@ class EphemeralContainerKubernetesPipelineIT {
         j.assertLogContains("Finished: ABORTED", run);
     }
 
+    @Test
+    void stepStoppedWhileStarting() throws Exception {
+        var run = scheduleJob();
+        assertNotNull(run);
+        SemaphoreStep.waitForStart("wait/1", run);
+        j.assertLogNotContains("body started", run);
+
+        // the container added by the stopped step is terminated once it is running
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(5);
+        try (KubernetesClient client = new KubernetesClientBuilder().build()) {
+            while (!isStepContainerTerminated(client)) {
+                assertTrue(System.nanoTime() < deadline, "ephemeral container was not terminated");
+                Thread.sleep(1000);
+            }
+        }
+
+        SemaphoreStep.success("wait/1", null);
+        j.assertBuildStatusSuccess(j.waitForCompletion(run));
+        j.assertLogNotContains("body started", run);
+    }
+
+    private boolean isStepContainerTerminated(KubernetesClient client) {
+        return client
+                .pods()
+                .inNamespace(TESTING_NAMESPACE)
+                .withLabel("test-method", name)
+                .list()
+                .getItems()
+                .stream()
+                .filter(p -> p.getStatus() != null && p.getStatus().getEphemeralContainerStatuses() != null)
+                .flatMap(p -> p.getStatus().getEphemeralContainerStatuses().stream())
+                .anyMatch(cs -> cs.getName().startsWith("jkns-step-")
+                        && cs.getState() != null
+                        && cs.getState().getTerminated() != null);
+    }
+
     @Test
     void nestedContainersRedis() throws Exception {
         var run = scheduleJob();
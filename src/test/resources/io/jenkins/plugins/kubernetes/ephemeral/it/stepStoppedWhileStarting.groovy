@@ -0,0 +1,11 @@
+node('busybox') {
+    catchError(buildResult: 'SUCCESS', catchInterruptions: true) {
+        timeout(time: 2, unit: 'SECONDS') {
+            // large image so the step is stopped while the container is starting
+            withEphemeralContainer(image: 'maven:3.9-eclipse-temurin-21') {
+                echo 'body started'
+            }
+        }
+    }
+    semaphore 'wait'
+}